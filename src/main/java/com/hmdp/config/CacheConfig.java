@@ -0,0 +1,101 @@
+package com.hmdp.config;
+
+import cn.hutool.core.bean.BeanUtil;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.User;
+import com.hmdp.mapper.CacheOutboxMapper;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.UserMapper;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidationBus;
+import com.hmdp.utils.CacheInvalidationPipeline;
+import com.hmdp.utils.CacheRebuildExecutor;
+import com.hmdp.utils.ChangeSource;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.IdBloomFilters;
+import com.hmdp.utils.InvalidationTransport;
+import com.hmdp.utils.LocalCacheManager;
+import com.hmdp.utils.OutboxChangeSource;
+import com.hmdp.utils.RedisInvalidationTransport;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
+import static com.hmdp.utils.RedisConstants.CACHE_USER_TTL;
+
+/**
+ * 多级缓存相关配置
+ */
+@Configuration
+public class CacheConfig {
+
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        return container;
+    }
+
+    /**
+     * L1失效广播走Redis发布订阅
+     */
+    @Bean
+    public InvalidationTransport invalidationTransport(StringRedisTemplate stringRedisTemplate,
+                                                       RedisMessageListenerContainer container) {
+        return new RedisInvalidationTransport(stringRedisTemplate, container);
+    }
+
+    @Bean
+    public CacheInvalidationBus cacheInvalidationBus(InvalidationTransport invalidationTransport,
+                                                     LocalCacheManager localCacheManager) {
+        return new CacheInvalidationBus(invalidationTransport, localCacheManager);
+    }
+
+    /**
+     * 缓存重建线程池，队列有界，同一个key只保留一个重建任务
+     */
+    @Bean
+    public CacheRebuildExecutor cacheRebuildExecutor(@Value("${hmdp.cache.rebuild.threads:10}") int threads,
+                                                     @Value("${hmdp.cache.rebuild.queue-capacity:1000}") int queueCapacity) {
+        return new CacheRebuildExecutor(threads, queueCapacity);
+    }
+
+    /**
+     * 默认的变更来源是触发器写入的outbox表，接入binlog时提供一个ChangeSource的bean替换即可
+     */
+    @Bean
+    @ConditionalOnMissingBean(ChangeSource.class)
+    @ConditionalOnProperty(name = "hmdp.cache.cdc.enabled", havingValue = "true")
+    public ChangeSource outboxChangeSource(CacheOutboxMapper cacheOutboxMapper) {
+        return new OutboxChangeSource(cacheOutboxMapper);
+    }
+
+    /**
+     * 商铺和用户的热点key变更后直接刷新；笔记只有id布隆过滤器，没有缓存值，只做失效
+     */
+    @Bean
+    @ConditionalOnProperty(name = "hmdp.cache.cdc.enabled", havingValue = "true")
+    public CacheInvalidationPipeline cacheInvalidationPipeline(ChangeSource changeSource, CacheClient cacheClient,
+                                                               IdBloomFilters idBloomFilters, HotKeyDetector hotKeyDetector,
+                                                               ShopMapper shopMapper, UserMapper userMapper,
+                                                               @Value("${hmdp.cache.cdc.batch-size:500}") int batchSize,
+                                                               @Value("${hmdp.cache.cdc.poll-interval:200}") long pollInterval,
+                                                               @Value("${hmdp.cache.cdc.stripes:4}") int stripes) {
+        CacheInvalidationPipeline pipeline = new CacheInvalidationPipeline(changeSource, cacheClient, idBloomFilters,
+                hotKeyDetector, batchSize, pollInterval, stripes);
+        pipeline.registerRefresher("tb_shop", shopMapper::selectById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        pipeline.registerRefresher("tb_user", id -> {
+            User user = userMapper.selectById(id);
+            return user == null ? null : BeanUtil.copyProperties(user, UserDTO.class);
+        }, CACHE_USER_TTL, TimeUnit.MINUTES);
+        return pipeline;
+    }
+}
@@ -0,0 +1,36 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.GridShopLocator;
+import com.hmdp.utils.RedisShopLocator;
+import com.hmdp.utils.ShopLocator;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+/**
+ * 附近商铺索引，hmdp.shop.geo.locator选择实现
+ */
+@Configuration
+public class ShopGeoConfig {
+
+    /**
+     * 默认用Redis GEO，各节点共享同一份数据
+     */
+    @Bean
+    @ConditionalOnProperty(name = "hmdp.shop.geo.locator", havingValue = "redis", matchIfMissing = true)
+    public ShopLocator redisShopLocator(StringRedisTemplate stringRedisTemplate, RedissonClient redissonClient) {
+        return new RedisShopLocator(stringRedisTemplate, redissonClient);
+    }
+
+    /**
+     * 进程内网格，查询不走网络；增量更新只作用于本节点，其他节点的修改靠定时全量重建同步
+     */
+    @Bean
+    @ConditionalOnProperty(name = "hmdp.shop.geo.locator", havingValue = "memory")
+    public ShopLocator gridShopLocator(@Value("${hmdp.shop.geo.cell-size:0.01}") double cellSize) {
+        return new GridShopLocator(cellSize);
+    }
+}
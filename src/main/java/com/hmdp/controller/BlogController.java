@@ -49,17 +49,35 @@ public class BlogController {
         UserDTO user = UserHolder.getUser();
         // 根据用户查询
         Page<Blog> page = blogService.query()
-                .eq("user_id", user.getId()).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+                .eq("user_id", user.getId()).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
         return Result.ok(records);
     }
 
+    /**
+     * 游标分页查询自己的笔记
+     * @param cursor 上一页返回的nextCursor，第一页不传
+     */
+    @GetMapping("/of/me/scroll")
+    public Result queryMyBlogScroll(@RequestParam(value = "cursor", required = false) String cursor) {
+        return blogService.queryBlogOfUserScroll(UserHolder.getUser().getId(), cursor);
+    }
+
     @GetMapping("/hot")
     public Result queryHotBlog(@RequestParam(value = "current", defaultValue = "1") Integer current) {
         return blogService.queryHotBlog(current);
     }
 
+    /**
+     * 游标分页查询热门笔记
+     * @param cursor 上一页返回的nextCursor，第一页不传
+     */
+    @GetMapping("/hot/scroll")
+    public Result queryHotBlogScroll(@RequestParam(value = "cursor", required = false) String cursor) {
+        return blogService.queryHotBlogScroll(cursor);
+    }
+
     @GetMapping("/{id}")
     public Result queryBlogById(@PathVariable("id") Long id) {
         return blogService.queryBlogById(id);
@@ -81,12 +99,23 @@ public class BlogController {
             @RequestParam("id") Long id) {
         // 根据用户查询
         Page<Blog> page = blogService.query()
-                .eq("user_id", id).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+                .eq("user_id", id).page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
         // 获取当前页数据
         List<Blog> records = page.getRecords();
         return Result.ok(records);
     }
 
+    /**
+     * 游标分页查询某个用户的笔记
+     * @param cursor 上一页返回的nextCursor，第一页不传
+     */
+    @GetMapping("/of/user/scroll")
+    public Result queryBlogByUserIdScroll(
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam("id") Long id) {
+        return blogService.queryBlogOfUserScroll(id, cursor);
+    }
+
     @GetMapping("/of/follow")
     public Result queryBlogOfFollow(
             @RequestParam("lastId") Long max, @RequestParam(value = "offset", defaultValue = "0") Integer offset){
@@ -0,0 +1,117 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheRebuildExecutor;
+import com.hmdp.utils.FeedManager;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.LocalCacheManager;
+import com.hmdp.utils.ShopCacheWarmer;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+
+/**
+ * <p>
+ * 缓存运行状态查询
+ * </p>
+ */
+@RestController
+@RequestMapping("/cache")
+public class CacheController {
+
+    @Resource
+    private LocalCacheManager localCacheManager;
+
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private ShopCacheWarmer shopCacheWarmer;
+
+    @Resource
+    private CacheRebuildExecutor cacheRebuildExecutor;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private FeedManager feedManager;
+
+    /**
+     * 查询各前缀进程内缓存的命中率、容量等统计
+     * @return 统计数据
+     */
+    @GetMapping("/local/stats")
+    public Result queryLocalCacheStats() {
+        return Result.ok(localCacheManager.stats());
+    }
+
+    /**
+     * 查询各前缀未来的过期时间分布，用来确认过期时间是否被打散
+     * @return 每10秒一个槽的过期数量
+     */
+    @GetMapping("/expiry/histogram")
+    public Result queryExpiryHistogram() {
+        return Result.ok(cacheClient.expiryHistograms());
+    }
+
+    /**
+     * 手动触发一次商铺缓存预热，在后台执行，立即返回，进度用GET查询
+     * @return 没开启预热或已经有预热在执行时返回失败
+     */
+    @PostMapping("/warmup/shop")
+    public Result warmupShop() {
+        if (!shopCacheWarmer.isEnabled()) {
+            return Result.fail("商铺查询没有使用逻辑过期，未开启预热");
+        }
+        if (!shopCacheWarmer.warmupAsync()) {
+            return Result.fail("预热正在执行中");
+        }
+        return Result.ok(shopCacheWarmer.progress());
+    }
+
+    /**
+     * 查询最近一次商铺缓存预热的进度
+     */
+    @GetMapping("/warmup/shop")
+    public Result queryShopWarmupProgress() {
+        return Result.ok(shopCacheWarmer.progress());
+    }
+
+    /**
+     * 查询缓存重建线程池的队列深度、去重/拒绝次数、耗时和失败次数
+     */
+    @GetMapping("/rebuild/stats")
+    public Result queryRebuildStats() {
+        return Result.ok(cacheRebuildExecutor.stats());
+    }
+
+    /**
+     * 查询缓存重建请求合并的执行次数、合并次数和正在加载的key数
+     */
+    @GetMapping("/single-flight/stats")
+    public Result querySingleFlightStats() {
+        return Result.ok(cacheClient.singleFlightStats());
+    }
+
+    /**
+     * 查询访问最多的key及是否已被识别为热点
+     */
+    @GetMapping("/hot-keys")
+    public Result queryHotKeys() {
+        return Result.ok(hotKeyDetector.topKeys());
+    }
+
+    /**
+     * 查询关注流收件箱长度分布、重建和数据库回源耗时、淘汰数量
+     */
+    @GetMapping("/feed/stats")
+    public Result queryFeedStats() {
+        return Result.ok(feedManager.stats());
+    }
+}
@@ -1,12 +1,9 @@
 package com.hmdp.controller;
 
 
-import cn.hutool.core.util.StrUtil;
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
-import com.hmdp.utils.SystemConstants;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
@@ -62,22 +59,39 @@ public class ShopController {
     }
 
     /**
-     * 根据商铺类型分页查询商铺信息
+     * 根据商铺类型分页查询商铺信息，传了坐标时按距离排序
      * @param typeId 商铺类型
      * @param current 页码
+     * @param x 经度
+     * @param y 纬度
      * @return 商铺列表
      */
     @GetMapping("/of/type")
     public Result queryShopByType(
             @RequestParam("typeId") Integer typeId,
-            @RequestParam(value = "current", defaultValue = "1") Integer current
+            @RequestParam(value = "current", defaultValue = "1") Integer current,
+            @RequestParam(value = "x", required = false) Double x,
+            @RequestParam(value = "y", required = false) Double y
+    ) {
+        return shopService.queryShopByType(typeId, current, x, y);
+    }
+
+    /**
+     * 根据商铺类型游标分页查询商铺信息，传了坐标时按距离排序
+     * @param typeId 商铺类型
+     * @param cursor 上一页返回的nextCursor，第一页不传
+     * @param x 经度
+     * @param y 纬度
+     * @return 商铺列表和下一页游标
+     */
+    @GetMapping("/of/type/scroll")
+    public Result queryShopByTypeScroll(
+            @RequestParam("typeId") Integer typeId,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "x", required = false) Double x,
+            @RequestParam(value = "y", required = false) Double y
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .eq("type_id", typeId)
-                .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        return shopService.queryShopByTypeScroll(typeId, cursor, x, y);
     }
 
     /**
@@ -91,11 +105,31 @@ public class ShopController {
             @RequestParam(value = "name", required = false) String name,
             @RequestParam(value = "current", defaultValue = "1") Integer current
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .like(StrUtil.isNotBlank(name), "name", name)
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        // 走进程内搜索索引，不再LIKE全表扫描
+        return shopService.queryShopByName(name, current);
+    }
+
+    /**
+     * 根据商铺名称关键字游标分页查询商铺信息
+     * @param name 商铺名称关键字
+     * @param cursor 上一页返回的nextCursor，第一页不传
+     * @return 商铺列表和下一页游标
+     */
+    @GetMapping("/of/name/scroll")
+    public Result queryShopByNameScroll(
+            @RequestParam(value = "name", required = false) String name,
+            @RequestParam(value = "cursor", required = false) String cursor
+    ) {
+        return shopService.queryShopByNameScroll(name, cursor);
+    }
+
+    /**
+     * 商铺名称联想
+     * @param prefix 已输入的名称前缀
+     * @return 商铺名称列表
+     */
+    @GetMapping("/of/name/suggest")
+    public Result suggestShopName(@RequestParam("prefix") String prefix) {
+        return shopService.suggestShopName(prefix);
     }
 }
@@ -0,0 +1,16 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 游标分页结果，nextCursor原样传回即可查询下一页，为空表示没有下一页
+ */
+@Data
+@AllArgsConstructor
+public class CursorResult {
+    private List<?> list;
+    private String nextCursor;
+}
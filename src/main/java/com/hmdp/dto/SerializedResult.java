@@ -0,0 +1,15 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * 提前序列化好的响应体，带版本号，直接写回给前端不用再序列化
+ */
+@Data
+@AllArgsConstructor
+public class SerializedResult {
+    private long version;
+    private String etag;
+    private byte[] body;
+}
@@ -0,0 +1,53 @@
+package com.hmdp.entity;
+
+import com.baomidou.mybatisplus.annotation.IdType;
+import com.baomidou.mybatisplus.annotation.TableId;
+import com.baomidou.mybatisplus.annotation.TableName;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.experimental.Accessors;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * <p>
+ * 缓存失效的变更记录，由db/cache_outbox_triggers.sql里的触发器写入
+ * </p>
+ */
+@Data
+@EqualsAndHashCode(callSuper = false)
+@Accessors(chain = true)
+@TableName("tb_cache_outbox")
+public class CacheOutbox implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * 主键，也是变更的顺序
+     */
+    @TableId(value = "id", type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 发生变更的表
+     */
+    private String tableName;
+
+    /**
+     * 发生变更的行id
+     */
+    private Long rowId;
+
+    /**
+     * 变更类型，INSERT/UPDATE/DELETE
+     */
+    private String op;
+
+    /**
+     * 变更时间
+     */
+    private LocalDateTime createTime;
+
+
+}
@@ -0,0 +1,34 @@
+package com.hmdp.interceptor;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.UserHolder;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 运维接口拦截器，只放行配置的管理员用户。排在登录拦截器之后。
+ */
+public class AdminInterceptor implements HandlerInterceptor {
+
+    private final Set<Long> adminUserIds;
+
+    public AdminInterceptor(Collection<Long> adminUserIds) {
+        this.adminUserIds = new HashSet<>(adminUserIds);
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        UserDTO user = UserHolder.getUser();
+        if (user == null || !adminUserIds.contains(user.getId())) {
+            // 不是管理员，拒绝访问
+            response.setStatus(403);
+            return false;
+        }
+        return true;
+    }
+}
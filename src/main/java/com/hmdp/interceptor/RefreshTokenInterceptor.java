@@ -3,6 +3,7 @@ package com.hmdp.interceptor;
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.HotKeyDetector;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.UserHolder;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -20,8 +21,11 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
 
     private StringRedisTemplate stringRedisTemplate;
 
-    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate) {
+    private HotKeyDetector hotKeyDetector;
+
+    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate, HotKeyDetector hotKeyDetector) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.hotKeyDetector = hotKeyDetector;
     }
 
     @Override
@@ -31,9 +35,9 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
         if (StrUtil.isBlank(token)) {
             return true;
         }
-        // 2.基于TOKEN获取redis中的用户
+        // 2.基于TOKEN获取redis中的用户，热点token直接用进程内缓存，缓存过期重新加载时才刷新有效期
         String key  = RedisConstants.LOGIN_USER_KEY + token;
-        Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(key);
+        Map<Object, Object> userMap = hotKeyDetector.getOrLoad(key, () -> loadUser(key));
         // 3.判断用户是否存在
         if (userMap.isEmpty()) {
             return true;
@@ -42,12 +46,19 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
         UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
         // 6.存在，保存用户信息到 ThreadLocal
         UserHolder.saveUser(userDTO);
-        // 7.刷新token有效期
-        stringRedisTemplate.expire(key, RedisConstants.LOGIN_USER_TTL, TimeUnit.MINUTES);
-        // 8.放行
+        // 7.放行
         return true;
     }
 
+    private Map<Object, Object> loadUser(String key) {
+        Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(key);
+        if (!userMap.isEmpty()) {
+            // 刷新token有效期
+            stringRedisTemplate.expire(key, RedisConstants.LOGIN_USER_TTL, TimeUnit.MINUTES);
+        }
+        return userMap;
+    }
+
     @Override
     public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) throws Exception {
         // 移除用户
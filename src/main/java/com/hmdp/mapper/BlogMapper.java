@@ -2,6 +2,10 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.time.LocalDateTime;
+import java.util.Map;
 
 /**
  * <p>
@@ -13,4 +17,24 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface BlogMapper extends BaseMapper<Blog> {
 
+    /**
+     * 一条UPDATE把多篇笔记的点赞增量写入liked，结果小于0时按0处理
+     * @param deltas 笔记id -> 点赞增量
+     */
+    int incrLikedBatch(@Param("deltas") Map<Long, Long> deltas);
+
+    /**
+     * 记录一批增量已经写入，批次已存在时返回0
+     */
+    int insertLikeFlush(@Param("flushId") String flushId);
+
+    /**
+     * 批次是否已经写入，已写入返回1
+     */
+    int countLikeFlush(@Param("flushId") String flushId);
+
+    /**
+     * 清理before之前的批次记录，这些批次早已从Redis删除，不会再重放
+     */
+    int deleteLikeFlushBefore(@Param("before") LocalDateTime before);
 }
@@ -19,6 +19,23 @@ public interface IBlogService extends IService<Blog> {
 
     Result queryHotBlog(Integer current);
 
+    /**
+     * 按热门排行游标分页查询热门笔记
+     * @param cursor 上一页返回的nextCursor，第一页为空
+     */
+    Result queryHotBlogScroll(String cursor);
+
+    /**
+     * 按id倒序游标分页查询某个用户的笔记
+     * @param cursor 上一页返回的nextCursor，第一页为空
+     */
+    Result queryBlogOfUserScroll(Long userId, String cursor);
+
+    /**
+     * 按数据库全量重建热门笔记排行
+     */
+    void rebuildHotRanking();
+
     Result likeBlog(Long id);
 
     Result queryBlogLikes(Long id);
@@ -22,6 +22,13 @@ public interface IShopService extends IService<Shop> {
      */
     Result queryShopById(Long id);
 
+    /**
+     * 二级缓存（进程内L1 + Redis L2）查询商铺
+     * @param id 商铺id
+     * @return
+     */
+    Result queryShopByIdNearCache(Long id);
+
     /**
      * 逻辑过期方案解决缓存击穿问题——延时一致性，最终一致性
      * @param id
@@ -29,6 +36,13 @@ public interface IShopService extends IService<Shop> {
      */
     Result queryShopByIdLogicExpire(Long id);
 
+    /**
+     * 逻辑过期+概率提前刷新（XFetch）
+     * @param id
+     * @return
+     */
+    Result queryShopByIdEarlyRefresh(Long id);
+
     /**
      * 快速更新构建逻辑缓存，只需要传入商铺id和过期时间
      * @param id
@@ -63,4 +77,57 @@ public interface IShopService extends IService<Shop> {
      * @return
      */
     Result queryShopByIdCommon(Long id);
+
+    /**
+     * 根据商铺类型分页查询商铺，传了坐标时按距离由近到远排序
+     * @param typeId 商铺类型
+     * @param current 页码
+     * @param x 经度，可以为空
+     * @param y 纬度，可以为空
+     * @return 商铺列表
+     */
+    Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
+
+    /**
+     * 根据商铺类型游标分页查询商铺，不查COUNT，深翻页不变慢
+     * @param typeId 商铺类型
+     * @param cursor 上一页返回的nextCursor，第一页为空
+     * @param x 经度，可以为空
+     * @param y 纬度，可以为空
+     * @return 商铺列表和下一页游标
+     */
+    Result queryShopByTypeScroll(Integer typeId, String cursor, Double x, Double y);
+
+    /**
+     * 全量加载各类型商铺的坐标到附近商铺索引
+     */
+    void loadShopGeo();
+
+    /**
+     * 按名称、商圈、地址搜索商铺，名称前缀匹配优先，同档按评分、销量排序
+     * @param name 搜索词，为空时不过滤
+     * @param current 页码
+     * @return 商铺列表
+     */
+    Result queryShopByName(String name, Integer current);
+
+    /**
+     * 按名称、商圈、地址游标分页搜索商铺
+     * @param name 搜索词，为空时不过滤
+     * @param cursor 上一页返回的nextCursor，第一页为空
+     * @return 商铺列表和下一页游标
+     */
+    Result queryShopByNameScroll(String name, String cursor);
+
+    /**
+     * 商铺名称联想
+     * @param prefix 已输入的前缀
+     * @return 商铺名称列表
+     */
+    Result suggestShopName(String prefix);
+
+    /**
+     * 全量加载商铺搜索索引
+     */
+    void loadShopSearchIndex();
 }
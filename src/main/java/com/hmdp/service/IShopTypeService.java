@@ -1,5 +1,6 @@
 package com.hmdp.service;
 
+import com.hmdp.dto.SerializedResult;
 import com.hmdp.entity.ShopType;
 import com.baomidou.mybatisplus.extension.service.IService;
 
@@ -13,4 +14,13 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IShopTypeService extends IService<ShopType> {
 
+    /**
+     * 查询序列化好的商铺类型列表
+     */
+    SerializedResult queryTypeList();
+
+    /**
+     * 从数据库重建商铺类型列表，生成新版本写入Redis和本地
+     */
+    void rebuildTypeList();
 }
@@ -3,31 +3,46 @@ package com.hmdp.service.impl;
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.dto.CursorResult;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.ScrollResult;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
-import com.hmdp.entity.Follow;
-import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.BlogHotRanking;
+import com.hmdp.utils.BlogLikeBuffer;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.FeedFanoutWorker;
+import com.hmdp.utils.FeedManager;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.IdBloomFilters;
+import com.hmdp.utils.ScrollCursor;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.Resource;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
-import static com.hmdp.utils.RedisConstants.FEED_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_USER_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_USER_TTL;
 
 /**
  * <p>
@@ -48,86 +63,208 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     private StringRedisTemplate stringRedisTemplate;
 
     @Resource
-    private IFollowService followService;
+    private IdBloomFilters idBloomFilters;
 
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private BlogHotRanking blogHotRanking;
+
+    @Resource
+    private BlogLikeBuffer blogLikeBuffer;
+
+    @Resource
+    private FeedManager feedManager;
+
+    @Resource
+    private FeedFanoutWorker feedFanoutWorker;
+
+    private static final int HOT_REBUILD_PAGE_SIZE = 1000;
+
+
+    /**
+     * 新增笔记，成功后把id加入布隆过滤器，加入热门排行
+     */
+    @Override
+    public boolean save(Blog blog) {
+        boolean isSuccess = super.save(blog);
+        if (isSuccess) {
+            idBloomFilters.add(CACHE_BLOG_KEY, blog.getId());
+            blogHotRanking.add(blog);
+        }
+        return isSuccess;
+    }
 
     @Override
     public Result queryHotBlog(Integer current) {
-        // 根据用户查询
-        Page<Blog> page = this.query()
-                .orderByDesc("liked")
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 获取当前页数据
-        List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog ->{
-            this.queryBlogUser(blog);
-            this.isBlogLiked(blog);
-        });
+        int size = SystemConstants.MAX_PAGE_SIZE;
+        // 1.从热门排行取这一页的id
+        Set<ZSetOperations.TypedTuple<String>> tuples = blogHotRanking.range((long) (current - 1) * size, size);
+        if ((tuples == null || tuples.isEmpty()) && !blogHotRanking.exists()) {
+            // 排行还没建好，直接查数据库，前端不需要总数，不查COUNT
+            List<Blog> records = this.query()
+                    .orderByDesc("liked")
+                    .page(new Page<>(current, size, false))
+                    .getRecords();
+            this.hydrate(records);
+            return Result.ok(records);
+        }
+        // 2.一次查出这一页的笔记，批量查询作者和点赞状态
+        List<Blog> records = blogsOf(tuples);
+        this.hydrate(records);
         return Result.ok(records);
     }
 
+    @Override
+    public Result queryHotBlogScroll(String cursor) {
+        int size = SystemConstants.MAX_PAGE_SIZE;
+        long[] last = ScrollCursor.decode(cursor, 2);
+        if (last == null) {
+            return Result.fail("游标无效");
+        }
+        // 1.游标是上一页最后的分数和这个分数已经返回的个数，ZREVRANGEBYSCORE key max -inf LIMIT offset count+1
+        double max = last.length > 0 ? Double.longBitsToDouble(last[0]) : Double.POSITIVE_INFINITY;
+        long offset = last.length > 0 ? last[1] : 0;
+        Set<ZSetOperations.TypedTuple<String>> tuples = blogHotRanking.rangeBelow(max, offset, size + 1);
+        if (tuples == null || tuples.isEmpty()) {
+            if (last.length == 0 && !blogHotRanking.exists()) {
+                // 排行还没建好，第一页直接查数据库，不再翻页
+                return Result.ok(new CursorResult(queryHotBlogFromDb(size), null));
+            }
+            return Result.ok(new CursorResult(Collections.emptyList(), null));
+        }
+        // 2.多查的一条用来判断有没有下一页，计算最后的分数和同分的个数
+        List<ZSetOperations.TypedTuple<String>> page = new ArrayList<>(tuples);
+        boolean hasMore = page.size() > size;
+        if (hasMore) {
+            page = page.subList(0, size);
+        }
+        double minScore = max;
+        long os = offset;
+        for (ZSetOperations.TypedTuple<String> tuple : page) {
+            double score = tuple.getScore();
+            if (score == minScore) {
+                os++;
+            } else {
+                minScore = score;
+                os = 1;
+            }
+        }
+        List<Blog> records = blogsOf(page);
+        this.hydrate(records);
+        String nextCursor = hasMore ? ScrollCursor.encode(Double.doubleToLongBits(minScore), os) : null;
+        return Result.ok(new CursorResult(records, nextCursor));
+    }
+
+    private List<Blog> queryHotBlogFromDb(int size) {
+        List<Blog> records = this.query().orderByDesc("liked", "id").last("limit " + size).list();
+        this.hydrate(records);
+        return records;
+    }
+
+    /**
+     * 按排行里的顺序一次查出笔记，已经删除的跳过
+     */
+    private List<Blog> blogsOf(Collection<ZSetOperations.TypedTuple<String>> tuples) {
+        if (tuples == null || tuples.isEmpty()) {
+            return new ArrayList<>();
+        }
+        List<Long> ids = tuples.stream().map(tuple -> Long.valueOf(tuple.getValue())).collect(Collectors.toList());
+        Map<Long, Blog> blogs = listByIds(ids).stream().collect(Collectors.toMap(Blog::getId, Function.identity()));
+        List<Blog> records = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Blog blog = blogs.get(id);
+            if (blog != null) {
+                records.add(blog);
+            }
+        }
+        return records;
+    }
+
+    @Override
+    public void rebuildHotRanking() {
+        blogHotRanking.rebuild(new Iterator<List<Blog>>() {
+            private long lastId = 0;
+            private List<Blog> next = nextPage();
+
+            @Override
+            public boolean hasNext() {
+                return !next.isEmpty();
+            }
+
+            @Override
+            public List<Blog> next() {
+                List<Blog> page = next;
+                lastId = page.get(page.size() - 1).getId();
+                next = page.size() < HOT_REBUILD_PAGE_SIZE ? Collections.emptyList() : nextPage();
+                return page;
+            }
+
+            private List<Blog> nextPage() {
+                return query().select("id", "liked", "create_time")
+                        .gt("id", lastId).orderByAsc("id").last("limit " + HOT_REBUILD_PAGE_SIZE).list();
+            }
+        });
+    }
+
+    @Override
+    public Result queryBlogOfUserScroll(Long userId, String cursor) {
+        int size = SystemConstants.MAX_PAGE_SIZE;
+        long[] last = ScrollCursor.decode(cursor, 1);
+        if (last == null) {
+            return Result.fail("游标无效");
+        }
+        // user_id = ? AND id < 上一页最后的id，走(user_id, id)索引
+        List<Blog> records = this.query()
+                .eq("user_id", userId)
+                .lt(last.length > 0, "id", last.length > 0 ? last[0] : 0)
+                .orderByDesc("id")
+                .last("limit " + (size + 1))
+                .list();
+        if (records.size() <= size) {
+            return Result.ok(new CursorResult(records, null));
+        }
+        records = records.subList(0, size);
+        return Result.ok(new CursorResult(records, ScrollCursor.encode(records.get(size - 1).getId())));
+    }
+
     @Override
     public Result queryBlogById(Long id) {
         Blog blog = this.getById(id);
         if (blog == null) {
             return Result.fail("笔记不存在！");
         }
-        // 2.查询blog有关的用户
-        queryBlogUser(blog);
-        // 3.查询blog是否被点赞
-        this.isBlogLiked(blog);
+        // 2.查询blog有关的用户和是否被点赞
+        this.hydrate(Collections.singletonList(blog));
         return Result.ok(blog);
     }
 
-    private void isBlogLiked(Blog blog) {
-        // 1.获取登录用户
-        UserDTO user = UserHolder.getUser();
-        // 如果用户未登录，无需查询是否点赞。
-        if(user== null){
-            return;
-        }
-        Long userId = user.getId();
-        // 2.判断当前用户是否已经点赞
-        String key = "blog:liked:" + blog.getId();
-        Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
-        if (score != null){
-            blog.setIsLike(true);
-        }
-    }
-
     @Override
     public Result likeBlog(Long id) {
-        // 1.获取登录用户
+        // 1.获取登录用户，点赞不再更新数据库，先用布隆过滤器挡掉不存在的笔记
         Long userId = UserHolder.getUser().getId();
-        // 2.判断当前用户是否已经点赞
-        String key = "blog:liked:" + id;
-        Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
-        // 3.如果没有点赞，可以点赞
-        if (score == null) {
-            // 3.1 数据库点赞数+1
-            boolean isSuccess = this.update().setSql("liked = liked + 1").eq("id", id).update();
-            // 3.2 保存点赞记录到redis
-            if (isSuccess) {
-                stringRedisTemplate.opsForZSet().add(key, userId.toString(), System.currentTimeMillis());
-            }
-        } else {
-            // 4.如果已点赞了，就取消点赞
-            // 4.1 数据库点赞数-1
-            boolean isSuccess = this.update().setSql("liked = liked - 1").eq("id", id).update();
-            // 4.2 从redis中移除点赞记录
-            if (isSuccess) {
-                stringRedisTemplate.opsForZSet().remove(key, userId.toString());
-            }
+        if (!idBloomFilters.mightContain(CACHE_BLOG_KEY, id)) {
+            return Result.fail("笔记不存在！");
         }
-        return Result.ok();
+        // 2.一个脚本完成：判断是否已经点赞、点赞或取消点赞、点赞数增量记入缓冲、调整热门排行
+        String key = "blog:liked:" + id;
+        hotKeyDetector.record(key);
+        boolean liked = blogLikeBuffer.toggle(id, userId);
+        // 点赞列表变了，删除本节点缓存的top5
+        hotKeyDetector.evict(key);
+        // 返回切换后的状态
+        return Result.ok(liked);
     }
 
     @Override
     public Result queryBlogLikes(Long id) {
-        // 1.查询点赞用户top5 的id
+        // 1.查询点赞用户top5 的id，热点笔记的top5直接用进程内缓存
         String key = "blog:liked:" + id;
-        Set<String> top5 = stringRedisTemplate.opsForZSet().range(key, 0, 4);
+        Set<String> top5 = hotKeyDetector.getOrLoad(key, () -> stringRedisTemplate.opsForZSet().range(key, 0, 4));
         if (top5 == null || top5.isEmpty()) {
             return Result.ok(Collections.emptyList());
         }
@@ -154,17 +291,11 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         if(!isSuccess){
             return Result.fail("新增笔记失败!");
         }
-        // 3.查询笔记作者的所有粉丝 select * from tb_follow where follow_user_id = ?
-        List<Follow> follows = followService.query().eq("follow_user_id", user.getId()).list();
-        // 4.推送笔记id给所有粉丝
-        for (Follow follow : follows) {
-            // 4.1.获取粉丝id
-            Long userId = follow.getUserId();
-            // 4.2.推送
-            String key = FEED_KEY + userId;
-            stringRedisTemplate.opsForZSet().add(key, blog.getId().toString(), System.currentTimeMillis());
-        }
-        // 5.返回id
+        // 3.交给后台写入作者发件箱、推送给活跃粉丝，不等推送完成
+        //   分数用数据库生成的发布时间，和关注流回源数据库时的分数一致
+        Blog saved = query().select("create_time").eq("id", blog.getId()).one();
+        feedFanoutWorker.submit(user.getId(), blog.getId(), FeedManager.score(saved.getCreateTime()));
+        // 4.返回id
         return Result.ok(blog.getId());
     }
 
@@ -172,10 +303,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     public Result queryBlogOfFollow(Long max, Integer offset) {
         // 1.获取当前用户
         Long userId = UserHolder.getUser().getId();
-        // 2.查询收件箱 ZREVRANGEBYSCORE key Max Min LIMIT offset count
-        String key = FEED_KEY + userId;
-        Set<ZSetOperations.TypedTuple<String>> typedTuples = stringRedisTemplate.opsForZSet()
-                .reverseRangeByScoreWithScores(key, 0, max, offset, 2);
+        // 2.合并收件箱和关注的大V的发件箱，相当于在合并结果上 ZREVRANGEBYSCORE key Max Min LIMIT offset count
+        List<ZSetOperations.TypedTuple<String>> typedTuples = feedManager.read(userId, max, offset, 2);
         // 3.非空判断
         if (typedTuples == null || typedTuples.isEmpty()) {
             return Result.ok();
@@ -203,12 +332,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         String idStr = StrUtil.join(",", ids);
         List<Blog> blogs = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
 
-        for (Blog blog : blogs) {
-            // 5.1.查询blog有关的用户
-            queryBlogUser(blog);
-            // 5.2.查询blog是否被点赞
-            isBlogLiked(blog);
-        }
+        // 5.1.批量查询blog有关的用户和是否被点赞
+        hydrate(blogs);
 
         // 6.封装并返回
         ScrollResult r = new ScrollResult();
@@ -220,10 +345,76 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     }
 
 
-    private void queryBlogUser(Blog blog) {
-        Long userId = blog.getUserId();
-        User user = userService.getById(userId);
-        blog.setName(user.getNickName());
-        blog.setIcon(user.getIcon());
+    /**
+     * 填充笔记的作者、点赞数和当前用户的点赞状态，不管多少条笔记都是固定几次往返
+     */
+    private void hydrate(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        queryBlogUsers(blogs);
+        queryPendingLikes(blogs);
+        queryBlogLiked(blogs);
+    }
+
+    /**
+     * 点赞数加上缓冲里还没写回数据库的增量
+     */
+    private void queryPendingLikes(List<Blog> blogs) {
+        Map<Long, Long> pending = blogLikeBuffer.pending(blogs.stream().map(Blog::getId).collect(Collectors.toList()));
+        for (Blog blog : blogs) {
+            Long delta = pending.get(blog.getId());
+            if (delta != null) {
+                int liked = blog.getLiked() == null ? 0 : blog.getLiked();
+                blog.setLiked((int) Math.max(0, liked + delta));
+            }
+        }
+    }
+
+    /**
+     * 批量查询当前用户是否点赞：一次pipeline执行所有笔记的ZSCORE
+     */
+    private void queryBlogLiked(List<Blog> blogs) {
+        // 如果用户未登录，无需查询是否点赞。
+        UserDTO user = UserHolder.getUser();
+        if (user == null) {
+            return;
+        }
+        String userId = user.getId().toString();
+        for (Blog blog : blogs) {
+            hotKeyDetector.record("blog:liked:" + blog.getId());
+        }
+        List<Object> scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Blog blog : blogs) {
+                conn.zScore("blog:liked:" + blog.getId(), userId);
+            }
+            return null;
+        });
+        for (int i = 0; i < blogs.size(); i++) {
+            blogs.get(i).setIsLike(scores.get(i) != null);
+        }
+    }
+
+    /**
+     * 批量查询笔记作者：一次MGET查缓存，未命中的一次IN查询回库
+     */
+    private void queryBlogUsers(List<Blog> blogs) {
+        List<Long> userIds = blogs.stream().map(Blog::getUserId).collect(Collectors.toList());
+        List<UserDTO> users = cacheClient.queryMany(
+                CACHE_USER_KEY, userIds, UserDTO.class, this::loadUsers, CACHE_USER_TTL, TimeUnit.MINUTES);
+        for (int i = 0; i < blogs.size(); i++) {
+            UserDTO user = users.get(i);
+            if (user != null) {
+                blogs.get(i).setName(user.getNickName());
+                blogs.get(i).setIcon(user.getIcon());
+            }
+        }
+    }
+
+    private Map<Long, UserDTO> loadUsers(List<Long> ids) {
+        return userService.listByIds(ids).stream()
+                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
+                .collect(Collectors.toMap(UserDTO::getId, Function.identity()));
     }
 }
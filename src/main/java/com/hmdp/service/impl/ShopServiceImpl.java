@@ -2,25 +2,42 @@ package com.hmdp.service.impl;
 
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.CursorResult;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopDistance;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.hmdp.utils.RedisData;
+import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.IdBloomFilters;
+import com.hmdp.utils.ScrollCursor;
+import com.hmdp.utils.ShopLocator;
+import com.hmdp.utils.ShopSearchIndex;
+import com.hmdp.utils.SystemConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
-import java.time.LocalDateTime;
-import java.util.concurrent.CompletableFuture;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
-import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
-import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -30,70 +47,306 @@ import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private CacheClient cacheClient;
+
+    @Resource
+    private IdBloomFilters idBloomFilters;
+
+    @Resource
+    private ShopLocator shopLocator;
+
+    @Resource
+    private ShopSearchIndex shopSearchIndex;
+
+    private static final int INDEX_LOAD_PAGE_SIZE = 1000;
+
+    private static final int SUGGEST_SIZE = 10;
+
+    @Value("${hmdp.shop.geo.radius:5000}")
+    private double geoRadius;
+
+    @PostConstruct
+    public void init() {
+        //商铺详情开启进程内一级缓存
+        cacheClient.enableLocalCache(CACHE_SHOP_KEY, LOCAL_CACHE_SHOP_MAX_SIZE, LOCAL_CACHE_SHOP_TTL, TimeUnit.SECONDS);
+        //商铺缓存过期时间随机延长，避免预热或发布后同一批key集中过期
+        cacheClient.setTtlJitter(CACHE_SHOP_KEY, CACHE_SHOP_TTL_JITTER);
+        //商铺更新后版本号+1，更新期间查到旧数据的回填会被拒绝
+        cacheClient.enableVersionFence(CACHE_SHOP_KEY);
+    }
+
+
+    /**
+     * 新增商铺，成功后把id加入布隆过滤器，坐标加入附近商铺索引，名称加入搜索索引
+     */
+    @Override
+    public boolean save(Shop shop) {
+        boolean isSuccess = super.save(shop);
+        if (isSuccess) {
+            idBloomFilters.add(CACHE_SHOP_KEY, shop.getId());
+            afterCommit(() -> {
+                shopLocator.upsert(shop);
+                shopSearchIndex.upsert(shop);
+            });
+        }
+        return isSuccess;
+    }
+
+    @Override
+    public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
+        // 1.没传坐标，按数据库分页查询，前端不需要总数，不查COUNT
+        if (x == null || y == null) {
+            Page<Shop> page = query()
+                    .eq("type_id", typeId)
+                    .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE, false));
+            return Result.ok(page.getRecords());
+        }
+        // 2.计算分页参数
+        int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+        int end = current * SystemConstants.DEFAULT_PAGE_SIZE;
+        // 3.按距离由近到远查出前end个
+        List<ShopDistance> nearby = shopLocator.searchRadius(typeId.longValue(), x, y, geoRadius, end);
+        if (nearby.size() <= from) {
+            // 没有下一页了
+            return Result.ok(Collections.emptyList());
+        }
+        // 4.截取from到end的部分，按距离顺序查出商铺
+        return Result.ok(nearbyShops(nearby.subList(from, nearby.size())));
+    }
+
+    @Override
+    public Result queryShopByTypeScroll(Integer typeId, String cursor, Double x, Double y) {
+        int size = SystemConstants.DEFAULT_PAGE_SIZE;
+        long[] last = ScrollCursor.decode(cursor, 1);
+        if (last == null) {
+            return Result.fail("游标无效");
+        }
+        // 1.没传坐标，type_id = ? AND id > 上一页最后的id，走(type_id, id)索引，多查一条判断有没有下一页
+        if (x == null || y == null) {
+            List<Shop> shops = query()
+                    .eq("type_id", typeId)
+                    .gt(last.length > 0, "id", last.length > 0 ? last[0] : 0)
+                    .orderByAsc("id")
+                    .last("limit " + (size + 1))
+                    .list();
+            if (shops.size() <= size) {
+                return Result.ok(new CursorResult(shops, null));
+            }
+            shops = shops.subList(0, size);
+            return Result.ok(new CursorResult(shops, ScrollCursor.encode(shops.get(size - 1).getId())));
+        }
+        // 2.按距离排序的结果来自GEO索引，没有数据库OFFSET，游标记录已经返回的个数
+        int from = last.length > 0 ? (int) last[0] : 0;
+        List<ShopDistance> nearby = shopLocator.searchRadius(typeId.longValue(), x, y, geoRadius, from + size + 1);
+        if (nearby.size() <= from) {
+            return Result.ok(new CursorResult(Collections.emptyList(), null));
+        }
+        boolean hasMore = nearby.size() > from + size;
+        List<Shop> shops = nearbyShops(nearby.subList(from, Math.min(nearby.size(), from + size)));
+        return Result.ok(new CursorResult(shops, hasMore ? ScrollCursor.encode(from + size) : null));
+    }
+
+    /**
+     * 一次查出这一页的商铺，按距离顺序返回
+     */
+    private List<Shop> nearbyShops(List<ShopDistance> page) {
+        List<Long> ids = new ArrayList<>(page.size());
+        Map<Long, Double> distances = new HashMap<>(page.size());
+        for (ShopDistance item : page) {
+            ids.add(item.getShopId());
+            distances.put(item.getShopId(), item.getDistance());
+        }
+        Map<Long, Shop> shops = listByIds(ids).stream().collect(Collectors.toMap(Shop::getId, Function.identity()));
+        List<Shop> records = new ArrayList<>(ids.size());
+        for (Long shopId : ids) {
+            Shop shop = shops.get(shopId);
+            if (shop != null) {
+                shop.setDistance(distances.get(shopId));
+                records.add(shop);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * 按主键分页扫描商铺交给索引全量重建，每页只查id、类型和坐标
+     */
+    @Override
+    public void loadShopGeo() {
+        shopLocator.reload(shopPages("id", "type_id", "x", "y"));
+        log.info("附近商铺索引加载完成");
+    }
+
+    @Override
+    public Result queryShopByName(String name, Integer current) {
+        // 1.没传名称，按数据库分页查询
+        if (StrUtil.isBlank(name)) {
+            Page<Shop> page = query().page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
+            return Result.ok(page.getRecords());
+        }
+        // 2.从搜索索引取出这一页的id
+        int from = (current - 1) * SystemConstants.MAX_PAGE_SIZE;
+        List<Long> ids = shopSearchIndex.search(name, from, SystemConstants.MAX_PAGE_SIZE);
+        if (ids.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        // 3.一次MGET查商铺缓存，未命中的一次IN查询回库，按相关度顺序返回
+        return Result.ok(cachedShops(ids));
+    }
+
+    @Override
+    public Result queryShopByNameScroll(String name, String cursor) {
+        int size = SystemConstants.MAX_PAGE_SIZE;
+        long[] last = ScrollCursor.decode(cursor, 1);
+        if (last == null) {
+            return Result.fail("游标无效");
+        }
+        // 1.没传名称，按主键id > 上一页最后的id
+        if (StrUtil.isBlank(name)) {
+            List<Shop> shops = query()
+                    .gt(last.length > 0, "id", last.length > 0 ? last[0] : 0)
+                    .orderByAsc("id")
+                    .last("limit " + (size + 1))
+                    .list();
+            if (shops.size() <= size) {
+                return Result.ok(new CursorResult(shops, null));
+            }
+            shops = shops.subList(0, size);
+            return Result.ok(new CursorResult(shops, ScrollCursor.encode(shops.get(size - 1).getId())));
+        }
+        // 2.搜索结果来自进程内索引，游标记录已经返回的个数
+        int from = last.length > 0 ? (int) last[0] : 0;
+        List<Long> ids = shopSearchIndex.search(name, from, size + 1);
+        boolean hasMore = ids.size() > size;
+        List<Shop> shops = cachedShops(hasMore ? ids.subList(0, size) : ids);
+        return Result.ok(new CursorResult(shops, hasMore ? ScrollCursor.encode(from + size) : null));
+    }
+
+    private List<Shop> cachedShops(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Shop> shops = cacheClient.queryMany(CACHE_SHOP_KEY, ids, Shop.class,
+                batch -> listByIds(batch).stream().collect(Collectors.toMap(Shop::getId, Function.identity())),
+                CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        shops.removeIf(Objects::isNull);
+        return shops;
+    }
+
+    @Override
+    public Result suggestShopName(String prefix) {
+        return Result.ok(shopSearchIndex.suggest(prefix, SUGGEST_SIZE));
+    }
+
+    @Override
+    public void loadShopSearchIndex() {
+        shopSearchIndex.reload(shopPages("id", "name", "area", "address", "score", "sold"));
+        log.info("商铺搜索索引加载完成，共{}个商铺", shopSearchIndex.size());
+    }
+
+    /**
+     * 按主键分页扫描商铺，每次取下一页时才查询
+     */
+    private Iterator<List<Shop>> shopPages(String... columns) {
+        return new Iterator<List<Shop>>() {
+            private long lastId = 0;
+            private List<Shop> next = nextPage();
+
+            @Override
+            public boolean hasNext() {
+                return !next.isEmpty();
+            }
+
+            @Override
+            public List<Shop> next() {
+                List<Shop> page = next;
+                lastId = page.get(page.size() - 1).getId();
+                next = page.size() < INDEX_LOAD_PAGE_SIZE ? Collections.emptyList() : nextPage();
+                return page;
+            }
+
+            private List<Shop> nextPage() {
+                return query().select(columns)
+                        .gt("id", lastId).orderByAsc("id").last("limit " + INDEX_LOAD_PAGE_SIZE).list();
+            }
+        };
+    }
 
     @Override
     public Result queryShopById(Long id) {
+        //开启预热时商铺缓存是逻辑过期格式，查询也走逻辑过期
+        if (cacheClient.isLogical(CACHE_SHOP_KEY)) {
+            return this.queryShopByIdLogicExpire(id);
+        }
+        //二级缓存：进程内L1 + Redis L2
+        Result result = this.queryShopByIdNearCache(id);
         //普通缓存方式
-        Result result = this.queryShopByIdCommon(id);
+//        Result result = this.queryShopByIdCommon(id);
         //缓存&&缓存穿透（缓存null值）
 //        Result result = this.queryShopByIdCacheThrough(id);
         //互斥锁解决缓存击穿问题
 //        Result result =  this.queryShopByIdMutex(id);
         //逻辑过期解决缓存击穿问题
 //        Result result = this.queryShopByIdLogicExpire(id);
+        //逻辑过期+概率提前刷新
+//        Result result = this.queryShopByIdEarlyRefresh(id);
         return result;
     }
 
+    /**
+     * 二级缓存查询商铺，热点商铺直接命中进程内缓存，不走Redis也不用反序列化
+     * @param id 商铺id
+     * @return
+     */
+    @Override
+    public Result queryShopByIdNearCache(Long id) {
+        Shop shop = cacheClient.queryWithPassThrough(
+                CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        if (shop == null) {
+            return Result.fail("商铺不存在");
+        }
+        return Result.ok(shop);
+    }
+
 
     /**
      * 逻辑过期解决缓存击穿问题——最终一致性
+     * 逻辑过期需要预热，由ShopCacheWarmer在启动时和定时全量写入
      * @param id
      * @return
      */
     @Override
     public Result queryShopByIdLogicExpire(Long id) {
-        //逻辑过期解决缓存击穿问题； PS ，逻辑过期解决我们需要进行一个缓存预热的； 我们没有添加缓存的逻辑，只有更新缓存的逻辑；
-        //而且逻辑过期需要一个新字段：逻辑过期字段，我们需要开闭原则只增代码不改代码，所以我们定义个RedisData封装一下。
-        //缓存就存储RedisData对象。
-        // 1.查询缓存
-        String redisCache = stringRedisTemplate.opsForValue().get(CACHE_SHOP_KEY + id);
-        // 2.如果为空直接返回失败
-        if(StrUtil.isBlank(redisCache)){
+        Shop shop = cacheClient.queryWithLogicalExpire(
+                CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        if (shop == null) {
             return Result.fail("逻辑过期缓存为空？ 是否是没有预热缓存？");
         }
-        // 3. 缓存存在，反序列化对象，判断缓存是否逻辑过期。
-        RedisData redisData = JSONUtil.toBean(redisCache, RedisData.class);
-        LocalDateTime expireTime = redisData.getExpireTime();
-        Shop shopCache = JSONUtil.toBean((JSONObject) redisData.getData(), Shop.class);
-        // 4. 判断是否过期
-        // 5. 已过期，获取锁，进行一个异步缓存重建，然后构建完成了释放锁
-        if (LocalDateTime.now().isAfter(expireTime)){
-            //已过期
-            String lockKey=LOCK_SHOP_KEY+id;
-            boolean ret = tryLock(lockKey);
-            //抢锁异步构建
-            if (ret){
-                CompletableFuture.runAsync(()->{
-                    try {
-                        //构建新缓存
-                        this.saveShop2Redis(id,20L);
-                    } catch (Exception e) {
-                        throw new RuntimeException(e);
-                    } finally {
-                        //释放锁
-                        unLock(lockKey);
-                    }
-                });
-            }
+        return Result.ok(shop);
+    }
+
+    /**
+     * 逻辑过期+概率提前刷新，热点商铺在逻辑过期之前就被重建，基本不会返回过期数据
+     * 和逻辑过期方案一样需要预热
+     * @param id 商铺id
+     * @return
+     */
+    @Override
+    public Result queryShopByIdEarlyRefresh(Long id) {
+        Shop shop = cacheClient.queryWithEarlyRefresh(
+                CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        if (shop == null) {
+            return Result.fail("逻辑过期缓存为空？ 是否是没有预热缓存？");
         }
-        // 6. 未过期和已过期、已过期抢锁成功或者失败都会返回旧数据的，这里直接返回旧数据了。
-        return Result.ok(shopCache);
+        return Result.ok(shop);
     }
 
     /**
@@ -111,75 +364,25 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         }
-        //封装逻辑过期时间
-        RedisData redisData = new RedisData();
-        redisData.setData(shop);
-        //设置逻辑过期时间，通过当前时间加上过期时间长度
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(expireSeconds));
-        //写入redis
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id,JSONUtil.toJsonStr(redisData));
+        //写入逻辑过期缓存，和预热、查询使用同一种编码
+        cacheClient.setWithLogicalExpire(CACHE_SHOP_KEY + id, shop, expireSeconds, TimeUnit.SECONDS);
     }
 
 
 
     /**
      * 互斥锁解决缓存击穿问题——强一致性方案。
+     * 同一进程内并发未命中合并成一次数据库查询，跨节点再用Redis互斥锁，等待的线程由重建完成时统一唤醒，不再轮询。
      * @param id
      * @return
      */
     @Override
     public Result queryShopByIdMutex(Long id) {
-        String key = CACHE_SHOP_KEY + id;
-        //1.查询缓存是否命中
-        String redisCache = stringRedisTemplate.opsForValue().get(key);
-        //2.命中返回
-        if (StrUtil.isNotBlank(redisCache)){
-            Shop shop = JSONUtil.toBean(redisCache, Shop.class);
-            return Result.ok(shop);
+        Shop shop = cacheClient.queryWithMutex(CACHE_SHOP_KEY, id, Shop.class, this::getById, 60L, TimeUnit.SECONDS);
+        if (shop == null) {
+            return Result.fail("商铺不存在");
         }
-        //3. 未命中 获取互斥锁,查询数据库
-        String lockKey=LOCK_SHOP_KEY+id;
-        if (this.tryLock(lockKey)){
-            try {
-                //获取锁成功，进行一个缓存更新
-                //查询数据库
-                Shop shop = this.getById(id);
-                //模拟重建缓存延时
-                Thread.sleep(200);
-                //非空判断
-                if (shop==null){
-                    return Result.fail("商铺不存在");
-                }
-                //回填缓存
-                stringRedisTemplate.opsForValue()
-                        .set(CACHE_SHOP_KEY + id,JSONUtil.toJsonStr(shop),60,TimeUnit.SECONDS);
-                return Result.ok(shop);
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            }finally {
-                //释放锁
-                unLock(lockKey);
-            }
-        }else{
-            //这里可以实现一个重试逻辑。可以递归，但是我们实现一个简单的重试吧
-            int count =3;
-            while (count-- > 0){
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    throw new RuntimeException(e);
-                }
-                //重新尝试获取缓存
-                redisCache = stringRedisTemplate.opsForValue().get(key);
-                //命中返回
-                if (StrUtil.isNotBlank(redisCache)){
-                    Shop shop = JSONUtil.toBean(redisCache, Shop.class);
-                    return Result.ok(shop);
-                }
-            }
-        }
-        //如果重试3次完成后还是获取不到，我们直接一个返回失败
-        return Result.fail("获取数据超时，请稍后再试");
+        return Result.ok(shop);
     }
 
 
@@ -203,60 +406,91 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 
     /**
      * 缓存null解决缓存击穿问题
+     * 读写都经过CacheClient，按前缀配置的编码（二进制或JSON）解码，数据库里没有时缓存空值
      * @param id
      * @return
      */
     @Override
     public Result queryShopByIdCacheThrough(Long id) {
-        //1.查询缓存是否命中
-        String redisCache = stringRedisTemplate.opsForValue().get(CACHE_SHOP_KEY + id);
-        //2.命中返回
-        if (StrUtil.isNotBlank(redisCache)){
-            Shop shop = JSONUtil.toBean(redisCache, Shop.class);
-            return Result.ok(shop);
-        }
-        //命中缓存的空值，但是是我们缓存的空字符串""，但是上面判断没进
-        if(redisCache !=null){
+        Shop shop = cacheClient.queryWithPassThrough(
+                CACHE_SHOP_KEY, id, Shop.class, this::getByIdSlowly, 60L, TimeUnit.SECONDS);
+        if (shop == null) {
             return Result.fail("商品信息不存在");
         }
-        //3.未命中查询数据库
+        return Result.ok(shop);
+    }
+
+    /**
+     * 数据库查询耗时夸张一下 ，睡0.2s，方便与有缓存时作对比。
+     */
+    private Shop getByIdSlowly(Long id) {
         Shop shop = this.getById(id);
-        // 数据库查询耗时夸张一下 ，睡0.2s，方便与有缓存时作对比。
         try {
             Thread.sleep(200);
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         }
-        if (shop==null){
-            //如果不存在，缓存空值
-            stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id,"",60,TimeUnit.SECONDS);
-            return Result.fail("商品信息不存在");
-        }
-        //4.如果存在，回填缓存
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id,JSONUtil.toJsonStr(shop),60,TimeUnit.SECONDS);
-        //5.返回给前端
-        return Result.ok(shop);
+        return shop;
     }
 
     @Transactional
     @Override
     public Result updateShop(Shop shop) {
         //因为有缓存，我们考虑到一致性问题，所以进行一个先更新数据库，再删除缓存的操作。
+        //删除缓存放到事务提交之后，并延时再删一次；更新期间查到旧数据的回填由版本号拒绝。
         if (shop.getId()==null){
             return Result.fail("商铺id为空，更新失败");
         }
+        //改了坐标或者类型时，先查出旧的类型，更新后移动索引里的位置
+        Shop old = shop.getX() != null || shop.getY() != null || shop.getTypeId() != null ? getById(shop.getId()) : null;
         //更新数据库
         boolean ret = this.updateById(shop);
         if (!ret){
             return Result.fail("更新失败");
         }
-        //删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY+shop.getId());
+        //索引在事务提交后再改，回滚时不会留下数据库里没有的位置和名称
+        if (old != null) {
+            afterCommit(() -> updateShopGeo(old, shop));
+        }
+        //改了名称、商圈、地址、评分或销量时，用提交后的整行刷新搜索索引
+        if (shop.getName() != null || shop.getArea() != null || shop.getAddress() != null
+                || shop.getScore() != null || shop.getSold() != null) {
+            afterCommit(() -> shopSearchIndex.upsert(getById(shop.getId())));
+        }
+        //事务提交后删除缓存，连同各节点的L1一起失效
+        cacheClient.deleteAfterCommit(CACHE_SHOP_KEY+shop.getId());
         return Result.ok();
     }
 
+    /**
+     * 和CacheClient.deleteAfterCommit一样，有事务时注册到提交之后执行，没有事务时直接执行
+     */
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    private void updateShopGeo(Shop old, Shop shop) {
+        Long typeId = shop.getTypeId() != null ? shop.getTypeId() : old.getTypeId();
+        double x = shop.getX() != null ? shop.getX() : old.getX();
+        double y = shop.getY() != null ? shop.getY() : old.getY();
+        if (!typeId.equals(old.getTypeId())) {
+            shopLocator.remove(old.getTypeId(), shop.getId());
+        }
+        shopLocator.upsert(new Shop().setId(shop.getId()).setTypeId(typeId).setX(x).setY(y));
+    }
+
     /**
      * 最普通的缓存数据方式
+     * 缓存值按前缀配置的编码读写，不能直接当JSON字符串处理
      * @param id 商铺id
      * @return
      */
@@ -264,26 +498,18 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     public Result queryShopByIdCommon(Long id) {
         //添加缓存查询
         //1.查询缓存是否命中
-        String redisCache = stringRedisTemplate.opsForValue().get(CACHE_SHOP_KEY + id);
+        Shop shop = cacheClient.get(CACHE_SHOP_KEY + id, Shop.class);
         //2.命中返回
-        if (StrUtil.isNotEmpty(redisCache)){
-            Shop shop = JSONUtil.toBean(redisCache, Shop.class);
+        if (shop != null){
             return Result.ok(shop);
         }
         //3.未命中查询数据库
-        Shop shop = this.getById(id);
-        // 数据库查询耗时夸张一下 ，睡0.2s，方便与有缓存时作对比。
-        try {
-            Thread.sleep(200);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }
-
+        shop = this.getByIdSlowly(id);
         if (shop==null){
             return Result.fail("数据不存在");
         }
-        //4.回填缓存
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id,JSONUtil.toJsonStr(shop),60,TimeUnit.SECONDS);
+        //4.回填缓存，过期时间加随机值打散
+        cacheClient.set(CACHE_SHOP_KEY + id, shop, 60L, TimeUnit.SECONDS);
         //5.返回给前端
         return Result.ok(shop);
     }
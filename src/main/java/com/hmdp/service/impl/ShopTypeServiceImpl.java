@@ -1,20 +1,171 @@
 package com.hmdp.service.impl;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.SerializedResult;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TYPE_VERSION_KEY;
+import static com.hmdp.utils.RedisConstants.LOCK_SHOP_TYPE_REBUILD_KEY;
+
 /**
  * <p>
  *  服务实现类
  * </p>
+ * 商铺类型列表几乎不变，整个响应体提前序列化成字节数组，内存和Redis各存一份：
+ * Redis里是8字节版本号+响应体，各节点定时比较版本号，落后了就从Redis拉取；类型变更时重建并生成新版本。
  *
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private ObjectMapper objectMapper;
+
+    @Resource
+    private RedissonClient redissonClient;
+
+    /**
+     * 本地副本只通过publish按版本号CAS替换，不加本地锁，避免和重建用的分布式锁互相等待
+     */
+    private final AtomicReference<SerializedResult> typeList = new AtomicReference<>();
+
+    @Override
+    public SerializedResult queryTypeList() {
+        SerializedResult current = typeList.get();
+        if (current != null) {
+            return current;
+        }
+        // 启动后第一次查询，并发时可能各自同步一次，结果按版本号合并
+        syncTypeList();
+        return typeList.get();
+    }
+
+    /**
+     * 定时和Redis对一次版本号，其他节点修改了类型时在这里同步过来
+     */
+    @Scheduled(initialDelayString = "${hmdp.cache.shop-type.sync-interval:30000}",
+            fixedDelayString = "${hmdp.cache.shop-type.sync-interval:30000}")
+    public void syncTypeList() {
+        try {
+            byte[] raw = stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                    connection.get(CACHE_SHOP_TYPE_KEY.getBytes(StandardCharsets.UTF_8)));
+            if (raw == null || raw.length <= Long.BYTES) {
+                // Redis里还没有，从数据库重建
+                rebuildTypeList();
+                return;
+            }
+            long version = ByteBuffer.wrap(raw).getLong();
+            SerializedResult current = typeList.get();
+            if (current == null || current.getVersion() < version) {
+                publish(serialized(version, Arrays.copyOfRange(raw, Long.BYTES, raw.length)));
+            }
+        } catch (Exception e) {
+            if (typeList.get() == null) {
+                // Redis不可用又没有本地副本，直接查库，版本号0
+                typeList.compareAndSet(null, serialized(0, serialize(loadTypeList())));
+            }
+            log.warn("同步商铺类型列表失败：{}", e.getMessage());
+        }
+    }
+
+    /**
+     * 加锁串行化各节点的重建：先查库再取版本号时，先查到旧列表的节点可能后拿到更大的版本号，
+     * 把旧列表写成最新版本。锁内查库、取版本号、写Redis，后拿到锁的一定查到更新的列表。
+     * 不能抢不到锁就跳过，持锁的节点可能是在本次修改提交之前查的库。
+     * 持有分布式锁期间不再获取任何本地锁。
+     */
+    @Override
+    public void rebuildTypeList() {
+        RLock lock = redissonClient.getLock(LOCK_SHOP_TYPE_REBUILD_KEY);
+        lock.lock();
+        try {
+            byte[] body = serialize(loadTypeList());
+            Long version = stringRedisTemplate.opsForValue().increment(CACHE_SHOP_TYPE_VERSION_KEY);
+            long v = version == null ? 0 : version;
+            byte[] raw = ByteBuffer.allocate(Long.BYTES + body.length).putLong(v).put(body).array();
+            stringRedisTemplate.execute((RedisCallback<Object>) connection ->
+                    connection.set(CACHE_SHOP_TYPE_KEY.getBytes(StandardCharsets.UTF_8), raw));
+            publish(serialized(v, body));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 只用更高的版本替换本地副本，定时同步可能已经拉到了别的节点更新的版本
+     */
+    private void publish(SerializedResult next) {
+        typeList.accumulateAndGet(next,
+                (current, candidate) -> current == null || current.getVersion() < candidate.getVersion() ? candidate : current);
+    }
+
+    @Override
+    public boolean save(ShopType entity) {
+        boolean isSuccess = super.save(entity);
+        if (isSuccess) {
+            rebuildTypeList();
+        }
+        return isSuccess;
+    }
+
+    @Override
+    public boolean updateById(ShopType entity) {
+        boolean isSuccess = super.updateById(entity);
+        if (isSuccess) {
+            rebuildTypeList();
+        }
+        return isSuccess;
+    }
+
+    @Override
+    public boolean removeById(Serializable id) {
+        boolean isSuccess = super.removeById(id);
+        if (isSuccess) {
+            rebuildTypeList();
+        }
+        return isSuccess;
+    }
+
+    private List<ShopType> loadTypeList() {
+        return query().orderByAsc("sort").list();
+    }
+
+    private byte[] serialize(List<ShopType> types) {
+        try {
+            return objectMapper.writeValueAsBytes(Result.ok(types));
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static SerializedResult serialized(long version, byte[] body) {
+        return new SerializedResult(version, "\"" + version + "-" + Arrays.hashCode(body) + "\"", body);
+    }
 }
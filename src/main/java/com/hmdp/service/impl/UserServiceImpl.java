@@ -11,6 +11,7 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.IdBloomFilters;
 import com.hmdp.utils.RegexUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -41,6 +42,21 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private IdBloomFilters idBloomFilters;
+
+    /**
+     * 新增用户，成功后把id加入布隆过滤器
+     */
+    @Override
+    public boolean save(User user) {
+        boolean isSuccess = super.save(user);
+        if (isSuccess) {
+            idBloomFilters.add(CACHE_USER_KEY, user.getId());
+        }
+        return isSuccess;
+    }
+
     @Override
     public Result sendCode(String phone, HttpSession session) {
         // 1.校验手机号
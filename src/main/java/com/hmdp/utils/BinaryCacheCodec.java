@@ -0,0 +1,349 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 紧凑的二进制编码，Shop、Blog、UserDTO手写字段顺序，其他类型退回JSON
+ * 格式：固定15字节头 + 类型标记 + 字段
+ * 头部：魔数(1) 版本(1) 标志位(1) 逻辑过期时间戳毫秒(8) 上次重建耗时毫秒(4)
+ * 过期时间和重建耗时在固定位置，decodeLogical直接按偏移读取。
+ * 读到旧的JSON格式时按JSON解码，由调用方负责迁移。
+ */
+public class BinaryCacheCodec implements CacheCodec {
+
+    public static final BinaryCacheCodec INSTANCE = new BinaryCacheCodec();
+
+    /**
+     * JSON只可能以可见字符开头，0xCA不会和JSON冲突
+     */
+    private static final byte MAGIC = (byte) 0xCA;
+    private static final byte VERSION = 1;
+    private static final byte FLAG_LOGICAL = 1;
+    private static final int HEADER_LENGTH = 15;
+    private static final int EXPIRE_AT_OFFSET = 3;
+    private static final int REBUILD_MILLIS_OFFSET = 11;
+
+    private final Map<Class<?>, Serializer<?>> serializers = new HashMap<>();
+    private final Map<Byte, Serializer<?>> serializersByTag = new HashMap<>();
+
+    private BinaryCacheCodec() {
+        register(new ShopSerializer());
+        register(new BlogSerializer());
+        register(new UserDTOSerializer());
+    }
+
+    public static boolean isBinary(byte[] bytes) {
+        return bytes != null && bytes.length >= HEADER_LENGTH && bytes[0] == MAGIC;
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        Serializer<?> serializer = serializers.get(value.getClass());
+        if (serializer == null) {
+            return JsonCacheCodec.INSTANCE.encode(value);
+        }
+        return write(serializer, value, (byte) 0, 0, 0);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        if (!isBinary(bytes)) {
+            return JsonCacheCodec.INSTANCE.decode(bytes, type);
+        }
+        return type.cast(readBody(bytes));
+    }
+
+    @Override
+    public byte[] encodeLogical(RedisData redisData) {
+        Object value = redisData.getData();
+        Serializer<?> serializer = value == null ? null : serializers.get(value.getClass());
+        if (serializer == null) {
+            return JsonCacheCodec.INSTANCE.encodeLogical(redisData);
+        }
+        long expireAt = redisData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        Long rebuildMillis = redisData.getRebuildMillis();
+        int rebuild = rebuildMillis == null ? 0 : (int) Math.min(rebuildMillis, Integer.MAX_VALUE);
+        return write(serializer, value, FLAG_LOGICAL, expireAt, rebuild);
+    }
+
+    @Override
+    public <T> RedisData decodeLogical(byte[] bytes, Class<T> type) {
+        if (!isBinary(bytes)) {
+            return JsonCacheCodec.INSTANCE.decodeLogical(bytes, type);
+        }
+        ByteBuffer header = ByteBuffer.wrap(bytes);
+        RedisData redisData = new RedisData();
+        redisData.setExpireTime(LocalDateTime.ofInstant(
+                Instant.ofEpochMilli(header.getLong(EXPIRE_AT_OFFSET)), ZoneId.systemDefault()));
+        int rebuild = header.getInt(REBUILD_MILLIS_OFFSET);
+        redisData.setRebuildMillis(rebuild == 0 ? null : (long) rebuild);
+        redisData.setData(type.cast(readBody(bytes)));
+        return redisData;
+    }
+
+    /**
+     * 没有二进制序列化器的类型本来就按JSON写，JSON对它们就是本格式，否则每次命中都会迁移成同样的JSON
+     */
+    @Override
+    public boolean isNativeFormat(byte[] bytes, Class<?> type) {
+        return isBinary(bytes) || !serializers.containsKey(type);
+    }
+
+    private void register(Serializer<?> serializer) {
+        serializers.put(serializer.type(), serializer);
+        serializersByTag.put(serializer.tag(), serializer);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> byte[] write(Serializer<T> serializer, Object value, byte flags, long expireAt, int rebuildMillis) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(MAGIC);
+            out.writeByte(VERSION);
+            out.writeByte(flags);
+            out.writeLong(expireAt);
+            out.writeInt(rebuildMillis);
+            out.writeByte(serializer.tag());
+            serializer.write((T) value, out);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Object readBody(byte[] bytes) {
+        try {
+            DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH));
+            byte tag = in.readByte();
+            Serializer<?> serializer = serializersByTag.get(tag);
+            if (serializer == null) {
+                throw new IllegalStateException("未知的缓存类型标记：" + tag);
+            }
+            return serializer.read(in);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private interface Serializer<T> {
+        byte tag();
+
+        Class<T> type();
+
+        void write(T value, DataOutputStream out) throws IOException;
+
+        T read(DataInputStream in) throws IOException;
+    }
+
+    private static class ShopSerializer implements Serializer<Shop> {
+        @Override
+        public byte tag() {
+            return 1;
+        }
+
+        @Override
+        public Class<Shop> type() {
+            return Shop.class;
+        }
+
+        @Override
+        public void write(Shop shop, DataOutputStream out) throws IOException {
+            writeLong(out, shop.getId());
+            writeString(out, shop.getName());
+            writeLong(out, shop.getTypeId());
+            writeString(out, shop.getImages());
+            writeString(out, shop.getArea());
+            writeString(out, shop.getAddress());
+            writeDouble(out, shop.getX());
+            writeDouble(out, shop.getY());
+            writeLong(out, shop.getAvgPrice());
+            writeInt(out, shop.getSold());
+            writeInt(out, shop.getComments());
+            writeInt(out, shop.getScore());
+            writeString(out, shop.getOpenHours());
+            writeTime(out, shop.getCreateTime());
+            writeTime(out, shop.getUpdateTime());
+        }
+
+        @Override
+        public Shop read(DataInputStream in) throws IOException {
+            return new Shop()
+                    .setId(readLong(in))
+                    .setName(readString(in))
+                    .setTypeId(readLong(in))
+                    .setImages(readString(in))
+                    .setArea(readString(in))
+                    .setAddress(readString(in))
+                    .setX(readDouble(in))
+                    .setY(readDouble(in))
+                    .setAvgPrice(readLong(in))
+                    .setSold(readInt(in))
+                    .setComments(readInt(in))
+                    .setScore(readInt(in))
+                    .setOpenHours(readString(in))
+                    .setCreateTime(readTime(in))
+                    .setUpdateTime(readTime(in));
+        }
+    }
+
+    /**
+     * 笔记的isLike和当前登录用户相关，不进缓存
+     */
+    private static class BlogSerializer implements Serializer<Blog> {
+        @Override
+        public byte tag() {
+            return 2;
+        }
+
+        @Override
+        public Class<Blog> type() {
+            return Blog.class;
+        }
+
+        @Override
+        public void write(Blog blog, DataOutputStream out) throws IOException {
+            writeLong(out, blog.getId());
+            writeLong(out, blog.getShopId());
+            writeLong(out, blog.getUserId());
+            writeString(out, blog.getIcon());
+            writeString(out, blog.getName());
+            writeString(out, blog.getTitle());
+            writeString(out, blog.getImages());
+            writeString(out, blog.getContent());
+            writeInt(out, blog.getLiked());
+            writeInt(out, blog.getComments());
+            writeTime(out, blog.getCreateTime());
+            writeTime(out, blog.getUpdateTime());
+        }
+
+        @Override
+        public Blog read(DataInputStream in) throws IOException {
+            return new Blog()
+                    .setId(readLong(in))
+                    .setShopId(readLong(in))
+                    .setUserId(readLong(in))
+                    .setIcon(readString(in))
+                    .setName(readString(in))
+                    .setTitle(readString(in))
+                    .setImages(readString(in))
+                    .setContent(readString(in))
+                    .setLiked(readInt(in))
+                    .setComments(readInt(in))
+                    .setCreateTime(readTime(in))
+                    .setUpdateTime(readTime(in));
+        }
+    }
+
+    private static class UserDTOSerializer implements Serializer<UserDTO> {
+        @Override
+        public byte tag() {
+            return 3;
+        }
+
+        @Override
+        public Class<UserDTO> type() {
+            return UserDTO.class;
+        }
+
+        @Override
+        public void write(UserDTO user, DataOutputStream out) throws IOException {
+            writeLong(out, user.getId());
+            writeString(out, user.getNickName());
+            writeString(out, user.getIcon());
+        }
+
+        @Override
+        public UserDTO read(DataInputStream in) throws IOException {
+            UserDTO user = new UserDTO();
+            user.setId(readLong(in));
+            user.setNickName(readString(in));
+            user.setIcon(readString(in));
+            return user;
+        }
+    }
+
+    // 以下字段读写都带一个是否为null的标记
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeLong(DataOutputStream out, Long value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value);
+        }
+    }
+
+    private static Long readLong(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readLong() : null;
+    }
+
+    private static void writeInt(DataOutputStream out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    private static Integer readInt(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+
+    private static void writeDouble(DataOutputStream out, Double value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeDouble(value);
+        }
+    }
+
+    private static Double readDouble(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readDouble() : null;
+    }
+
+    private static void writeTime(DataOutputStream out, LocalDateTime value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(value.getNano());
+        }
+    }
+
+    private static LocalDateTime readTime(DataInputStream in) throws IOException {
+        return in.readBoolean() ? LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC) : null;
+    }
+}
@@ -0,0 +1,131 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Blog;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import static com.hmdp.utils.RedisConstants.BLOG_HOT_KEY;
+import static com.hmdp.utils.RedisConstants.LOCK_BLOG_HOT_REBUILD_KEY;
+
+/**
+ * 热门笔记排行，blog:hot有序集合，member是笔记id
+ * 分数 = 点赞数 + 发布时间 / 衰减周期，即每晚发布一个衰减周期，相当于少一个赞；衰减周期为0时只按点赞数排序。
+ * 时间部分只和发布时间有关，点赞、取消点赞只需要ZINCRBY（在BlogLikeBuffer的点赞脚本里），不用重算整个排行。
+ * 新增笔记和点赞时增量维护，定时按数据库全量重建一次纠正偏差。
+ */
+@Component
+public class BlogHotRanking {
+
+    private static final String TMP_SUFFIX = ":tmp";
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedissonClient redissonClient;
+
+    private final long decayMillis;
+
+    private final int maxSize;
+
+    /**
+     * @param decayHours 每晚发布多少小时相当于少一个赞，0表示不随时间衰减
+     * @param maxSize 排行里最多保留多少篇笔记
+     */
+    public BlogHotRanking(StringRedisTemplate stringRedisTemplate, RedissonClient redissonClient,
+                          @Value("${hmdp.blog.hot.decay-hours:0}") long decayHours,
+                          @Value("${hmdp.blog.hot.max-size:10000}") int maxSize) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redissonClient = redissonClient;
+        this.decayMillis = decayHours * 3600_000L;
+        this.maxSize = maxSize;
+    }
+
+    public double score(int liked, LocalDateTime createTime) {
+        if (decayMillis <= 0) {
+            return liked;
+        }
+        LocalDateTime time = createTime == null ? LocalDateTime.now() : createTime;
+        return liked + (double) time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() / decayMillis;
+    }
+
+    /**
+     * 新发布的笔记加入排行，超出上限时裁掉分数最低的
+     */
+    public void add(Blog blog) {
+        int liked = blog.getLiked() == null ? 0 : blog.getLiked();
+        stringRedisTemplate.opsForZSet().add(BLOG_HOT_KEY, blog.getId().toString(), score(liked, blog.getCreateTime()));
+        stringRedisTemplate.opsForZSet().removeRange(BLOG_HOT_KEY, 0, -(maxSize + 1));
+    }
+
+    /**
+     * 按分数由高到低取一段
+     */
+    public Set<ZSetOperations.TypedTuple<String>> range(long offset, long count) {
+        return stringRedisTemplate.opsForZSet().reverseRangeWithScores(BLOG_HOT_KEY, offset, offset + count - 1);
+    }
+
+    /**
+     * 分数不超过max的部分由高到低取count个，跳过分数等于max的前offset个，用于游标翻页
+     */
+    public Set<ZSetOperations.TypedTuple<String>> rangeBelow(double max, long offset, long count) {
+        return stringRedisTemplate.opsForZSet()
+                .reverseRangeByScoreWithScores(BLOG_HOT_KEY, Double.NEGATIVE_INFINITY, max, offset, count);
+    }
+
+    public boolean exists() {
+        return Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_HOT_KEY));
+    }
+
+    /**
+     * 全量重建：每页pipeline写入临时key，写完裁剪到上限再rename覆盖
+     * 重建期间的点赞加在旧key上，rename后会丢失，由下一次重建纠正
+     * 各节点共用一个临时key，加锁保证同一时刻只有一个节点在重建，抢不到锁说明别的节点正在重建，直接返回
+     * @param pages 逐页给出所有笔记，只需要id、liked、createTime
+     */
+    public void rebuild(Iterator<List<Blog>> pages) {
+        RLock lock = redissonClient.getLock(LOCK_BLOG_HOT_REBUILD_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            doRebuild(pages);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void doRebuild(Iterator<List<Blog>> pages) {
+        String tmpKey = BLOG_HOT_KEY + TMP_SUFFIX;
+        stringRedisTemplate.delete(tmpKey);
+        boolean empty = true;
+        while (pages.hasNext()) {
+            List<Blog> blogs = pages.next();
+            empty &= blogs.isEmpty();
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (Blog blog : blogs) {
+                    int liked = blog.getLiked() == null ? 0 : blog.getLiked();
+                    conn.zAdd(tmpKey, score(liked, blog.getCreateTime()), blog.getId().toString());
+                }
+                return null;
+            });
+        }
+        if (empty) {
+            stringRedisTemplate.delete(BLOG_HOT_KEY);
+            return;
+        }
+        stringRedisTemplate.opsForZSet().removeRange(tmpKey, 0, -(maxSize + 1));
+        stringRedisTemplate.rename(tmpKey, BLOG_HOT_KEY);
+    }
+}
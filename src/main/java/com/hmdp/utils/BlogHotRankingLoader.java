@@ -0,0 +1,36 @@
+package com.hmdp.utils;
+
+import com.hmdp.service.IBlogService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+/**
+ * 启动时和定时按数据库重建热门笔记排行，纠正增量维护的偏差和衰减
+ */
+@Slf4j
+@Component
+public class BlogHotRankingLoader implements ApplicationRunner {
+
+    @Resource
+    private IBlogService blogService;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        rebuild();
+    }
+
+    @Scheduled(initialDelayString = "${hmdp.blog.hot.reconcile-interval:600000}",
+            fixedDelayString = "${hmdp.blog.hot.reconcile-interval:600000}")
+    public void rebuild() {
+        try {
+            blogService.rebuildHotRanking();
+        } catch (Exception e) {
+            log.error("重建热门笔记排行失败，继续使用旧排行", e);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 基于位数组的布隆过滤器，元素是long类型的id
+ * 判断不存在则一定不存在，判断存在有一定误判率。写入是线程安全的。
+ */
+public class BloomFilter {
+
+    private final AtomicLongArray bits;
+    private final long bitSize;
+    private final int hashCount;
+
+    /**
+     * @param expectedInsertions 预计元素个数
+     * @param fpp 期望误判率，比如0.01
+     */
+    public BloomFilter(long expectedInsertions, double fpp) {
+        long n = Math.max(expectedInsertions, 1);
+        // m = -n*ln(p)/(ln2)^2，k = m/n*ln2
+        long m = (long) Math.ceil(-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        this.bitSize = Math.max(64, (m + 63) / 64 * 64);
+        this.hashCount = Math.max(1, (int) Math.round((double) bitSize / n * Math.log(2)));
+        this.bits = new AtomicLongArray((int) (bitSize / 64));
+    }
+
+    public void put(long id) {
+        for (long index : bitIndexes(id)) {
+            int word = (int) (index >>> 6);
+            long mask = 1L << (index & 63);
+            long old;
+            do {
+                old = bits.get(word);
+                if ((old & mask) != 0) {
+                    break;
+                }
+            } while (!bits.compareAndSet(word, old, old | mask));
+        }
+    }
+
+    public boolean mightContain(long id) {
+        for (long index : bitIndexes(id)) {
+            if ((bits.get((int) (index >>> 6)) & (1L << (index & 63))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 计算id对应的全部位下标，双重哈希：h1 + i*h2
+     */
+    public long[] bitIndexes(long id) {
+        long h1 = mix(id);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+        long[] indexes = new long[hashCount];
+        for (int i = 0; i < hashCount; i++) {
+            indexes[i] = Math.floorMod(h1 + i * h2, bitSize);
+        }
+        return indexes;
+    }
+
+    /**
+     * 按Redis位图的位序导出：第0位是第一个字节的最高位
+     */
+    public byte[] toRedisBitmap() {
+        byte[] bytes = new byte[(int) (bitSize / 8)];
+        for (int word = 0; word < bits.length(); word++) {
+            long value = bits.get(word);
+            for (int bit = 0; bit < 64; bit++) {
+                if ((value & (1L << bit)) != 0) {
+                    long index = (long) word * 64 + bit;
+                    bytes[(int) (index >>> 3)] |= (byte) (0x80 >>> (index & 7));
+                }
+            }
+        }
+        return bytes;
+    }
+
+    public long getBitSize() {
+        return bitSize;
+    }
+
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    /**
+     * murmur3的64位finalizer，打散连续的自增id
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
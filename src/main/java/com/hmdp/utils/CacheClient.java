@@ -1,21 +1,41 @@
 package com.hmdp.utils;
 
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
+import static com.hmdp.utils.RedisConstants.CACHE_VERSION_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_VERSION_TTL;
 import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.LOCK_SHOP_TTL;
 
 /**
  * 封装redis的方法
@@ -27,149 +47,899 @@ public class CacheClient {
 
     private final StringRedisTemplate stringRedisTemplate;
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    private final LocalCacheManager localCacheManager;
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    private final CacheInvalidationBus cacheInvalidationBus;
+
+    private final IdBloomFilters idBloomFilters;
+
+    private final CacheRebuildExecutor cacheRebuildExecutor;
+
+    private final HotKeyDetector hotKeyDetector;
+
+    /**
+     * XFetch的beta，大于1更激进地提前刷新
+     */
+    private static final double XFETCH_BETA = 1.0;
+    /**
+     * 没有记录重建耗时时使用的默认值
+     */
+    private static final long XFETCH_DEFAULT_REBUILD_MILLIS = 100;
+
+    private static final long MUTEX_MIN_BACKOFF_MILLIS = 10;
+    private static final long MUTEX_MAX_BACKOFF_MILLIS = 200;
+
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    /**
+     * 空值标记，对应Redis里的空字符串
+     */
+    private static final byte[] NULL_BYTES = new byte[0];
+
+    /**
+     * 值不变时原地换成新格式，保留剩余ttl；值已经被别人改过就放弃
+     */
+    private static final byte[] MIGRATE_SCRIPT = ("local v = redis.call('get', KEYS[1]) " +
+            "if v ~= ARGV[1] then return 0 end " +
+            "local ttl = redis.call('pttl', KEYS[1]) " +
+            "if ttl > 0 then redis.call('set', KEYS[1], ARGV[2], 'PX', ttl) " +
+            "else redis.call('set', KEYS[1], ARGV[2]) end " +
+            "return 1").getBytes(StandardCharsets.UTF_8);
+
+    private static final String MIGRATE_TASK_PREFIX = "migrate:";
+    private static final String REFRESH_TASK_PREFIX = "refresh:";
+
+    /**
+     * 版本号等于查库前读到的值才回填，版本号不存在时ARGV[1]为空字符串，ARGV[3]为0表示不过期
+     */
+    private static final byte[] SET_IF_VERSION_SCRIPT = ("local v = redis.call('get', KEYS[2]) " +
+            "if (v or '') ~= ARGV[1] then return 0 end " +
+            "if ARGV[3] == '0' then redis.call('set', KEYS[1], ARGV[2]) " +
+            "else redis.call('set', KEYS[1], ARGV[2], 'PX', ARGV[3]) end " +
+            "return 1").getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 版本号+1，同时续期，版本号只需要比可能正在进行的回填活得久
+     */
+    private static final byte[] INCR_VERSION_SCRIPT = ("local v = redis.call('incr', KEYS[1]) " +
+            "redis.call('pexpire', KEYS[1], ARGV[1]) " +
+            "return v").getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 开启了版本栅栏的前缀
+     */
+    private final Map<String, Boolean> versionedPrefixes = new ConcurrentHashMap<>();
+
+    /**
+     * 存逻辑过期值的前缀，Redis里是RedisData编码、L1里是RedisData，批量查询按这种格式读写
+     */
+    private final Map<String, Boolean> logicalPrefixes = new ConcurrentHashMap<>();
+
+    @Value("${hmdp.cache.double-delete-delay:500}")
+    private long doubleDeleteDelayMillis;
+
+    private final ScheduledExecutorService delayedDeleteScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "cache-delayed-delete");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * 按前缀配置的编解码器，没配置的前缀用JSON
+     */
+    private final Map<String, CacheCodec> codecs = new ConcurrentHashMap<>();
+
+    @Value("${hmdp.cache.codec.binary-prefixes:}")
+    private String[] binaryPrefixes;
+
+    /**
+     * 按前缀配置的ttl随机延长比例，没配置的前缀用默认比例
+     */
+    private final Map<String, Double> ttlJitters = new ConcurrentHashMap<>();
+
+    @Value("${hmdp.cache.ttl-jitter.default-ratio:0.1}")
+    private double defaultJitterRatio;
+
+    /**
+     * 各前缀的过期时间分布，没配置随机比例的key统计在OTHER_PREFIX下
+     */
+    private final Map<String, ExpiryHistogram> expiryHistograms = new ConcurrentHashMap<>();
+
+    private static final String OTHER_PREFIX = "other";
+    private static final long EXPIRY_BUCKET_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate, LocalCacheManager localCacheManager,
+                       CacheInvalidationBus cacheInvalidationBus, IdBloomFilters idBloomFilters,
+                       CacheRebuildExecutor cacheRebuildExecutor, HotKeyDetector hotKeyDetector) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.localCacheManager = localCacheManager;
+        this.cacheInvalidationBus = cacheInvalidationBus;
+        this.idBloomFilters = idBloomFilters;
+        this.cacheRebuildExecutor = cacheRebuildExecutor;
+        this.hotKeyDetector = hotKeyDetector;
+    }
+
+    @PostConstruct
+    public void init() {
+        for (String prefix : binaryPrefixes) {
+            if (!prefix.trim().isEmpty()) {
+                setCodec(prefix.trim(), BinaryCacheCodec.INSTANCE);
+            }
+        }
+    }
+
+    /**
+     * 切换某个前缀的编解码器，切换后旧格式的值在被读到时惰性迁移
+     */
+    public void setCodec(String keyPrefix, CacheCodec codec) {
+        codecs.put(keyPrefix, codec);
+    }
+
+    /**
+     * 设置某个前缀的ttl随机延长比例，实际ttl在[ttl, ttl * (1 + ratio)]之间均匀分布，
+     * 同一批预热或者同一时刻写入的key不会在同一秒集中过期
+     * @param ratio 随机延长比例，0表示不加随机
+     */
+    public void setTtlJitter(String keyPrefix, double ratio) {
+        if (ratio < 0) {
+            throw new IllegalArgumentException("ttl随机比例不能为负数");
+        }
+        ttlJitters.put(keyPrefix, ratio);
+    }
+
+    /**
+     * 给ttl加上该key所在前缀的随机延长，同时记入过期时间分布
+     * 不经过CacheClient直接写Redis的地方也用这个方法算ttl
+     * @return 加上随机延长后的ttl，毫秒
+     */
+    public long ttlWithJitter(String key, long time, TimeUnit unit) {
+        long ttlMillis = unit.toMillis(time);
+        String prefix = longestPrefix(ttlJitters, key);
+        double ratio = prefix == null ? defaultJitterRatio : ttlJitters.get(prefix);
+        if (ratio > 0 && ttlMillis > 0) {
+            ttlMillis += (long) (ttlMillis * ratio * ThreadLocalRandom.current().nextDouble());
+        }
+        long expireAt = System.currentTimeMillis() + ttlMillis;
+        expiryHistograms.computeIfAbsent(prefix == null ? OTHER_PREFIX : prefix,
+                p -> new ExpiryHistogram(EXPIRY_BUCKET_MILLIS)).record(expireAt);
+        return ttlMillis;
+    }
+
+    /**
+     * 缓存重建的请求合并统计
+     */
+    public Map<String, Object> singleFlightStats() {
+        return singleFlight.stats();
+    }
+
+    /**
+     * 各前缀未来的过期时间分布
+     */
+    public Map<String, Object> expiryHistograms() {
+        Map<String, Object> snapshot = new HashMap<>();
+        expiryHistograms.forEach((prefix, histogram) -> snapshot.put(prefix, histogram.snapshot()));
+        return snapshot;
+    }
+
+    /**
+     * 为某个key前缀开启进程内一级缓存，开启后该前缀的查询先走L1，未命中再查Redis
+     * @param keyPrefix key前缀
+     * @param maxSize L1最多缓存的条目数
+     * @param ttl L1过期时间，应明显短于Redis的过期时间
+     * @param unit 时间单位
+     */
+    public void enableLocalCache(String keyPrefix, int maxSize, long ttl, TimeUnit unit) {
+        localCacheManager.register(keyPrefix, maxSize, ttl, unit);
+    }
+
+    /**
+     * 只读Redis里的缓存值，按前缀配置的编码解码，未命中或者是缓存的空值返回null，不查数据库也不回填
+     */
+    public <R> R get(String key, Class<R> type) {
+        byte[] bytes = getRaw(key);
+        return bytes == null ? null : cacheHit(key, key, null, bytes, type);
     }
 
     public void set(String key, Object value, Long time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        setRaw(key, codecOf(key).encode(value), ttlWithJitter(key, time, unit));
+        localCacheManager.put(key, value);
+        hotKeyDetector.evict(key);
+    }
+
+    /**
+     * 删除缓存，Redis和本进程的L1一起删除，并广播通知其他节点删除各自的L1
+     */
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+        cacheInvalidationBus.evictKey(key);
+        hotKeyDetector.evict(key);
+    }
+
+    /**
+     * 为某个前缀开启版本栅栏，更新时版本号+1，查库回填时版本号变了就放弃回填
+     */
+    public void enableVersionFence(String keyPrefix) {
+        versionedPrefixes.put(keyPrefix, Boolean.TRUE);
+    }
+
+    /**
+     * 标记某个前缀存的是逻辑过期值，和普通缓存共用同一批key时，批量查询也按逻辑过期格式读写
+     * 第一次按逻辑过期查询时会自动标记，但在此之前的批量查询会写成普通格式，所以使用逻辑过期的前缀应在启动时标记
+     */
+    public void enableLogicalExpire(String keyPrefix) {
+        logicalPrefixes.put(keyPrefix, Boolean.TRUE);
+    }
+
+    /**
+     * key所在的前缀是否存的是逻辑过期值
+     */
+    public boolean isLogical(String key) {
+        return longestPrefix(logicalPrefixes, key) != null;
+    }
+
+    /**
+     * 数据库更新后失效缓存：在事务里调用时等事务提交后再执行，不在事务里立即执行
+     * 提交之前删除缓存，并发的查询会把还没提交的旧数据重新回填进去
+     */
+    public void deleteAfterCommit(String key) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidate(key);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                invalidate(key);
+            }
+        });
+    }
+
+    /**
+     * 延时双删：版本号+1让正在进行的回填作废，立即删除一次，延时再删除一次兜住删除前已经读到旧数据的回填
+     */
+    public void invalidate(String key) {
+        invalidate(key, null);
+    }
+
+    /**
+     * 失效后主动刷新：延时的第二次删除之后按最新版本号查库重写，热点key不用等下一次读未命中再回源
+     * 逻辑过期的前缀写入不过期的RedisData；刷新期间又有更新提交时由版本栅栏放弃写入，loader返回null时保持失效
+     */
+    public <R> void invalidateAndRefresh(String key, Supplier<R> loader, Long time, TimeUnit unit) {
+        invalidate(key, () -> cacheRebuildExecutor.submit(REFRESH_TASK_PREFIX + key, () -> {
+            String version = readVersion(key);
+            R r = loader.get();
+            if (r == null) {
+                return;
+            }
+            CacheCodec codec = codecOf(key);
+            if (isLogical(key)) {
+                writeIfVersion(key, codec.encodeLogical(logicalValue(key, r, time, unit, null)), 0, version);
+            } else {
+                writeIfVersion(key, codec.encode(r), ttlWithJitter(key, time, unit), version);
+            }
+        }, true));
+    }
+
+    private void invalidate(String key, Runnable afterDelayedDelete) {
+        if (longestPrefix(versionedPrefixes, key) != null) {
+            byte[] versionKey = rawKey(CACHE_VERSION_KEY + key);
+            byte[] ttl = String.valueOf(TimeUnit.HOURS.toMillis(CACHE_VERSION_TTL)).getBytes(StandardCharsets.UTF_8);
+            stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+                    connection.eval(INCR_VERSION_SCRIPT, ReturnType.INTEGER, 1, versionKey, ttl));
+        }
+        delete(key);
+        delayedDeleteScheduler.schedule(() -> {
+            try {
+                delete(key);
+                if (afterDelayedDelete != null) {
+                    afterDelayedDelete.run();
+                }
+            } catch (Exception e) {
+                log.error("延时删除缓存失败：{}", key, e);
+            }
+        }, doubleDeleteDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        delayedDeleteScheduler.shutdown();
+    }
+
+    /**
+     * 整体失效某个前缀在所有节点上的L1，Redis中的数据不动
+     */
+    public void evictLocalPrefix(String keyPrefix) {
+        cacheInvalidationBus.evictPrefix(keyPrefix);
     }
 
     public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {
+        setWithLogicalExpire(key, value, time, unit, null);
+    }
+
+    /**
+     * 写入逻辑过期缓存，同时记录本次重建耗时，供提前刷新计算概率
+     * @param rebuildMillis 重建耗时，毫秒，未知传null
+     */
+    public void setWithLogicalExpire(String key, Object value, Long time, TimeUnit unit, Long rebuildMillis) {
         // 设置逻辑过期
+        RedisData redisData = logicalValue(key, value, time, unit, rebuildMillis);
+        // 写入Redis
+        setRaw(key, codecOf(key).encodeLogical(redisData), 0);
+        localCacheManager.put(key, redisData);
+        hotKeyDetector.evict(key);
+    }
+
+    /**
+     * 批量写入逻辑过期缓存，一次pipeline发出，用于预热
+     * 不写L1，L1在请求读到时再填充
+     * @param values key到缓存对象的映射
+     */
+    public void setWithLogicalExpireBatch(Map<String, ?> values, Long time, TimeUnit unit) {
+        if (values.isEmpty()) {
+            return;
+        }
+        Map<byte[], byte[]> encoded = new LinkedHashMap<>(values.size() * 2);
+        values.forEach((key, value) ->
+                encoded.put(rawKey(key), codecOf(key).encodeLogical(logicalValue(key, value, time, unit, null))));
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            encoded.forEach(connection::set);
+            return null;
+        });
+    }
+
+    private RedisData logicalValue(String key, Object value, Long time, TimeUnit unit, Long rebuildMillis) {
         RedisData redisData = new RedisData();
         redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
-        // 写入Redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        redisData.setExpireTime(LocalDateTime.now().plus(ttlWithJitter(key, time, unit), ChronoUnit.MILLIS));
+        redisData.setRebuildMillis(rebuildMillis);
+        return redisData;
     }
 
     public <R,ID> R queryWithPassThrough(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit){
+        // 布隆过滤器判断id一定不存在，直接返回，不查Redis也不查数据库
+        if (!idBloomFilters.mightContain(keyPrefix, id)) {
+            return null;
+        }
         String key = keyPrefix + id;
+        // 0.开启了L1的前缀先查进程内缓存
+        LocalCache localCache = localCacheOf(keyPrefix, key);
+        if (localCache != null) {
+            Object cached = localCache.get(key);
+            if (cached != null) {
+                return localHit(cached, type);
+            }
+        }
         // 1.从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
-        // 2.判断是否存在
-        if (StrUtil.isNotBlank(json)) {
+        byte[] bytes = getRaw(key);
+        // 2.判断是否存在，空字符串是缓存的空值
+        if (bytes != null) {
             // 3.存在，直接返回
-            return JSONUtil.toBean(json, type);
-        }
-        // 判断命中的是否是空值
-        if (json != null) {
-            // 返回一个错误信息
-            return null;
+            return cacheHit(keyPrefix, key, localCache, bytes, type);
         }
 
-        // 4.不存在，根据id查询数据库
-        R r = dbFallback.apply(id);
-        // 5.不存在，返回错误
-        if (r == null) {
-            // 将空值写入redis
-            stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-            // 返回错误信息
-            return null;
-        }
-        // 6.存在，写入redis
-        this.set(key, r, time, unit);
-        return r;
+        // 4.不存在，根据id查询数据库并回填
+        return loadAndBackfill(key, localCache, id, dbFallback, time, unit);
     }
 
     public <R, ID> R queryWithLogicalExpire(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
-        String key = keyPrefix + id;
-        // 1.从redis查询商铺缓存
-        String json = stringRedisTemplate.opsForValue().get(key);
-        // 2.判断是否存在
-        if (StrUtil.isBlank(json)) {
-            // 3.存在，直接返回
+        return queryLogical(keyPrefix, id, type, dbFallback, time, unit, false);
+    }
+
+    /**
+     * 逻辑过期 + 概率提前刷新（XFetch）
+     * 离过期越近、重建越慢，提前触发重建的概率越大：now - rebuildMillis * beta * ln(random) >= expireTime 时重建。
+     * 热点key会在过期前被某个请求提前重建，不同key的重建时间也被自然打散，几乎读不到已过期的数据。
+     */
+    public <R, ID> R queryWithEarlyRefresh(
+            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        return queryLogical(keyPrefix, id, type, dbFallback, time, unit, true);
+    }
+
+    private <R, ID> R queryLogical(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback,
+                                   Long time, TimeUnit unit, boolean earlyRefresh) {
+        if (!idBloomFilters.mightContain(keyPrefix, id)) {
             return null;
         }
-        // 4.命中，需要先把json反序列化为对象
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        logicalPrefixes.putIfAbsent(keyPrefix, Boolean.TRUE);
+        String key = keyPrefix + id;
+        // 0.开启了L1的前缀先查进程内缓存，L1里存的是data已经转换好的RedisData，批量查询缓存的空值视为未命中
+        LocalCache localCache = localCacheOf(keyPrefix, key);
+        Object cached = localCache == null ? null : localCache.get(key);
+        RedisData redisData = cached instanceof RedisData ? (RedisData) cached : null;
+        if (redisData == null) {
+            // 1.从redis查询商铺缓存
+            byte[] bytes = getRaw(key);
+            // 2.判断是否存在
+            if (bytes == null || bytes.length == 0) {
+                // 3.存在，直接返回
+                return null;
+            }
+            // 4.命中，反序列化为对象，data直接转换成目标类型；旧格式的值顺便迁移
+            CacheCodec codec = codecOf(keyPrefix);
+            redisData = codec.decodeLogical(bytes, type);
+            if (!codec.isNativeFormat(bytes, type)) {
+                migrate(key, bytes, codec.encodeLogical(redisData));
+            }
+            putLocal(localCache, key, redisData);
+        }
+        R r = type.cast(redisData.getData());
         LocalDateTime expireTime = redisData.getExpireTime();
         // 5.判断是否过期
-        if(expireTime.isAfter(LocalDateTime.now())) {
+        boolean expired = !expireTime.isAfter(LocalDateTime.now());
+        if (!expired && !(earlyRefresh && shouldRefreshEarly(redisData))) {
             // 5.1.未过期，直接返回店铺信息
             return r;
         }
-        // 5.2.已过期，需要缓存重建
+        // 5.2.已过期或者命中提前刷新，需要缓存重建
         // 6.缓存重建
         // 6.1.获取互斥锁
         String lockKey = LOCK_SHOP_KEY + id;
         boolean isLock = tryLock(lockKey);
         // 6.2.判断是否获取锁成功
         if (isLock){
-            // 6.3.成功，开启独立线程，实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
+            // 6.3.成功，交给重建线程池；已经过期正在返回旧数据的和热点key走优先通道，其余提前刷新的走普通通道
+            boolean accepted = cacheRebuildExecutor.submit(key, () -> {
                 try {
-                    // 查询数据库
+                    // 查询数据库，顺便记录重建耗时
+                    long begin = System.currentTimeMillis();
                     R newR = dbFallback.apply(id);
                     // 重建缓存
-                    this.setWithLogicalExpire(key, newR, time, unit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }finally {
+                    this.setWithLogicalExpire(key, newR, time, unit, System.currentTimeMillis() - begin);
+                } finally {
                     // 释放锁
                     unlock(lockKey);
                 }
-            });
+            }, expired || hotKeyDetector.isHot(key));
+            if (!accepted) {
+                // 重复或者队列已满，任务不会执行，锁要在这里释放
+                unlock(lockKey);
+            }
         }
         // 6.4.返回过期的商铺信息
         return r;
     }
 
+    /**
+     * XFetch判断：-ln(random)服从指数分布，乘上重建耗时和beta作为提前量
+     */
+    private boolean shouldRefreshEarly(RedisData redisData) {
+        Long rebuildMillis = redisData.getRebuildMillis();
+        long delta = rebuildMillis == null || rebuildMillis <= 0 ? XFETCH_DEFAULT_REBUILD_MILLIS : rebuildMillis;
+        long expireAt = redisData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        return shouldRefreshEarly(System.currentTimeMillis(), expireAt, delta, ThreadLocalRandom.current().nextDouble());
+    }
+
+    /**
+     * @param random (0, 1)之间的随机数，单独传入方便测试
+     */
+    static boolean shouldRefreshEarly(long now, long expireAt, long rebuildMillis, double random) {
+        long gap = (long) (-rebuildMillis * XFETCH_BETA * Math.log(random));
+        return now + gap >= expireAt;
+    }
+
     public <R, ID> R queryWithMutex(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        // 布隆过滤器判断id一定不存在，直接返回，不查Redis也不查数据库
+        if (!idBloomFilters.mightContain(keyPrefix, id)) {
+            return null;
+        }
         String key = keyPrefix + id;
+        // 0.开启了L1的前缀先查进程内缓存
+        LocalCache localCache = localCacheOf(keyPrefix, key);
+        if (localCache != null) {
+            Object cached = localCache.get(key);
+            if (cached != null) {
+                return localHit(cached, type);
+            }
+        }
         // 1.从redis查询商铺缓存
-        String shopJson = stringRedisTemplate.opsForValue().get(key);
-        // 2.判断是否存在
-        if (StrUtil.isNotBlank(shopJson)) {
+        byte[] bytes = getRaw(key);
+        // 2.判断是否存在，空字符串是缓存的空值
+        if (bytes != null) {
             // 3.存在，直接返回
-            return JSONUtil.toBean(shopJson, type);
-        }
-        // 判断命中的是否是空值
-        if (shopJson != null) {
-            // 返回一个错误信息
-            return null;
+            return cacheHit(keyPrefix, key, localCache, bytes, type);
         }
 
-        // 4.实现缓存重建
+        // 4.实现缓存重建：同一进程内的并发未命中合并成一次加载，等待方挂在同一个future上，加载完成后统一唤醒
+        return singleFlight.execute(key,
+                () -> loadWithMutex(keyPrefix, key, localCache, id, type, dbFallback, time, unit),
+                LOCK_SHOP_TTL * 2, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 每个进程只有一个线程会走到这里，再用Redis互斥锁保证跨节点只有一个节点查数据库
+     */
+    private <R, ID> R loadWithMutex(String keyPrefix, String key, LocalCache localCache, ID id, Class<R> type,
+                                    Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         // 4.1.获取互斥锁
         String lockKey = LOCK_SHOP_KEY + id;
-        R r = null;
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(LOCK_SHOP_TTL);
+        long backoff = MUTEX_MIN_BACKOFF_MILLIS;
+        while (!tryLock(lockKey)) {
+            // 4.2.其他节点正在重建，只有本进程的这一个线程退避重查，其余线程在future上等待
+            if (System.currentTimeMillis() > deadline) {
+                throw new RuntimeException("等待缓存重建超时");
+            }
+            sleep(backoff);
+            backoff = Math.min(backoff * 2, MUTEX_MAX_BACKOFF_MILLIS);
+            byte[] bytes = getRaw(key);
+            if (bytes != null) {
+                return cacheHit(keyPrefix, key, localCache, bytes, type);
+            }
+        }
         try {
-            boolean isLock = tryLock(lockKey);
-            // 4.2.判断是否获取成功
-            if (!isLock) {
-                // 4.3.获取锁失败，休眠并重试
-                Thread.sleep(50);
-                return queryWithMutex(keyPrefix, id, type, dbFallback, time, unit);
-            }
-            // 4.4.获取锁成功，根据id查询数据库
-            r = dbFallback.apply(id);
-            // 5.不存在，返回错误
-            if (r == null) {
-                // 将空值写入redis
-                stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-                // 返回错误信息
-                return null;
+            // 4.3.拿到锁后再查一次，可能别的节点刚好重建完
+            byte[] bytes = getRaw(key);
+            if (bytes != null) {
+                return cacheHit(keyPrefix, key, localCache, bytes, type);
             }
-            // 6.存在，写入redis
-            this.set(key, r, time, unit);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }finally {
+            // 4.4.获取锁成功，根据id查询数据库并回填
+            return loadAndBackfill(key, localCache, id, dbFallback, time, unit);
+        } finally {
             // 7.释放锁
             unlock(lockKey);
         }
-        // 8.返回
+    }
+
+    /**
+     * 查询数据库并回填缓存
+     * 开启了版本栅栏的前缀，查库前先记下版本号，回填时版本号已经变了说明期间有更新提交，读到的可能是旧数据，放弃回填
+     */
+    private <R, ID> R loadAndBackfill(String key, LocalCache localCache, ID id, Function<ID, R> dbFallback,
+                                      Long time, TimeUnit unit) {
+        String version = readVersion(key);
+        R r = dbFallback.apply(id);
+        // 5.不存在，返回错误
+        if (r == null) {
+            // 将空值写入redis
+            if (writeIfVersion(key, NULL_BYTES, ttlWithJitter(key, CACHE_NULL_TTL, TimeUnit.MINUTES), version)) {
+                putLocalNull(localCache, key);
+            }
+            // 返回错误信息
+            return null;
+        }
+        // 6.存在，写入redis
+        if (writeIfVersion(key, codecOf(key).encode(r), ttlWithJitter(key, time, unit), version)) {
+            putLocal(localCache, key, r);
+        }
         return r;
     }
 
+    /**
+     * 读取key当前的版本号，没开启版本栅栏返回null，还没有版本号返回空字符串
+     */
+    private String readVersion(String key) {
+        if (longestPrefix(versionedPrefixes, key) == null) {
+            return null;
+        }
+        String version = stringRedisTemplate.opsForValue().get(CACHE_VERSION_KEY + key);
+        return version == null ? "" : version;
+    }
+
+    /**
+     * 版本号没变才写入，version为null时直接写入
+     * @return 是否写入
+     */
+    private boolean writeIfVersion(String key, byte[] value, long ttlMillis, String version) {
+        if (version == null) {
+            setRaw(key, value, ttlMillis);
+            return true;
+        }
+        byte[] rawKey = rawKey(key);
+        byte[] versionKey = rawKey(CACHE_VERSION_KEY + key);
+        byte[] expected = version.getBytes(StandardCharsets.UTF_8);
+        byte[] ttl = String.valueOf(ttlMillis).getBytes(StandardCharsets.UTF_8);
+        Long result = stringRedisTemplate.execute((RedisCallback<Long>) connection ->
+                connection.eval(SET_IF_VERSION_SCRIPT, ReturnType.INTEGER, 2, rawKey, versionKey, expected, value, ttl));
+        if (result == null || result == 0) {
+            log.debug("回填期间数据已更新，放弃回填：{}", key);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * L1命中：逻辑过期前缀和普通查询共用key时L1里可能是RedisData，取出里面的数据
+     */
+    private static <R> R localHit(Object cached, Class<R> type) {
+        if (cached == LocalCache.NULL_VALUE) {
+            return null;
+        }
+        if (cached instanceof RedisData) {
+            return type.cast(((RedisData) cached).getData());
+        }
+        return type.cast(cached);
+    }
+
+    /**
+     * Redis命中后的处理，空字符串代表缓存的空值；读到旧格式的值时异步迁移成前缀当前的格式
+     */
+    private <R> R cacheHit(String keyPrefix, String key, LocalCache localCache, byte[] bytes, Class<R> type) {
+        if (bytes.length == 0) {
+            putLocalNull(localCache, key);
+            return null;
+        }
+        if (isLogical(keyPrefix)) {
+            // 预热或批量查询写的是逻辑过期格式，取出里面的数据
+            return logicalHit(keyPrefix, key, localCache, bytes, type);
+        }
+        CacheCodec codec = codecOf(keyPrefix);
+        R r = codec.decode(bytes, type);
+        if (!codec.isNativeFormat(bytes, type)) {
+            migrate(key, bytes, codec.encode(r));
+        }
+        putLocal(localCache, key, r);
+        return r;
+    }
+
+    private CacheCodec codecOf(String key) {
+        String prefix = longestPrefix(codecs, key);
+        return prefix == null ? JsonCacheCodec.INSTANCE : codecs.get(prefix);
+    }
+
+    /**
+     * 按前缀配置的项里找key能匹配上的最长前缀，没有返回null
+     */
+    private static String longestPrefix(Map<String, ?> configs, String key) {
+        String matched = null;
+        for (String prefix : configs.keySet()) {
+            if (key.startsWith(prefix) && (matched == null || prefix.length() > matched.length())) {
+                matched = prefix;
+            }
+        }
+        return matched;
+    }
+
+    private void migrate(String key, byte[] oldBytes, byte[] newBytes) {
+        byte[] rawKey = rawKey(key);
+        cacheRebuildExecutor.submit(MIGRATE_TASK_PREFIX + key, () ->
+                stringRedisTemplate.execute((RedisCallback<Object>) connection ->
+                        connection.eval(MIGRATE_SCRIPT, ReturnType.INTEGER, 1, rawKey, oldBytes, newBytes)));
+    }
+
+    private byte[] getRaw(String key) {
+        byte[] rawKey = rawKey(key);
+        return stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawKey));
+    }
+
+    /**
+     * 写入原始字节，ttlMillis不大于0表示不过期
+     */
+    private void setRaw(String key, byte[] value, long ttlMillis) {
+        byte[] rawKey = rawKey(key);
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            if (ttlMillis > 0) {
+                connection.pSetEx(rawKey, ttlMillis, value);
+            } else {
+                connection.set(rawKey, value);
+            }
+            return null;
+        });
+    }
+
+    private static byte[] rawKey(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 批量查询：一次MGET查Redis，未命中的id一次性交给batchDbFallback查库（WHERE id IN (...)），再用pipeline回填
+     * 最多四次网络往返，返回结果与传入id顺序一致，不存在的位置为null
+     * 逻辑过期的前缀按RedisData读写，回填的值同样带逻辑过期时间，不会和单个查询的格式混在一起；
+     * 批量查询只读不重建，逻辑上已经过期的值照样返回，由单个查询负责重建。
+     * 开启了版本栅栏的前缀，回填和单个查询一样按查库前的版本号写入。
+     * @param keyPrefix key前缀
+     * @param ids 要查询的id，可以重复
+     * @param type 结果类型
+     * @param batchDbFallback 批量查库，返回id到数据的映射，查不到的id不放进map即可
+     * @param time 过期时间
+     * @param unit 时间单位
+     */
+    public <R, ID> List<R> queryMany(String keyPrefix, List<ID> ids, Class<R> type,
+                                     Function<List<ID>, Map<ID, R>> batchDbFallback, Long time, TimeUnit unit) {
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        boolean logical = isLogical(keyPrefix);
+        LocalCache localCache = localCacheManager.get(keyPrefix);
+        Map<ID, R> found = new HashMap<>(ids.size() * 2);
+        // 1.去重，布隆过滤器判定不存在的、L1命中的都不用再查Redis
+        List<ID> redisIds = new ArrayList<>();
+        for (ID id : new LinkedHashSet<>(ids)) {
+            if (!idBloomFilters.mightContain(keyPrefix, id)) {
+                continue;
+            }
+            Object cached = localCache == null ? null : localCache.get(keyPrefix + id);
+            if (cached == null) {
+                redisIds.add(id);
+            } else if (cached instanceof RedisData) {
+                found.put(id, type.cast(((RedisData) cached).getData()));
+            } else if (cached != LocalCache.NULL_VALUE) {
+                found.put(id, type.cast(cached));
+            }
+        }
+        // 2.一次MGET
+        List<ID> missIds = new ArrayList<>();
+        if (!redisIds.isEmpty()) {
+            byte[][] rawKeys = new byte[redisIds.size()][];
+            for (int i = 0; i < redisIds.size(); i++) {
+                rawKeys[i] = rawKey(keyPrefix + redisIds.get(i));
+            }
+            List<byte[]> values = stringRedisTemplate.execute(
+                    (RedisCallback<List<byte[]>>) connection -> connection.mGet(rawKeys));
+            for (int i = 0; i < redisIds.size(); i++) {
+                byte[] bytes = values == null ? null : values.get(i);
+                if (bytes == null) {
+                    missIds.add(redisIds.get(i));
+                    continue;
+                }
+                String key = keyPrefix + redisIds.get(i);
+                R r = logical ? logicalHit(keyPrefix, key, localCache, bytes, type)
+                        : cacheHit(keyPrefix, key, localCache, bytes, type);
+                if (r != null) {
+                    found.put(redisIds.get(i), r);
+                }
+            }
+        }
+        // 3.未命中的一次查库，再用pipeline回填，查不到的缓存空值
+        if (!missIds.isEmpty()) {
+            List<String> keys = new ArrayList<>(missIds.size());
+            for (ID id : missIds) {
+                keys.add(keyPrefix + id);
+            }
+            List<String> versions = readVersions(keys);
+            Map<ID, R> loaded = batchDbFallback.apply(missIds);
+            found.putAll(loaded);
+            CacheCodec codec = codecOf(keyPrefix);
+            List<Object> locals = new ArrayList<>(missIds.size());
+            List<byte[]> encoded = new ArrayList<>(missIds.size());
+            List<Long> ttls = new ArrayList<>(missIds.size());
+            for (int i = 0; i < missIds.size(); i++) {
+                R r = loaded.get(missIds.get(i));
+                String key = keys.get(i);
+                if (r == null) {
+                    locals.add(null);
+                    encoded.add(NULL_BYTES);
+                    ttls.add(ttlWithJitter(key, CACHE_NULL_TTL, TimeUnit.MINUTES));
+                } else if (logical) {
+                    // 逻辑过期的值在Redis里不过期
+                    RedisData redisData = logicalValue(key, r, time, unit, null);
+                    locals.add(redisData);
+                    encoded.add(codec.encodeLogical(redisData));
+                    ttls.add(0L);
+                } else {
+                    locals.add(r);
+                    encoded.add(codec.encode(r));
+                    ttls.add(ttlWithJitter(key, time, unit));
+                }
+            }
+            List<Boolean> written = writeManyIfVersion(keys, encoded, ttls, versions);
+            for (int i = 0; i < missIds.size(); i++) {
+                if (!written.get(i)) {
+                    continue;
+                }
+                if (locals.get(i) != null) {
+                    putLocal(localCache, keys.get(i), locals.get(i));
+                } else if (!logical) {
+                    // 逻辑过期的前缀L1里只放RedisData，空值只留在Redis
+                    putLocalNull(localCache, keys.get(i));
+                }
+            }
+        }
+        // 4.按传入顺序组装
+        List<R> result = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            result.add(found.get(id));
+        }
+        return result;
+    }
+
+    /**
+     * 逻辑过期前缀的Redis命中，空字符串是批量查询缓存的空值
+     */
+    private <R> R logicalHit(String keyPrefix, String key, LocalCache localCache, byte[] bytes, Class<R> type) {
+        if (bytes.length == 0) {
+            return null;
+        }
+        CacheCodec codec = codecOf(keyPrefix);
+        RedisData redisData = codec.decodeLogical(bytes, type);
+        if (!codec.isNativeFormat(bytes, type)) {
+            migrate(key, bytes, codec.encodeLogical(redisData));
+        }
+        putLocal(localCache, key, redisData);
+        return type.cast(redisData.getData());
+    }
+
+    /**
+     * 一次pipeline读取多个key的版本号，没开启版本栅栏的位置为null
+     */
+    private List<String> readVersions(List<String> keys) {
+        List<String> versions = new ArrayList<>(Collections.nCopies(keys.size(), (String) null));
+        if (longestPrefix(versionedPrefixes, keys.get(0)) == null) {
+            return versions;
+        }
+        List<Object> values = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String key : keys) {
+                connection.get(rawKey(CACHE_VERSION_KEY + key));
+            }
+            return null;
+        });
+        for (int i = 0; i < keys.size(); i++) {
+            Object value = values.get(i);
+            versions.set(i, value == null ? "" : value.toString());
+        }
+        return versions;
+    }
+
+    /**
+     * writeIfVersion的批量版本，一次pipeline发出
+     * @return 每个key是否写入
+     */
+    private List<Boolean> writeManyIfVersion(List<String> keys, List<byte[]> values, List<Long> ttls,
+                                             List<String> versions) {
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (int i = 0; i < keys.size(); i++) {
+                byte[] rawKey = rawKey(keys.get(i));
+                long ttlMillis = ttls.get(i);
+                String version = versions.get(i);
+                if (version != null) {
+                    connection.eval(SET_IF_VERSION_SCRIPT, ReturnType.INTEGER, 2, rawKey,
+                            rawKey(CACHE_VERSION_KEY + keys.get(i)), version.getBytes(StandardCharsets.UTF_8),
+                            values.get(i), String.valueOf(ttlMillis).getBytes(StandardCharsets.UTF_8));
+                } else if (ttlMillis > 0) {
+                    connection.pSetEx(rawKey, ttlMillis, values.get(i));
+                } else {
+                    connection.set(rawKey, values.get(i));
+                }
+            }
+            return null;
+        });
+        List<Boolean> written = new ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            boolean ok = versions.get(i) == null || Long.valueOf(1).equals(results.get(i));
+            if (!ok) {
+                log.debug("回填期间数据已更新，放弃回填：{}", keys.get(i));
+            }
+            written.add(ok);
+        }
+        return written;
+    }
+
+    /**
+     * 记录一次访问；开启了L1的前缀用L1，没开启的前缀探测到是热点key时用热点缓存
+     */
+    private LocalCache localCacheOf(String keyPrefix, String key) {
+        boolean hot = hotKeyDetector.record(key);
+        LocalCache localCache = localCacheManager.get(keyPrefix);
+        if (localCache != null) {
+            return localCache;
+        }
+        return hot ? hotKeyDetector.hotCache() : null;
+    }
+
+    private void putLocal(LocalCache localCache, String key, Object value) {
+        if (localCache != null) {
+            localCache.put(key, value);
+        }
+    }
+
+    private void putLocalNull(LocalCache localCache, String key) {
+        if (localCache != null) {
+            localCache.put(key, LocalCache.NULL_VALUE, TimeUnit.MINUTES.toMillis(CACHE_NULL_TTL));
+        }
+    }
+
     private boolean tryLock(String key) {
         Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
         return BooleanUtil.isTrue(flag);
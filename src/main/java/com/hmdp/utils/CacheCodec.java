@@ -0,0 +1,32 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存值的编解码器，可以按key前缀切换
+ */
+public interface CacheCodec {
+
+    /**
+     * 编码普通缓存
+     */
+    byte[] encode(Object value);
+
+    /**
+     * 解码普通缓存
+     */
+    <T> T decode(byte[] bytes, Class<T> type);
+
+    /**
+     * 编码逻辑过期缓存
+     */
+    byte[] encodeLogical(RedisData redisData);
+
+    /**
+     * 解码逻辑过期缓存，返回的RedisData中data已经是type类型
+     */
+    <T> RedisData decodeLogical(byte[] bytes, Class<T> type);
+
+    /**
+     * 给定的字节是否就是本编码器为type类型写出的格式，不是的话读取时需要迁移
+     */
+    boolean isNativeFormat(byte[] bytes, Class<?> type);
+}
@@ -0,0 +1,323 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 跨节点的L1失效总线
+ * 1.本节点的失效立即生效，同时把key/前缀攒起来，每个刷新周期合并成一条消息广播给其他节点
+ * 2.每条消息带上涉及前缀递增后的全局版本号，节点记录自己已应用的连续版本号
+ * 3.定时对比全局版本号，发现有版本号一直没收到（消息丢了），就整体清空该前缀的L1兜底
+ * 4.布隆过滤器的新增id同样攒批广播，版本号记在"bloom:" + 前缀下，丢失时通知过滤器整体重建
+ */
+@Slf4j
+public class CacheInvalidationBus {
+
+    private static final long FLUSH_INTERVAL_MILLIS = 20;
+    private static final int MAX_BATCH_SIZE = 500;
+    private static final long RECONCILE_INTERVAL_MILLIS = 5000;
+    private static final String BLOOM_VERSION_PREFIX = "bloom:";
+
+    private final String nodeId = UUID.randomUUID().toString(true);
+
+    private final InvalidationTransport transport;
+
+    private final LocalCacheManager localCacheManager;
+
+    private final Set<String> pendingKeys = ConcurrentHashMap.newKeySet();
+
+    private final Set<String> pendingPrefixes = ConcurrentHashMap.newKeySet();
+
+    private final Map<String, VersionWatermark> watermarks = new ConcurrentHashMap<>();
+
+    private final Map<String, Set<Long>> pendingBloomIds = new ConcurrentHashMap<>();
+
+    private final Set<String> bloomPrefixes = ConcurrentHashMap.newKeySet();
+
+    private volatile BloomSync bloomSync;
+
+    /**
+     * 接收其他节点的布隆过滤器新增id
+     */
+    public interface BloomSync {
+        /**
+         * 其他节点新增了这些id，元素是Number
+         */
+        void onAdded(String keyPrefix, List<?> ids);
+
+        /**
+         * 有广播丢失，本地过滤器可能漏掉了其他节点新增的id
+         */
+        void onLost(String keyPrefix);
+    }
+
+    private ScheduledExecutorService scheduler;
+
+    public CacheInvalidationBus(InvalidationTransport transport, LocalCacheManager localCacheManager) {
+        this.transport = transport;
+        this.localCacheManager = localCacheManager;
+    }
+
+    @PostConstruct
+    public void start() {
+        transport.subscribe(this::onMessage);
+        // 各业务在自己初始化时才注册L1前缀，多半晚于这里，注册时再读起点；先挂回调再读已有前缀，中间注册的不会漏
+        localCacheManager.onRegister(prefix -> baseline(Collections.singletonList(prefix)));
+        baseline(localCacheManager.prefixes());
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cache-invalidation-bus");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::safeFlush,
+                FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::safeReconcile,
+                RECONCILE_INTERVAL_MILLIS, RECONCILE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        safeFlush();
+    }
+
+    /**
+     * 失效单个key：本节点立即删除，其他节点在下个刷新周期收到广播
+     */
+    public void evictKey(String key) {
+        localCacheManager.evict(key);
+        pendingKeys.add(key);
+        if (pendingKeys.size() >= MAX_BATCH_SIZE && scheduler != null) {
+            scheduler.execute(this::safeFlush);
+        }
+    }
+
+    /**
+     * 失效整个前缀
+     */
+    public void evictPrefix(String keyPrefix) {
+        localCacheManager.evictPrefix(keyPrefix);
+        pendingPrefixes.add(keyPrefix);
+    }
+
+    /**
+     * 注册布隆过滤器同步，以当前全局版本号作为这些前缀的起点
+     */
+    public void registerBloom(Collection<String> keyPrefixes, BloomSync sync) {
+        this.bloomSync = sync;
+        List<String> versionPrefixes = new ArrayList<>(keyPrefixes.size());
+        for (String keyPrefix : keyPrefixes) {
+            bloomPrefixes.add(keyPrefix);
+            versionPrefixes.add(BLOOM_VERSION_PREFIX + keyPrefix);
+        }
+        baseline(versionPrefixes);
+    }
+
+    /**
+     * 以当前全局版本号作为这些前缀的起点，失败时等对账
+     */
+    private void baseline(Collection<String> prefixes) {
+        if (prefixes.isEmpty()) {
+            return;
+        }
+        try {
+            transport.currentVersions(prefixes).forEach((prefix, version) -> watermark(prefix).baseline(version));
+        } catch (Exception e) {
+            log.warn("读取前缀{}的失效版本号失败，等待下次对账：{}", prefixes, e.getMessage());
+        }
+    }
+
+    /**
+     * 广播新增的id，和失效一起在下个刷新周期发出
+     */
+    public void broadcastBloomAdd(String keyPrefix, long id) {
+        pendingBloomIds.computeIfAbsent(keyPrefix, p -> ConcurrentHashMap.newKeySet()).add(id);
+    }
+
+    /**
+     * 把攒下的失效合并成消息发出去
+     */
+    public synchronized void flush() {
+        List<String> keys = drain(pendingKeys);
+        List<String> prefixes = drain(pendingPrefixes);
+        Map<String, List<Long>> bloomIds = new HashMap<>();
+        pendingBloomIds.forEach((keyPrefix, ids) -> {
+            List<Long> drained = drain(ids);
+            if (!drained.isEmpty()) {
+                bloomIds.put(keyPrefix, drained);
+            }
+        });
+        if (keys.isEmpty() && prefixes.isEmpty() && bloomIds.isEmpty()) {
+            return;
+        }
+        for (int from = 0; from < Math.max(keys.size(), 1); from += MAX_BATCH_SIZE) {
+            CacheInvalidationMessage message = new CacheInvalidationMessage();
+            message.setNodeId(nodeId);
+            message.setKeys(new ArrayList<>(keys.subList(from, Math.min(from + MAX_BATCH_SIZE, keys.size()))));
+            if (from == 0) {
+                message.setPrefixes(prefixes);
+                message.setBloomIds(bloomIds);
+            }
+            // 每个涉及的前缀版本号+1，自己发出的版本号直接记为已应用
+            Set<String> touched = new HashSet<>(message.getPrefixes());
+            for (String keyPrefix : message.getBloomIds().keySet()) {
+                touched.add(BLOOM_VERSION_PREFIX + keyPrefix);
+            }
+            for (String key : message.getKeys()) {
+                String prefix = localCacheManager.matchPrefix(key);
+                if (prefix != null) {
+                    touched.add(prefix);
+                }
+            }
+            for (String prefix : touched) {
+                long version = transport.nextVersion(prefix);
+                message.getVersions().put(prefix, version);
+                watermark(prefix).ack(version);
+            }
+            transport.publish(message);
+        }
+    }
+
+    /**
+     * 对账：上次对账时已经存在的版本号到现在还没收到，认为消息丢失，整体清空该前缀
+     */
+    public void reconcile() {
+        Set<String> prefixes = new HashSet<>(localCacheManager.prefixes());
+        for (String keyPrefix : bloomPrefixes) {
+            prefixes.add(BLOOM_VERSION_PREFIX + keyPrefix);
+        }
+        if (prefixes.isEmpty()) {
+            return;
+        }
+        Map<String, Long> versions = transport.currentVersions(prefixes);
+        versions.forEach((prefix, version) -> {
+            if (!watermark(prefix).reconcile(version)) {
+                return;
+            }
+            String bloomPrefix = prefix.startsWith(BLOOM_VERSION_PREFIX)
+                    ? prefix.substring(BLOOM_VERSION_PREFIX.length()) : null;
+            if (bloomPrefix != null && bloomPrefixes.contains(bloomPrefix)) {
+                log.warn("布隆过滤器同步消息丢失，重建前缀{}的过滤器", bloomPrefix);
+                bloomSync.onLost(bloomPrefix);
+            } else {
+                log.warn("L1失效消息丢失，清空前缀{}的本地缓存", prefix);
+                localCacheManager.evictPrefix(prefix);
+            }
+        });
+    }
+
+    private void onMessage(CacheInvalidationMessage message) {
+        if (nodeId.equals(message.getNodeId())) {
+            return;
+        }
+        for (String key : message.getKeys()) {
+            localCacheManager.evict(key);
+        }
+        for (String prefix : message.getPrefixes()) {
+            localCacheManager.evictPrefix(prefix);
+        }
+        BloomSync sync = bloomSync;
+        if (sync != null) {
+            message.getBloomIds().forEach(sync::onAdded);
+        }
+        message.getVersions().forEach((prefix, version) -> watermark(prefix).ack(version));
+    }
+
+    private void safeFlush() {
+        try {
+            flush();
+        } catch (Exception e) {
+            log.error("广播缓存失效消息异常", e);
+        }
+    }
+
+    private void safeReconcile() {
+        try {
+            reconcile();
+        } catch (Exception e) {
+            log.error("L1失效版本对账异常", e);
+        }
+    }
+
+    private VersionWatermark watermark(String prefix) {
+        return watermarks.computeIfAbsent(prefix, p -> new VersionWatermark());
+    }
+
+    private static <T> List<T> drain(Set<T> pending) {
+        List<T> drained = new ArrayList<>();
+        Iterator<T> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            drained.add(iterator.next());
+            iterator.remove();
+        }
+        return drained;
+    }
+
+    /**
+     * 单个前缀已应用的版本号，applied之前的版本全部收到过，乱序到达的先放在outOfOrder里
+     */
+    private static class VersionWatermark {
+        private long applied;
+        private final TreeSet<Long> outOfOrder = new TreeSet<>();
+        /**
+         * 上次对账时看到的全局版本号，下次对账时仍未追上就判定丢失
+         */
+        private long suspected = -1;
+
+        /**
+         * 起点之前的版本号不再等待；只往前推，已经收到的更新版本不受影响
+         */
+        synchronized void baseline(long version) {
+            if (version <= applied) {
+                return;
+            }
+            applied = version;
+            outOfOrder.headSet(applied, true).clear();
+            advance();
+        }
+
+        synchronized void ack(long version) {
+            if (version <= applied) {
+                return;
+            }
+            outOfOrder.add(version);
+            advance();
+        }
+
+        synchronized boolean reconcile(long globalVersion) {
+            boolean lost = suspected > applied;
+            if (lost) {
+                applied = suspected;
+                outOfOrder.headSet(applied, true).clear();
+                advance();
+            }
+            suspected = globalVersion > applied ? globalVersion : -1;
+            return lost;
+        }
+
+        private void advance() {
+            while (outOfOrder.remove(applied + 1)) {
+                applied++;
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.hmdp.utils;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一批L1失效消息，同一刷新周期内的失效合并成一条广播
+ * 布隆过滤器的新增id也搭这条通道同步到其他节点。
+ */
+@Data
+public class CacheInvalidationMessage {
+    /**
+     * 发送方节点id，接收方据此忽略自己发出的消息
+     */
+    private String nodeId;
+    /**
+     * 需要失效的完整key
+     */
+    private List<String> keys = new ArrayList<>();
+    /**
+     * 需要整体失效的key前缀
+     */
+    private List<String> prefixes = new ArrayList<>();
+    /**
+     * 本批涉及的前缀及其递增后的版本号，接收方据此发现丢失的消息
+     */
+    private Map<String, Long> versions = new HashMap<>();
+    /**
+     * 新增数据的id，按布隆过滤器对应的key前缀分组，接收方加入本地的过滤器
+     */
+    private Map<String, List<Long>> bloomIds = new HashMap<>();
+}
@@ -0,0 +1,202 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_USER_KEY;
+
+/**
+ * 基于数据变更的缓存失效管道，不再依赖每个写数据库的地方记得删缓存
+ * 1.定时从ChangeSource拉取一批变更，同一行的多次变更合并成一次
+ * 2.按行id分到固定的单线程分片执行，同一行的失效严格按顺序，不同行之间并行
+ * 3.整批处理完才ack，中途失败下次重新拉取，至少处理一次
+ * 新增的行同时加入布隆过滤器，并删除之前可能缓存的空值。
+ * 注册了刷新方式的表，热点key在失效后立即按最新数据重写，其余key等下一次读取回源。
+ */
+@Slf4j
+public class CacheInvalidationPipeline {
+
+    private final ChangeSource changeSource;
+
+    private final CacheClient cacheClient;
+
+    private final IdBloomFilters idBloomFilters;
+
+    private final HotKeyDetector hotKeyDetector;
+
+    private final int batchSize;
+
+    private final long pollIntervalMillis;
+
+    private final ExecutorService[] stripes;
+
+    /**
+     * 表名到缓存key前缀
+     */
+    private final Map<String, String> keyPrefixes = new LinkedHashMap<>();
+
+    /**
+     * 表名到热点key的刷新方式
+     */
+    private final Map<String, Refresher> refreshers = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService poller;
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder merged = new LongAdder();
+    private final LongAdder invalidated = new LongAdder();
+    private final LongAdder refreshed = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+
+    public CacheInvalidationPipeline(ChangeSource changeSource, CacheClient cacheClient, IdBloomFilters idBloomFilters,
+                                     HotKeyDetector hotKeyDetector, int batchSize, long pollIntervalMillis,
+                                     int stripeCount) {
+        this.changeSource = changeSource;
+        this.cacheClient = cacheClient;
+        this.idBloomFilters = idBloomFilters;
+        this.hotKeyDetector = hotKeyDetector;
+        this.batchSize = batchSize;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.stripes = new ExecutorService[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            int index = i;
+            stripes[i] = Executors.newSingleThreadExecutor(r -> daemon(r, "cache-cdc-" + index));
+        }
+        keyPrefixes.put("tb_shop", CACHE_SHOP_KEY);
+        keyPrefixes.put("tb_blog", CACHE_BLOG_KEY);
+        keyPrefixes.put("tb_user", CACHE_USER_KEY);
+    }
+
+    /**
+     * 为某张表的热点key注册刷新方式
+     * @param table 表名
+     * @param loader 按行id查出要缓存的值，行不存在返回null
+     * @param time 缓存时间
+     * @param unit 时间单位
+     */
+    public void registerRefresher(String table, Function<Long, ?> loader, long time, TimeUnit unit) {
+        refreshers.put(table, new Refresher(loader, time, unit));
+    }
+
+    @PostConstruct
+    public void start() {
+        poller = Executors.newSingleThreadScheduledExecutor(r -> daemon(r, "cache-cdc-poller"));
+        poller.scheduleWithFixedDelay(this::safeProcess, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (poller != null) {
+            poller.shutdown();
+        }
+        for (ExecutorService stripe : stripes) {
+            stripe.shutdown();
+        }
+    }
+
+    /**
+     * 处理一批变更，一批拉满时立即拉下一批
+     * @return 本次处理的变更数
+     */
+    public int process() {
+        int total = 0;
+        while (true) {
+            List<ChangeEvent> events = changeSource.poll(batchSize);
+            if (events.isEmpty()) {
+                return total;
+            }
+            received.add(events.size());
+            // 同一行只保留最后一次变更，删除之后又新增的情况按新增处理
+            Map<String, ChangeEvent> latest = new LinkedHashMap<>();
+            for (ChangeEvent event : events) {
+                latest.put(event.getTable() + ":" + event.getId(), event);
+            }
+            merged.add(events.size() - latest.size());
+            List<CompletableFuture<Void>> futures = new ArrayList<>(latest.size());
+            for (ChangeEvent event : latest.values()) {
+                ExecutorService stripe = stripes[(int) Math.floorMod(event.getId(), (long) stripes.length)];
+                futures.add(CompletableFuture.runAsync(() -> apply(event), stripe));
+            }
+            // 有一条失败时join抛出异常，整批都不ack，下次重新拉取
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+            changeSource.ack(events);
+            total += events.size();
+            if (events.size() < batchSize) {
+                return total;
+            }
+        }
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("received", received.sum());
+        stats.put("merged", merged.sum());
+        stats.put("invalidated", invalidated.sum());
+        stats.put("refreshed", refreshed.sum());
+        stats.put("failedBatches", failedBatches.sum());
+        return stats;
+    }
+
+    private void apply(ChangeEvent event) {
+        String keyPrefix = keyPrefixes.get(event.getTable());
+        if (keyPrefix == null) {
+            return;
+        }
+        if (ChangeEvent.INSERT.equals(event.getOp())) {
+            idBloomFilters.add(keyPrefix, event.getId());
+        }
+        String key = keyPrefix + event.getId();
+        Refresher refresher = refreshers.get(event.getTable());
+        if (refresher != null && !ChangeEvent.DELETE.equals(event.getOp()) && hotKeyDetector.isHot(key)) {
+            cacheClient.invalidateAndRefresh(key, () -> refresher.loader.apply(event.getId()),
+                    refresher.time, refresher.unit);
+            refreshed.increment();
+        } else {
+            cacheClient.invalidate(key);
+        }
+        invalidated.increment();
+    }
+
+    private void safeProcess() {
+        try {
+            process();
+        } catch (Exception e) {
+            failedBatches.increment();
+            log.error("处理数据变更失效缓存异常，下次重新拉取", e);
+        }
+    }
+
+    private static class Refresher {
+        private final Function<Long, ?> loader;
+        private final long time;
+        private final TimeUnit unit;
+
+        private Refresher(Function<Long, ?> loader, long time, TimeUnit unit) {
+            this.loader = loader;
+            this.time = time;
+            this.unit = unit;
+        }
+    }
+
+    private static Thread daemon(Runnable r, String name) {
+        Thread thread = new Thread(r, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,168 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存重建线程池
+ * 1.队列有界，排满直接拒绝，调用方继续返回旧数据，不会把任务无限堆在内存里
+ * 2.同一个key排队中或执行中只保留一个重建任务，重复提交直接丢弃
+ * 3.热点key走优先通道，先于普通任务执行
+ * 4.任务异常只记录日志和失败次数，不会抛到线程池里
+ */
+@Slf4j
+public class CacheRebuildExecutor {
+
+    private final ThreadPoolExecutor executor;
+
+    private final int queueCapacity;
+
+    private final AtomicInteger queued = new AtomicInteger();
+
+    private final AtomicInteger hotQueued = new AtomicInteger();
+
+    private final Set<String> pendingKeys = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder succeeded = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder totalWaitMillis = new LongAdder();
+    private final LongAdder totalRunMillis = new LongAdder();
+    private final AtomicLong maxRunMillis = new AtomicLong();
+
+    /**
+     * @param threads 重建线程数
+     * @param queueCapacity 排队任务上限，热点和普通任务共用
+     */
+    public CacheRebuildExecutor(int threads, int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "cache-rebuild-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 提交普通重建任务
+     * @return 是否被接受，重复或者队列已满返回false
+     */
+    public boolean submit(String key, Runnable task) {
+        return submit(key, task, false);
+    }
+
+    /**
+     * 提交重建任务
+     * @param key 去重的维度，一般就是缓存key
+     * @param task 重建逻辑
+     * @param hot 是否走优先通道
+     * @return 是否被接受，重复或者队列已满返回false，调用方需要自行释放已经拿到的锁
+     */
+    public boolean submit(String key, Runnable task, boolean hot) {
+        if (!pendingKeys.add(key)) {
+            deduplicated.increment();
+            return false;
+        }
+        if (queued.incrementAndGet() > queueCapacity) {
+            queued.decrementAndGet();
+            pendingKeys.remove(key);
+            rejected.increment();
+            log.warn("缓存重建队列已满，放弃重建：{}", key);
+            return false;
+        }
+        if (hot) {
+            hotQueued.incrementAndGet();
+        }
+        submitted.increment();
+        executor.execute(new RebuildTask(key, task, hot, sequence.incrementAndGet()));
+        return true;
+    }
+
+    public Map<String, Object> stats() {
+        long finished = succeeded.sum() + failed.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queueDepth", queued.get());
+        stats.put("hotQueueDepth", hotQueued.get());
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("active", executor.getActiveCount());
+        stats.put("submitted", submitted.sum());
+        stats.put("deduplicated", deduplicated.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("succeeded", succeeded.sum());
+        stats.put("failed", failed.sum());
+        stats.put("avgWaitMillis", finished == 0 ? 0 : totalWaitMillis.sum() / finished);
+        stats.put("avgRunMillis", finished == 0 ? 0 : totalRunMillis.sum() / finished);
+        stats.put("maxRunMillis", maxRunMillis.get());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * 热点任务排在前面，同一通道内按提交顺序执行
+     */
+    private class RebuildTask implements Runnable, Comparable<RebuildTask> {
+        private final String key;
+        private final Runnable task;
+        private final boolean hot;
+        private final long seq;
+        private final long submitTime = System.currentTimeMillis();
+
+        private RebuildTask(String key, Runnable task, boolean hot, long seq) {
+            this.key = key;
+            this.task = task;
+            this.hot = hot;
+            this.seq = seq;
+        }
+
+        @Override
+        public void run() {
+            queued.decrementAndGet();
+            if (hot) {
+                hotQueued.decrementAndGet();
+            }
+            long begin = System.currentTimeMillis();
+            totalWaitMillis.add(begin - submitTime);
+            try {
+                task.run();
+                succeeded.increment();
+            } catch (Exception e) {
+                failed.increment();
+                log.error("缓存重建失败：{}", key, e);
+            } finally {
+                long cost = System.currentTimeMillis() - begin;
+                totalRunMillis.add(cost);
+                maxRunMillis.accumulateAndGet(cost, Math::max);
+                pendingKeys.remove(key);
+            }
+        }
+
+        @Override
+        public int compareTo(RebuildTask other) {
+            if (hot != other.hot) {
+                return hot ? -1 : 1;
+            }
+            return Long.compare(seq, other.seq);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.hmdp.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 一行数据的变更，由ChangeSource产生
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChangeEvent {
+
+    public static final String INSERT = "INSERT";
+    public static final String UPDATE = "UPDATE";
+    public static final String DELETE = "DELETE";
+
+    /**
+     * 变更在来源里的位置，outbox是自增id，binlog可以是文件名+偏移量换算出的序号
+     */
+    private long position;
+
+    private String table;
+
+    private Long id;
+
+    private String op;
+}
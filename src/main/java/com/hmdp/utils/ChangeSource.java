@@ -0,0 +1,21 @@
+package com.hmdp.utils;
+
+import java.util.List;
+
+/**
+ * 数据变更来源，可以是outbox表轮询，也可以是MySQL binlog
+ * 投递语义是至少一次：ack之前的变更在重启后会再次投递，处理方需要保证幂等
+ */
+public interface ChangeSource {
+
+    /**
+     * 拉取一批未确认的变更，按发生顺序返回；没有ack的变更下次仍会拉到
+     * @param maxSize 最多拉取的条数
+     */
+    List<ChangeEvent> poll(int maxSize);
+
+    /**
+     * 确认poll返回的这一批变更已经全部处理完，只确认这些变更本身，不包括位置更靠前但还没拉到的
+     */
+    void ack(List<ChangeEvent> events);
+}
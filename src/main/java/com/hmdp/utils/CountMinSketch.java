@@ -0,0 +1,81 @@
+package com.hmdp.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count-Min Sketch，用固定内存估算每个key的出现次数
+ * depth行、每行width个计数器，key在每行各命中一个计数器，估计值取各行最小值，只会高估不会低估。
+ */
+public class CountMinSketch {
+
+    private final int depth;
+    private final int width;
+    private final AtomicLongArray counters;
+
+    /**
+     * @param depth 哈希函数个数，越多高估的概率越低
+     * @param width 每行计数器个数，会向上取整到2的幂
+     */
+    public CountMinSketch(int depth, int width) {
+        this.depth = depth;
+        this.width = Integer.highestOneBit(Math.max(width - 1, 1)) << 1;
+        this.counters = new AtomicLongArray(depth * this.width);
+    }
+
+    /**
+     * 计数加1
+     * @return 加完之后的估计值
+     */
+    public long add(String key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            int index = i * width + ((h1 + i * h2) & (width - 1));
+            min = Math.min(min, counters.incrementAndGet(index));
+        }
+        return min;
+    }
+
+    public long estimate(String key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < depth; i++) {
+            min = Math.min(min, counters.get(i * width + ((h1 + i * h2) & (width - 1))));
+        }
+        return min;
+    }
+
+    /**
+     * 所有计数减半，让过去的访问逐渐失去权重
+     */
+    public void halve() {
+        for (int i = 0; i < counters.length(); i++) {
+            long value;
+            do {
+                value = counters.get(i);
+            } while (value != 0 && !counters.compareAndSet(i, value, value >> 1));
+        }
+    }
+
+    /**
+     * FNV-1a后再用murmur3的finalizer打散，高低32位当作两个独立的哈希
+     */
+    private static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,62 @@
+package com.hmdp.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存过期时间分布，按固定宽度的时间槽统计未来每个槽内会过期的key数量
+ * 写缓存时记录一次，用来观察过期时间是否被打散，某个槽特别高说明会有一批key同时过期。
+ * 只统计写入，key被提前删除或覆盖不会扣减，看的是分布形状而不是精确数量。
+ */
+public class ExpiryHistogram {
+
+    private final long bucketMillis;
+
+    private final ConcurrentSkipListMap<Long, LongAdder> buckets = new ConcurrentSkipListMap<>();
+
+    public ExpiryHistogram(long bucketMillis) {
+        this.bucketMillis = bucketMillis;
+    }
+
+    /**
+     * 记录一个在expireAt时刻过期的key
+     * @param expireAt 过期时间戳，毫秒
+     */
+    public void record(long expireAt) {
+        pruneExpired();
+        buckets.computeIfAbsent(expireAt / bucketMillis, slot -> new LongAdder()).increment();
+    }
+
+    /**
+     * 未来各时间槽的过期数量，以及峰值和平均值，峰均比越接近1过期越平滑
+     */
+    public Map<String, Object> snapshot() {
+        pruneExpired();
+        Map<String, Long> counts = new LinkedHashMap<>();
+        long total = 0;
+        long peak = 0;
+        for (Map.Entry<Long, LongAdder> entry : buckets.entrySet()) {
+            long count = entry.getValue().sum();
+            counts.put(String.valueOf(entry.getKey() * bucketMillis), count);
+            total += count;
+            peak = Math.max(peak, count);
+        }
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("bucketMillis", bucketMillis);
+        snapshot.put("total", total);
+        snapshot.put("peak", peak);
+        snapshot.put("peakToMean", counts.isEmpty() ? 0 : (double) peak * counts.size() / total);
+        snapshot.put("buckets", counts);
+        return snapshot;
+    }
+
+    private void pruneExpired() {
+        ConcurrentNavigableMap<Long, LongAdder> expired = buckets.headMap(System.currentTimeMillis() / bucketMillis);
+        if (!expired.isEmpty()) {
+            expired.clear();
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.exceptions.ExceptionUtil;
+import cn.hutool.json.JSONUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.FEED_FANOUT_DEAD_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_FANOUT_PROGRESS_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_FANOUT_STREAM_KEY;
+
+/**
+ * 关注流后台推送
+ * 1.发布笔记只往Redis Stream里XADD一条消息就返回
+ * 2.后台线程以消费者组读取消息，交给FeedManager分页推送，每推完一页把粉丝位置记到feed:fanout:progress
+ * 3.推送完成后XACK并删除进度；启动后先处理本消费者已读取未确认的消息，从记录的粉丝位置继续
+ * 4.同一条消息投递超过maxDeliveries次仍失败，连同进度移到feed:fanout:dead后XACK，不再阻塞后面的消息
+ * 5.定期XCLAIM其他消费者空闲超过claimIdle的未确认消息，消费者所在节点下线不再回来时消息也能被接手
+ * 消费者名称默认取"进程号@主机名"，同一台机器上的多个进程也不会重名；重启后的旧消息靠第5步接手。
+ * Stream按trimInterval定期近似裁剪，不在每条消息后精确裁剪。
+ */
+@Slf4j
+@Component
+public class FeedFanoutWorker {
+
+    private static final String GROUP = "feed-fanout";
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final FeedManager feedManager;
+
+    private final String consumer;
+
+    private final long streamMaxLen;
+
+    private final long maxDeliveries;
+
+    private final long trimInterval;
+
+    private final long claimIdle;
+
+    private long lastTrim;
+
+    private long lastClaim;
+
+    private volatile boolean running = true;
+
+    private Thread thread;
+
+    /**
+     * @param consumer 消费者名称，为空时取"进程号@主机名"，手动配置时各进程必须唯一
+     * @param streamMaxLen Stream保留的消息数，超过后裁掉最旧的，需要远大于可能积压的消息数
+     * @param maxDeliveries 一条消息最多投递几次，超过后移到死信列表
+     * @param trimInterval 近似裁剪Stream的间隔，毫秒
+     * @param claimIdle 其他消费者的未确认消息空闲多久后接手，毫秒，要大于推送一条消息的最长耗时，同时也是检查的间隔
+     */
+    public FeedFanoutWorker(StringRedisTemplate stringRedisTemplate, FeedManager feedManager,
+                            @Value("${hmdp.feed.fanout.consumer:}") String consumer,
+                            @Value("${hmdp.feed.fanout.stream-max-len:10000}") long streamMaxLen,
+                            @Value("${hmdp.feed.fanout.max-deliveries:5}") long maxDeliveries,
+                            @Value("${hmdp.feed.fanout.trim-interval:60000}") long trimInterval,
+                            @Value("${hmdp.feed.fanout.claim-idle:300000}") long claimIdle) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.feedManager = feedManager;
+        this.consumer = consumer.isEmpty() ? ManagementFactory.getRuntimeMXBean().getName() : consumer;
+        this.streamMaxLen = streamMaxLen;
+        this.maxDeliveries = maxDeliveries;
+        this.trimInterval = trimInterval;
+        this.claimIdle = claimIdle;
+    }
+
+    /**
+     * 提交一次推送
+     */
+    public void submit(Long authorId, Long blogId, long timestamp) {
+        Map<String, String> body = new HashMap<>(4);
+        body.put("authorId", authorId.toString());
+        body.put("blogId", blogId.toString());
+        body.put("timestamp", String.valueOf(timestamp));
+        stringRedisTemplate.opsForStream().add(StreamRecords.newRecord().in(FEED_FANOUT_STREAM_KEY).ofMap(body));
+    }
+
+    @PostConstruct
+    public void start() {
+        thread = new Thread(this::run, "feed-fanout");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        thread.interrupt();
+    }
+
+    private void run() {
+        boolean groupReady = false;
+        // 先处理已读取未确认的消息，处理完再读新消息
+        ReadOffset offset = ReadOffset.from("0");
+        boolean recovering = true;
+        while (running) {
+            try {
+                if (!groupReady) {
+                    createGroup();
+                    groupReady = true;
+                }
+                trimIfDue();
+                if (claimIfDue()) {
+                    // 接手的消息进了本消费者的未确认列表，回头重读
+                    offset = ReadOffset.from("0");
+                    recovering = true;
+                }
+                List<MapRecord<String, Object, Object>> records = stringRedisTemplate.opsForStream().read(
+                        Consumer.from(GROUP, consumer),
+                        StreamReadOptions.empty().count(10).block(Duration.ofSeconds(2)),
+                        offsets(offset));
+                if (records == null || records.isEmpty()) {
+                    // 未确认的消息处理完了，开始读新消息
+                    offset = ReadOffset.lastConsumed();
+                    recovering = false;
+                    continue;
+                }
+                for (MapRecord<String, Object, Object> record : records) {
+                    // 新读到的消息是第一次投递，只有重读未确认列表时才需要查投递次数
+                    if (recovering && deliveryCount(record) > maxDeliveries) {
+                        deadLetter(record);
+                        continue;
+                    }
+                    handle(record);
+                }
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+                // 出错的消息没有确认，回到未确认列表重新处理
+                log.error("关注流推送失败", e);
+                offset = ReadOffset.from("0");
+                recovering = true;
+                sleep();
+            }
+        }
+    }
+
+    private void handle(MapRecord<String, Object, Object> record) {
+        Map<Object, Object> body = record.getValue();
+        String recordId = record.getId().getValue();
+        if (body == null || body.isEmpty()) {
+            // 未确认期间消息已经被裁剪掉，内容丢失，只能放弃
+            log.warn("关注流推送消息{}已被裁剪，跳过", recordId);
+            ack(recordId);
+            return;
+        }
+        Object saved = stringRedisTemplate.opsForHash().get(FEED_FANOUT_PROGRESS_KEY, recordId);
+        long afterFollowId = saved == null ? 0 : Long.parseLong(saved.toString());
+        feedManager.deliver(
+                Long.valueOf(body.get("authorId").toString()),
+                Long.valueOf(body.get("blogId").toString()),
+                Long.parseLong(body.get("timestamp").toString()),
+                afterFollowId,
+                lastId -> stringRedisTemplate.opsForHash().put(FEED_FANOUT_PROGRESS_KEY, recordId, String.valueOf(lastId)));
+        ack(recordId);
+    }
+
+    private void ack(String recordId) {
+        stringRedisTemplate.opsForStream().acknowledge(FEED_FANOUT_STREAM_KEY, GROUP, recordId);
+        stringRedisTemplate.opsForHash().delete(FEED_FANOUT_PROGRESS_KEY, recordId);
+    }
+
+    /**
+     * XPENDING查这条消息被投递给消费者的次数，XREADGROUP重读未确认消息时会累加
+     */
+    private long deliveryCount(MapRecord<String, Object, Object> record) {
+        PendingMessages pending = stringRedisTemplate.opsForStream().pending(FEED_FANOUT_STREAM_KEY,
+                Consumer.from(GROUP, consumer), Range.closed(record.getId().getValue(), record.getId().getValue()), 1);
+        return pending == null || pending.isEmpty() ? 0 : pending.get(0).getTotalDeliveryCount();
+    }
+
+    /**
+     * 反复失败的消息连同已推送到的粉丝位置写进死信列表，排查后可以手动重新提交，然后XACK
+     */
+    private void deadLetter(MapRecord<String, Object, Object> record) {
+        String recordId = record.getId().getValue();
+        Map<String, Object> dead = new HashMap<>(4);
+        dead.put("id", recordId);
+        dead.put("body", record.getValue());
+        dead.put("progress", stringRedisTemplate.opsForHash().get(FEED_FANOUT_PROGRESS_KEY, recordId));
+        stringRedisTemplate.opsForList().leftPush(FEED_FANOUT_DEAD_KEY, JSONUtil.toJsonStr(dead));
+        ack(recordId);
+        log.error("关注流推送消息{}投递超过{}次仍失败，已移到死信列表", recordId, maxDeliveries);
+    }
+
+    /**
+     * XPENDING列出整个组的未确认消息，把其他消费者空闲超过claimIdle的XCLAIM到本消费者
+     * 用JUSTID不增加投递次数，重读时XREADGROUP会计数，反复失败的消息照样进死信
+     * @return 是否接手了消息
+     */
+    private boolean claimIfDue() {
+        long now = System.currentTimeMillis();
+        if (now - lastClaim < claimIdle) {
+            return false;
+        }
+        lastClaim = now;
+        PendingMessages pending = stringRedisTemplate.opsForStream().pending(FEED_FANOUT_STREAM_KEY, GROUP,
+                Range.unbounded(), 100);
+        if (pending == null || pending.isEmpty()) {
+            return false;
+        }
+        List<String> idle = new ArrayList<>();
+        for (PendingMessage message : pending) {
+            if (!consumer.equals(message.getConsumerName())
+                    && message.getElapsedTimeSinceLastDelivery().toMillis() >= claimIdle) {
+                idle.add(message.getIdAsString());
+            }
+        }
+        if (idle.isEmpty()) {
+            return false;
+        }
+        List<?> claimed = stringRedisTemplate.execute((RedisCallback<List<?>>) connection ->
+                ((StringRedisConnection) connection).xClaimJustId(FEED_FANOUT_STREAM_KEY, GROUP, consumer,
+                        RedisStreamCommands.XClaimOptions.minIdleMs(claimIdle).ids(idle.toArray(new String[0]))));
+        if (claimed == null || claimed.isEmpty()) {
+            return false;
+        }
+        log.info("关注流推送消费者{}接手了{}条空闲消息", consumer, claimed.size());
+        return true;
+    }
+
+    /**
+     * read的参数是泛型可变参数，直接传会产生泛型数组的unchecked警告，这里显式建数组
+     */
+    @SuppressWarnings("unchecked")
+    private static StreamOffset<String>[] offsets(ReadOffset offset) {
+        return new StreamOffset[]{StreamOffset.create(FEED_FANOUT_STREAM_KEY, offset)};
+    }
+
+    /**
+     * XTRIM MAXLEN ~ n，按整个宏节点裁剪，开销远小于精确裁剪；
+     * 裁剪不看未确认列表，streamMaxLen要远大于积压量，被裁掉的未确认消息在handle里跳过
+     */
+    private void trimIfDue() {
+        long now = System.currentTimeMillis();
+        if (now - lastTrim < trimInterval) {
+            return;
+        }
+        lastTrim = now;
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.execute("XTRIM",
+                FEED_FANOUT_STREAM_KEY.getBytes(StandardCharsets.UTF_8),
+                "MAXLEN".getBytes(StandardCharsets.UTF_8),
+                "~".getBytes(StandardCharsets.UTF_8),
+                String.valueOf(streamMaxLen).getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * XGROUP CREATE ... MKSTREAM，Stream不存在时一起创建，组已存在时忽略
+     */
+    private void createGroup() {
+        try {
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.execute("XGROUP",
+                    "CREATE".getBytes(StandardCharsets.UTF_8),
+                    FEED_FANOUT_STREAM_KEY.getBytes(StandardCharsets.UTF_8),
+                    GROUP.getBytes(StandardCharsets.UTF_8),
+                    "0".getBytes(StandardCharsets.UTF_8),
+                    "MKSTREAM".getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            if (!String.valueOf(ExceptionUtil.getRootCauseMessage(e)).contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    private void sleep() {
+        try {
+            Thread.sleep(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,485 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Follow;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.mapper.FollowMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.LongConsumer;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.FEED_ACTIVE_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_CELEBRITY_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_OUTBOX_KEY;
+import static com.hmdp.utils.RedisConstants.FOLLOWS_KEY;
+import static com.hmdp.utils.RedisConstants.FOLLOWS_LOADED_KEY;
+
+/**
+ * 关注流，推拉结合
+ * 1.每篇笔记都写入作者自己的发件箱feed:outbox:作者id，只保留最近的一部分
+ * 2.粉丝数低于阈值的普通作者推送到活跃粉丝的收件箱feed:粉丝id；粉丝数达到阈值的大V不推送，作者id记入feed:celebrities
+ * 3.读关注流时合并自己的收件箱和关注的大V的发件箱；不活跃的用户收不到推送，重新活跃时先从关注作者的发件箱补齐收件箱
+ * 4.收件箱只保留最近inbox-max-size篇，更早的部分不占Redis，读到收件箱最旧一篇之后的页时从数据库按关注作者查询
+ * 所有来源的分数都是笔记在数据库里的发布时间（毫秒），同一篇笔记在收件箱、发件箱和数据库里分数相同。
+ * 5.长期不读关注流的用户定时删除收件箱并移出feed:active，下次读取时从关注作者发件箱的最近笔记重建
+ * 活跃用户记录在feed:active，分数是最后一次读关注流的时间。
+ * 发件箱写入和推送在FeedFanoutWorker的后台线程里执行，发布笔记的请求不等待。
+ */
+@Slf4j
+@Component
+public class FeedManager {
+
+    /**
+     * 每次最多淘汰ARGV[2]个最后活跃时间不晚于ARGV[1]的用户：删除收件箱并移出活跃集合
+     * 在一个脚本里完成，用户在两步之间重新活跃时不会误删刚重建的收件箱
+     * KEYS: feed:active；ARGV: 截止时间、个数、收件箱key前缀；返回淘汰的用户数和删除的笔记条数
+     */
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> EVICT_SCRIPT = new DefaultRedisScript<>(
+            "local users = redis.call('zrangebyscore', KEYS[1], '-inf', ARGV[1], 'limit', 0, tonumber(ARGV[2])) " +
+            "local entries = 0 " +
+            "for _, uid in ipairs(users) do " +
+            "entries = entries + redis.call('zcard', ARGV[3] .. uid) " +
+            "redis.call('del', ARGV[3] .. uid) " +
+            "redis.call('zrem', KEYS[1], uid) end " +
+            "return {#users, entries}", List.class);
+
+    private static final long[] INBOX_SIZE_BUCKETS = {0, 10, 50, 100, 200, 500, 1000};
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final FollowMapper followMapper;
+
+    private final BlogMapper blogMapper;
+
+    private final int celebrityThreshold;
+
+    private final long activeMillis;
+
+    private final int outboxSize;
+
+    private final int inboxMaxSize;
+
+    private final int fanoutBatchSize;
+
+    private final int rebuildPerAuthor;
+
+    private final long evictMillis;
+
+    private final int evictBatchSize;
+
+    /**
+     * 读关注流时收件箱长度的分布，下标和INBOX_SIZE_BUCKETS对应，最后一个是超过最大值的
+     */
+    private final LongAdder[] inboxSizeCounts = new LongAdder[INBOX_SIZE_BUCKETS.length + 1];
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder rebuilds = new LongAdder();
+    private final LongAdder rebuildEntries = new LongAdder();
+    private final LongAdder totalRebuildMillis = new LongAdder();
+    private final AtomicLong maxRebuildMillis = new AtomicLong();
+    private final LongAdder coldReads = new LongAdder();
+    private final LongAdder totalColdMillis = new LongAdder();
+    private final LongAdder evictedUsers = new LongAdder();
+    private final LongAdder evictedEntries = new LongAdder();
+
+    /**
+     * @param celebrityThreshold 粉丝数达到多少不再推送
+     * @param activeDays 多少天内读过关注流算活跃用户
+     * @param outboxSize 发件箱保留的笔记数
+     * @param inboxMaxSize 收件箱保留的笔记数
+     * @param fanoutBatchSize 推送时每页读取的粉丝数，也是一次pipeline写入的收件箱数
+     * @param rebuildPerAuthor 重建、补齐收件箱时每个作者最多取最近多少篇
+     * @param evictDays 多少天没读过关注流删除收件箱
+     * @param evictBatchSize 淘汰时一次脚本处理的用户数
+     */
+    public FeedManager(StringRedisTemplate stringRedisTemplate, FollowMapper followMapper, BlogMapper blogMapper,
+                       @Value("${hmdp.feed.celebrity-threshold:5000}") int celebrityThreshold,
+                       @Value("${hmdp.feed.active-days:7}") int activeDays,
+                       @Value("${hmdp.feed.outbox-size:1000}") int outboxSize,
+                       @Value("${hmdp.feed.inbox-max-size:200}") int inboxMaxSize,
+                       @Value("${hmdp.feed.fanout.batch-size:500}") int fanoutBatchSize,
+                       @Value("${hmdp.feed.rebuild-per-author:50}") int rebuildPerAuthor,
+                       @Value("${hmdp.feed.evict-days:14}") int evictDays,
+                       @Value("${hmdp.feed.evict-batch-size:200}") int evictBatchSize) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.followMapper = followMapper;
+        this.blogMapper = blogMapper;
+        this.celebrityThreshold = celebrityThreshold;
+        this.activeMillis = TimeUnit.DAYS.toMillis(activeDays);
+        this.outboxSize = outboxSize;
+        this.inboxMaxSize = inboxMaxSize;
+        this.fanoutBatchSize = fanoutBatchSize;
+        this.rebuildPerAuthor = rebuildPerAuthor;
+        this.evictMillis = TimeUnit.DAYS.toMillis(evictDays);
+        this.evictBatchSize = evictBatchSize;
+        for (int i = 0; i < inboxSizeCounts.length; i++) {
+            inboxSizeCounts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * 投递笔记：写入发件箱，普通作者推送给活跃粉丝，由FeedFanoutWorker在后台调用
+     * 每一步都可以重复执行，中断后从上次记录的粉丝位置继续即可
+     * @param afterFollowId 从tb_follow中id大于它的粉丝开始推送，第一次为0
+     * @param progress 每推送完一页回调这一页最后的tb_follow id
+     */
+    public void deliver(Long authorId, Long blogId, long timestamp, long afterFollowId, LongConsumer progress) {
+        String outboxKey = FEED_OUTBOX_KEY + authorId;
+        stringRedisTemplate.opsForZSet().add(outboxKey, blogId.toString(), timestamp);
+        stringRedisTemplate.opsForZSet().removeRange(outboxKey, 0, -(outboxSize + 1));
+        Integer followers = followMapper.selectCount(new QueryWrapper<Follow>().eq("follow_user_id", authorId));
+        if (followers != null && followers >= celebrityThreshold) {
+            // 大V只写发件箱，由粉丝读取时拉取
+            stringRedisTemplate.opsForSet().add(FEED_CELEBRITY_KEY, authorId.toString());
+            return;
+        }
+        stringRedisTemplate.opsForSet().remove(FEED_CELEBRITY_KEY, authorId.toString());
+        pushToActiveFollowers(authorId, blogId, timestamp, afterFollowId, progress);
+    }
+
+    /**
+     * 按id分页读取粉丝，每页一次pipeline查活跃时间，再一次pipeline写入活跃粉丝的收件箱并裁剪到上限
+     */
+    private void pushToActiveFollowers(Long authorId, Long blogId, long timestamp,
+                                       long afterFollowId, LongConsumer progress) {
+        long activeSince = System.currentTimeMillis() - activeMillis;
+        String member = blogId.toString();
+        long lastId = afterFollowId;
+        while (true) {
+            List<Follow> follows = followMapper.selectList(new QueryWrapper<Follow>()
+                    .select("id", "user_id").eq("follow_user_id", authorId)
+                    .gt("id", lastId).orderByAsc("id").last("limit " + fanoutBatchSize));
+            if (follows.isEmpty()) {
+                return;
+            }
+            List<String> active = activeUsers(follows.stream()
+                    .map(follow -> follow.getUserId().toString()).collect(Collectors.toList()), activeSince);
+            if (!active.isEmpty()) {
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    for (String userId : active) {
+                        conn.zAdd(FEED_KEY + userId, timestamp, member);
+                        conn.zRemRange(FEED_KEY + userId, 0, -(inboxMaxSize + 1));
+                    }
+                    return null;
+                });
+            }
+            lastId = follows.get(follows.size() - 1).getId();
+            progress.accept(lastId);
+            if (follows.size() < fanoutBatchSize) {
+                return;
+            }
+        }
+    }
+
+    private List<String> activeUsers(List<String> userIds, long activeSince) {
+        List<Object> scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String userId : userIds) {
+                conn.zScore(FEED_ACTIVE_KEY, userId);
+            }
+            return null;
+        });
+        List<String> active = new ArrayList<>();
+        for (int i = 0; i < userIds.size(); i++) {
+            Object score = scores.get(i);
+            if (score != null && ((Double) score) >= activeSince) {
+                active.add(userIds.get(i));
+            }
+        }
+        return active;
+    }
+
+    /**
+     * 关注流里笔记的分数：数据库里存的发布时间，毫秒
+     * 收件箱、发件箱和数据库回源用同一个分数，同一篇笔记在不同来源里分数相同
+     */
+    public static long score(LocalDateTime createTime) {
+        return createTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    /**
+     * 读关注流，合并收件箱和关注的大V的发件箱，按时间倒序
+     * 和单个收件箱的滚动分页语义一样：分数不超过max，跳过分数等于max的前offset个，取count个
+     * 收件箱最旧一篇之前的部分从数据库按关注作者查询，发件箱里更早的笔记也不再使用
+     * @return 合并后的一页，同一篇笔记只出现一次
+     */
+    public List<ZSetOperations.TypedTuple<String>> read(Long userId, long max, int offset, int count) {
+        activate(userId);
+        String inboxKey = FEED_KEY + userId;
+        List<String> keys = new ArrayList<>();
+        keys.add(inboxKey);
+        for (String authorId : followedCelebrities(userId)) {
+            keys.add(FEED_OUTBOX_KEY + authorId);
+        }
+        // 每个来源取offset + count个就足够覆盖合并后的这一页，顺带取收件箱长度和最旧一篇
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.zCard(inboxKey);
+            conn.zRangeWithScores(inboxKey, 0, 0);
+            for (String key : keys) {
+                conn.zRevRangeByScoreWithScores(key, 0, max, 0, offset + count);
+            }
+            return null;
+        });
+        recordInboxSize(results.get(0) == null ? 0 : (Long) results.get(0));
+        Set<?> oldest = (Set<?>) results.get(1);
+        // 收件箱为空时全部从数据库读
+        double boundary = oldest == null || oldest.isEmpty() ? Double.POSITIVE_INFINITY
+                : ((ZSetOperations.TypedTuple<?>) oldest.iterator().next()).getScore();
+        return mergePage(results.subList(2, results.size()), boundary, max, offset, count,
+                (before, limit) -> readCold(userId, before, limit));
+    }
+
+    /**
+     * 合并一页关注流
+     * 1.收件箱和大V发件箱里分数不低于boundary的部分，按来源顺序去重
+     * 2.不够offset + count个时，从数据库读分数不超过min(boundary, max)的部分；分数等于boundary的笔记可能一部分
+     *   还在收件箱、一部分已被裁掉，所以包含boundary，重复的按id去掉，多读的条数等于已经合并的条数
+     * 3.按分数倒序稳定排序，同分数时收件箱的在前，和上一页的顺序一致；跳过分数等于max的前offset个，取count个
+     * @param sources 收件箱在前，各来源按分数倒序的TypedTuple集合
+     * @param coldReader 参数是分数上限（包含）和条数，返回按分数倒序的笔记
+     */
+    static List<ZSetOperations.TypedTuple<String>> mergePage(
+            List<?> sources, double boundary, long max, int offset, int count,
+            BiFunction<Double, Integer, List<ZSetOperations.TypedTuple<String>>> coldReader) {
+        List<ZSetOperations.TypedTuple<String>> merged = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        for (Object result : sources) {
+            if (result == null) {
+                continue;
+            }
+            for (Object item : (Collection<?>) result) {
+                @SuppressWarnings("unchecked")
+                ZSetOperations.TypedTuple<String> tuple = (ZSetOperations.TypedTuple<String>) item;
+                if (tuple.getScore() >= boundary && seen.add(tuple.getValue())) {
+                    merged.add(new DefaultTypedTuple<>(tuple.getValue(), tuple.getScore()));
+                }
+            }
+        }
+        if (merged.size() < offset + count) {
+            for (ZSetOperations.TypedTuple<String> tuple
+                    : coldReader.apply(Math.min(boundary, max), offset + count + merged.size())) {
+                if (seen.add(tuple.getValue())) {
+                    merged.add(tuple);
+                }
+            }
+        }
+        merged.sort((a, b) -> Double.compare(b.getScore(), a.getScore()));
+        // 跳过上一页已经返回的、分数等于max的offset个
+        int skip = 0;
+        while (skip < merged.size() && skip < offset && merged.get(skip).getScore() == max) {
+            skip++;
+        }
+        return new ArrayList<>(merged.subList(skip, Math.min(merged.size(), skip + count)));
+    }
+
+    /**
+     * 从数据库读关注作者发布时间不晚于before的最近limit篇
+     */
+    private List<ZSetOperations.TypedTuple<String>> readCold(Long userId, double before, int limit) {
+        Set<String> authors = followedAuthors(userId);
+        if (authors.isEmpty()) {
+            return Collections.emptyList();
+        }
+        long begin = System.currentTimeMillis();
+        // 前端第一页传的max可能远大于当前时间
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli((long) Math.min(before, begin)),
+                ZoneId.systemDefault());
+        List<Blog> blogs = blogMapper.selectList(new QueryWrapper<Blog>()
+                .select("id", "create_time").in("user_id", authors).le("create_time", time)
+                .orderByDesc("create_time").orderByDesc("id").last("limit " + limit));
+        List<ZSetOperations.TypedTuple<String>> tuples = new ArrayList<>(blogs.size());
+        for (Blog blog : blogs) {
+            tuples.add(new DefaultTypedTuple<>(blog.getId().toString(), (double) score(blog.getCreateTime())));
+        }
+        coldReads.increment();
+        totalColdMillis.add(System.currentTimeMillis() - begin);
+        return tuples;
+    }
+
+    /**
+     * 记录活跃时间，新用户、收件箱已被淘汰的用户从关注作者的最近笔记重建收件箱，从不活跃变为活跃时补齐不活跃期间的笔记
+     */
+    private void activate(Long userId) {
+        long now = System.currentTimeMillis();
+        Double lastActive = stringRedisTemplate.opsForZSet().score(FEED_ACTIVE_KEY, userId.toString());
+        stringRedisTemplate.opsForZSet().add(FEED_ACTIVE_KEY, userId.toString(), now);
+        if (lastActive == null || lastActive < now - activeMillis) {
+            rebuildInbox(userId, lastActive == null ? 0 : lastActive.longValue());
+        }
+    }
+
+    /**
+     * 不活跃期间普通作者没有推送给这个用户，把关注作者发件箱里since之后的笔记补进收件箱，每个作者最多取最近rebuildPerAuthor篇
+     */
+    private void rebuildInbox(Long userId, long since) {
+        long begin = System.currentTimeMillis();
+        List<String> authors = new ArrayList<>(followedAuthors(userId));
+        if (authors.isEmpty()) {
+            return;
+        }
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String authorId : authors) {
+                conn.zRevRangeByScoreWithScores(FEED_OUTBOX_KEY + authorId, since, Double.POSITIVE_INFINITY,
+                        0, rebuildPerAuthor);
+            }
+            return null;
+        });
+        String inboxKey = FEED_KEY + userId;
+        long[] entries = new long[1];
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Object result : results) {
+                if (result == null) {
+                    continue;
+                }
+                for (Object item : (Set<?>) result) {
+                    @SuppressWarnings("unchecked")
+                    ZSetOperations.TypedTuple<String> tuple = (ZSetOperations.TypedTuple<String>) item;
+                    conn.zAdd(inboxKey, tuple.getScore(), tuple.getValue());
+                    entries[0]++;
+                }
+            }
+            conn.zRemRange(inboxKey, 0, -(inboxMaxSize + 1));
+            return null;
+        });
+        long millis = System.currentTimeMillis() - begin;
+        rebuilds.increment();
+        rebuildEntries.add(entries[0]);
+        totalRebuildMillis.add(millis);
+        maxRebuildMillis.accumulateAndGet(millis, Math::max);
+    }
+
+    /**
+     * 定时淘汰长期不读关注流的用户的收件箱，多个节点同时执行也只是重复检查
+     */
+    @Scheduled(fixedDelayString = "${hmdp.feed.evict-interval:3600000}")
+    public void evictInactiveInboxes() {
+        String before = String.valueOf(System.currentTimeMillis() - evictMillis);
+        long users = 0;
+        long entries = 0;
+        while (true) {
+            List<?> result = stringRedisTemplate.execute(EVICT_SCRIPT, Collections.singletonList(FEED_ACTIVE_KEY),
+                    before, String.valueOf(evictBatchSize), FEED_KEY);
+            if (result == null) {
+                break;
+            }
+            long batchUsers = (Long) result.get(0);
+            users += batchUsers;
+            entries += (Long) result.get(1);
+            if (batchUsers < evictBatchSize) {
+                break;
+            }
+        }
+        evictedUsers.add(users);
+        evictedEntries.add(entries);
+        if (users > 0) {
+            log.info("淘汰不活跃用户的收件箱：{}个用户，{}条", users, entries);
+        }
+    }
+
+    /**
+     * 收件箱长度分布、重建和数据库回源的次数与耗时、淘汰数量
+     */
+    public Map<String, Object> stats() {
+        Map<String, Long> inboxSizes = new LinkedHashMap<>();
+        for (int i = 0; i < INBOX_SIZE_BUCKETS.length; i++) {
+            inboxSizes.put("<=" + INBOX_SIZE_BUCKETS[i], inboxSizeCounts[i].sum());
+        }
+        inboxSizes.put(">" + INBOX_SIZE_BUCKETS[INBOX_SIZE_BUCKETS.length - 1],
+                inboxSizeCounts[INBOX_SIZE_BUCKETS.length].sum());
+        long rebuildCount = rebuilds.sum();
+        long coldCount = coldReads.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("activeUsers", stringRedisTemplate.opsForZSet().zCard(FEED_ACTIVE_KEY));
+        stats.put("inboxMaxSize", inboxMaxSize);
+        stats.put("reads", reads.sum());
+        stats.put("inboxSizes", inboxSizes);
+        stats.put("rebuilds", rebuildCount);
+        stats.put("avgRebuildEntries", rebuildCount == 0 ? 0 : rebuildEntries.sum() / rebuildCount);
+        stats.put("avgRebuildMillis", rebuildCount == 0 ? 0 : totalRebuildMillis.sum() / rebuildCount);
+        stats.put("maxRebuildMillis", maxRebuildMillis.get());
+        stats.put("coldReads", coldCount);
+        stats.put("avgColdReadMillis", coldCount == 0 ? 0 : totalColdMillis.sum() / coldCount);
+        stats.put("evictedUsers", evictedUsers.sum());
+        stats.put("evictedEntries", evictedEntries.sum());
+        return stats;
+    }
+
+    private void recordInboxSize(long size) {
+        reads.increment();
+        int i = 0;
+        while (i < INBOX_SIZE_BUCKETS.length && size > INBOX_SIZE_BUCKETS[i]) {
+            i++;
+        }
+        inboxSizeCounts[i].increment();
+    }
+
+    /**
+     * 求交集之前先确保关注集合已经完整加载
+     */
+    private Set<String> followedCelebrities(Long userId) {
+        loadFollows(userId);
+        Set<String> celebrities = stringRedisTemplate.opsForSet().intersect(FOLLOWS_KEY + userId, FEED_CELEBRITY_KEY);
+        return celebrities == null ? Collections.emptySet() : celebrities;
+    }
+
+    /**
+     * 关注的作者
+     */
+    private Set<String> followedAuthors(Long userId) {
+        Set<String> authors = loadFollows(userId);
+        if (authors != null) {
+            return authors;
+        }
+        authors = stringRedisTemplate.opsForSet().members(FOLLOWS_KEY + userId);
+        return authors == null ? Collections.emptySet() : authors;
+    }
+
+    /**
+     * 关注时FollowServiceImpl只往集合里SADD，集合非空不代表是全量，
+     * 没有加载标记时从数据库加载全量并打上标记，返回加载到的作者；已经加载过返回null
+     */
+    private Set<String> loadFollows(Long userId) {
+        String loadedKey = FOLLOWS_LOADED_KEY + userId;
+        if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(loadedKey))) {
+            return null;
+        }
+        Set<String> authors = followMapper.selectList(new QueryWrapper<Follow>().select("follow_user_id").eq("user_id", userId))
+                .stream().map(follow -> follow.getFollowUserId().toString()).collect(Collectors.toSet());
+        if (!authors.isEmpty()) {
+            stringRedisTemplate.opsForSet().add(FOLLOWS_KEY + userId, authors.toArray(new String[0]));
+        }
+        stringRedisTemplate.opsForValue().set(loadedKey, "1");
+        return authors;
+    }
+}
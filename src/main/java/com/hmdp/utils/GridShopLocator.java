@@ -0,0 +1,314 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.ShopDistance;
+import com.hmdp.entity.Shop;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * 进程内的网格索引，按类型分区，每个分区把经纬度按固定大小切成格子
+ * 1.半径查询：只扫描外接矩形覆盖的格子
+ * 2.最近k个：从所在格子一圈圈向外扩，已经找到k个且第k个不比未扫描区域的最近距离远时停止
+ * 距离和Redis GEO一样用haversine公式、同样的地球半径，两种实现结果可以直接比较。
+ * 不处理180度经线两侧的跨越，业务范围内的商铺不会出现这种情况。
+ */
+public class GridShopLocator implements ShopLocator {
+
+    /**
+     * 与Redis GEO一致的地球半径，米
+     */
+    static final double EARTH_RADIUS = 6372797.560856;
+
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * EARTH_RADIUS;
+
+    /**
+     * 格子边长，度
+     */
+    private final double cellSize;
+
+    private volatile Map<Long, Partition> partitions = new ConcurrentHashMap<>();
+
+    /**
+     * 保护写入和索引替换，写入不会落到刚被替换掉的旧索引上
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * 重建期间的写入，替换前在新索引上重放；不在重建时为null
+     */
+    private List<Consumer<Map<Long, Partition>>> writesDuringReload;
+
+    /**
+     * @param cellSize 格子边长（度），0.01大约是1公里
+     */
+    public GridShopLocator(double cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    @Override
+    public List<ShopDistance> searchRadius(Long typeId, double x, double y, double radiusMeters, int limit) {
+        Partition partition = partitions.get(typeId);
+        if (partition == null || limit <= 0) {
+            return Collections.emptyList();
+        }
+        double latDelta = radiusMeters / METERS_PER_DEGREE;
+        double cos = Math.cos(Math.toRadians(Math.min(Math.abs(y) + latDelta, 89.9)));
+        double lonDelta = latDelta / cos;
+        List<ShopDistance> result = new ArrayList<>();
+        partition.lock.readLock().lock();
+        try {
+            int minCx = Math.max(cell(x - lonDelta), partition.minCx);
+            int maxCx = Math.min(cell(x + lonDelta), partition.maxCx);
+            int minCy = Math.max(cell(y - latDelta), partition.minCy);
+            int maxCy = Math.min(cell(y + latDelta), partition.maxCy);
+            for (int cx = minCx; cx <= maxCx; cx++) {
+                for (int cy = minCy; cy <= maxCy; cy++) {
+                    List<Point> points = partition.cells.get(cellKey(cx, cy));
+                    if (points == null) {
+                        continue;
+                    }
+                    for (Point point : points) {
+                        double distance = distance(x, y, point.x, point.y);
+                        if (distance <= radiusMeters) {
+                            result.add(new ShopDistance(point.shopId, distance));
+                        }
+                    }
+                }
+            }
+        } finally {
+            partition.lock.readLock().unlock();
+        }
+        return topN(result, limit);
+    }
+
+    @Override
+    public List<ShopDistance> nearest(Long typeId, double x, double y, int k) {
+        Partition partition = partitions.get(typeId);
+        if (partition == null || k <= 0) {
+            return Collections.emptyList();
+        }
+        int centerX = cell(x);
+        int centerY = cell(y);
+        List<ShopDistance> candidates = new ArrayList<>();
+        partition.lock.readLock().lock();
+        try {
+            if (partition.byId.isEmpty()) {
+                return Collections.emptyList();
+            }
+            // 圈数扩到覆盖整个分区的范围后就不用再扩了
+            int maxRing = Math.max(
+                    Math.max(Math.abs(centerX - partition.minCx), Math.abs(partition.maxCx - centerX)),
+                    Math.max(Math.abs(centerY - partition.minCy), Math.abs(partition.maxCy - centerY)));
+            for (int ring = 0; ring <= maxRing; ring++) {
+                scanRing(partition, centerX, centerY, ring, x, y, candidates);
+                if (candidates.size() >= k) {
+                    candidates = topN(candidates, k);
+                    if (candidates.get(k - 1).getDistance() <= unscannedDistance(x, y, centerX, centerY, ring)) {
+                        break;
+                    }
+                }
+            }
+        } finally {
+            partition.lock.readLock().unlock();
+        }
+        return topN(candidates, k);
+    }
+
+    @Override
+    public void upsert(Shop shop) {
+        write(target -> upsert(target, shop));
+    }
+
+    @Override
+    public void remove(Long typeId, Long shopId) {
+        write(target -> remove(target, typeId, shopId));
+    }
+
+    /**
+     * 在新的索引上构建，完成后整体替换，构建期间查询读的是旧索引
+     * 构建期间的写入先写旧索引并记录下来，替换前在新索引上按顺序重放，分页读到的旧坐标会被覆盖
+     */
+    @Override
+    public synchronized void reload(Iterator<List<Shop>> pages) {
+        synchronized (writeLock) {
+            writesDuringReload = new ArrayList<>();
+        }
+        try {
+            Map<Long, Partition> fresh = new ConcurrentHashMap<>();
+            while (pages.hasNext()) {
+                for (Shop shop : pages.next()) {
+                    fresh.computeIfAbsent(shop.getTypeId(), typeId -> new Partition())
+                            .add(new Point(shop.getId(), shop.getX(), shop.getY()));
+                }
+            }
+            synchronized (writeLock) {
+                for (Consumer<Map<Long, Partition>> write : writesDuringReload) {
+                    write.accept(fresh);
+                }
+                partitions = fresh;
+            }
+        } finally {
+            synchronized (writeLock) {
+                writesDuringReload = null;
+            }
+        }
+    }
+
+    private void write(Consumer<Map<Long, Partition>> write) {
+        synchronized (writeLock) {
+            write.accept(partitions);
+            if (writesDuringReload != null) {
+                writesDuringReload.add(write);
+            }
+        }
+    }
+
+    private void upsert(Map<Long, Partition> target, Shop shop) {
+        Partition partition = target.computeIfAbsent(shop.getTypeId(), typeId -> new Partition());
+        partition.lock.writeLock().lock();
+        try {
+            partition.remove(shop.getId());
+            partition.add(new Point(shop.getId(), shop.getX(), shop.getY()));
+        } finally {
+            partition.lock.writeLock().unlock();
+        }
+    }
+
+    private static void remove(Map<Long, Partition> target, Long typeId, Long shopId) {
+        Partition partition = target.get(typeId);
+        if (partition == null) {
+            return;
+        }
+        partition.lock.writeLock().lock();
+        try {
+            partition.remove(shopId);
+        } finally {
+            partition.lock.writeLock().unlock();
+        }
+    }
+
+    public int size(Long typeId) {
+        Partition partition = partitions.get(typeId);
+        return partition == null ? 0 : partition.byId.size();
+    }
+
+    private void scanRing(Partition partition, int centerX, int centerY, int ring,
+                          double x, double y, List<ShopDistance> out) {
+        for (int cx = centerX - ring; cx <= centerX + ring; cx++) {
+            for (int cy = centerY - ring; cy <= centerY + ring; cy++) {
+                // 只扫描这一圈的边，内部的格子前面已经扫过
+                if (ring > 0 && Math.abs(cx - centerX) != ring && Math.abs(cy - centerY) != ring) {
+                    continue;
+                }
+                List<Point> points = partition.cells.get(cellKey(cx, cy));
+                if (points == null) {
+                    continue;
+                }
+                for (Point point : points) {
+                    out.add(new ShopDistance(point.shopId, distance(x, y, point.x, point.y)));
+                }
+            }
+        }
+    }
+
+    /**
+     * 扫描到第ring圈后，未扫描区域里的点到查询点的最短距离（保守估计）
+     */
+    private double unscannedDistance(double x, double y, int centerX, int centerY, int ring) {
+        double south = y - (centerY - ring) * cellSize;
+        double north = (centerY + ring + 1) * cellSize - y;
+        double west = x - (centerX - ring) * cellSize;
+        double east = (centerX + ring + 1) * cellSize - x;
+        // 经度方向按已扫描区域里纬度最高处换算，那里1度经度最短
+        double maxLat = Math.min(Math.max(Math.abs(y - south), Math.abs(y + north)), 89.9);
+        double lonMeters = Math.min(west, east) * METERS_PER_DEGREE * Math.cos(Math.toRadians(maxLat));
+        double latMeters = Math.min(south, north) * METERS_PER_DEGREE;
+        return Math.min(lonMeters, latMeters);
+    }
+
+    private int cell(double degree) {
+        return (int) Math.floor(degree / cellSize);
+    }
+
+    private static long cellKey(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xffffffffL);
+    }
+
+    private static List<ShopDistance> topN(List<ShopDistance> list, int n) {
+        list.sort(Comparator.comparingDouble(ShopDistance::getDistance));
+        return list.size() <= n ? list : new ArrayList<>(list.subList(0, n));
+    }
+
+    /**
+     * haversine公式，x为经度，y为纬度，返回米
+     */
+    static double distance(double x1, double y1, double x2, double y2) {
+        double lat1 = Math.toRadians(y1);
+        double lat2 = Math.toRadians(y2);
+        double u = Math.sin((lat2 - lat1) / 2);
+        double v = Math.sin(Math.toRadians(x2 - x1) / 2);
+        return 2 * EARTH_RADIUS * Math.asin(Math.sqrt(u * u + Math.cos(lat1) * Math.cos(lat2) * v * v));
+    }
+
+    private static class Point {
+        private final long shopId;
+        private final double x;
+        private final double y;
+
+        private Point(long shopId, double x, double y) {
+            this.shopId = shopId;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    /**
+     * 一个类型的网格，读写锁保护，记录格子范围用来限制扫描
+     */
+    private class Partition {
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Map<Long, List<Point>> cells = new HashMap<>();
+        private final Map<Long, Point> byId = new HashMap<>();
+        private int minCx = Integer.MAX_VALUE;
+        private int maxCx = Integer.MIN_VALUE;
+        private int minCy = Integer.MAX_VALUE;
+        private int maxCy = Integer.MIN_VALUE;
+
+        private void add(Point point) {
+            int cx = cell(point.x);
+            int cy = cell(point.y);
+            cells.computeIfAbsent(cellKey(cx, cy), key -> new ArrayList<>()).add(point);
+            byId.put(point.shopId, point);
+            minCx = Math.min(minCx, cx);
+            maxCx = Math.max(maxCx, cx);
+            minCy = Math.min(minCy, cy);
+            maxCy = Math.max(maxCy, cy);
+        }
+
+        /**
+         * 删除不收缩格子范围，只会多扫几个空格子
+         */
+        private void remove(Long shopId) {
+            Point point = byId.remove(shopId);
+            if (point == null) {
+                return;
+            }
+            long key = cellKey(cell(point.x), cell(point.y));
+            List<Point> points = cells.get(key);
+            points.remove(point);
+            if (points.isEmpty()) {
+                cells.remove(key);
+            }
+        }
+    }
+}
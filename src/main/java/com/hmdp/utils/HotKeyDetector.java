@@ -0,0 +1,180 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 热点key探测
+ * 1.按采样率抽样记录Redis访问，用Count-Min Sketch估算次数，小根堆维护访问最多的K个key
+ * 2.估算次数超过阈值的key标记为热点，热点key的结果放进一个ttl很短的进程内缓存，不再每次访问Redis
+ * 3.定时把计数减半，热度下降到阈值一半以下的key取消热点
+ * 热点缓存不参与跨节点失效广播，本节点写入时删除，其他节点最多读到ttl时长的旧数据。
+ */
+@Component
+public class HotKeyDetector {
+
+    private static final int SKETCH_DEPTH = 4;
+    private static final int SKETCH_WIDTH = 8192;
+
+    private final double sampleRate;
+
+    /**
+     * 换算到采样后的阈值
+     */
+    private final long sampledThreshold;
+
+    private final int topK;
+
+    private final CountMinSketch sketch = new CountMinSketch(SKETCH_DEPTH, SKETCH_WIDTH);
+
+    /**
+     * 当前top-K的key和估算次数，小根堆堆顶是其中最冷的一个
+     */
+    private final Map<String, Long> topCounts = new HashMap<>();
+    private final PriorityQueue<String> topHeap = new PriorityQueue<>(
+            (a, b) -> Long.compare(topCounts.get(a), topCounts.get(b)));
+
+    private final Set<String> hotKeys = ConcurrentHashMap.newKeySet();
+
+    private final LocalCache hotCache;
+
+    /**
+     * @param sampleRate 采样率，0到1
+     * @param threshold 一个衰减周期内的访问次数（换算前）超过多少算热点
+     * @param topK 维护的热点排行长度
+     * @param hotCacheTtl 热点key在进程内缓存的时间，毫秒
+     */
+    public HotKeyDetector(@Value("${hmdp.cache.hot-key.sample-rate:0.1}") double sampleRate,
+                          @Value("${hmdp.cache.hot-key.threshold:1000}") long threshold,
+                          @Value("${hmdp.cache.hot-key.top-k:20}") int topK,
+                          @Value("${hmdp.cache.hot-key.local-ttl:3000}") long hotCacheTtl) {
+        this.sampleRate = sampleRate;
+        this.sampledThreshold = Math.max(1, (long) (threshold * sampleRate));
+        this.topK = topK;
+        this.hotCache = new LocalCache("hot-key", topK * 4, hotCacheTtl, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 记录一次访问
+     * @return 这个key当前是否是热点
+     */
+    public boolean record(String key) {
+        if (ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            long estimate = sketch.add(key);
+            updateTop(key, estimate);
+            if (estimate >= sampledThreshold) {
+                hotKeys.add(key);
+            }
+        }
+        return hotKeys.contains(key);
+    }
+
+    public boolean isHot(String key) {
+        return hotKeys.contains(key);
+    }
+
+    /**
+     * 热点key的进程内缓存，调用方按key读写
+     */
+    public LocalCache hotCache() {
+        return hotCache;
+    }
+
+    /**
+     * 记录访问，热点key优先从进程内缓存取，取不到再调用loader并缓存结果
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getOrLoad(String key, Supplier<T> loader) {
+        if (!record(key)) {
+            return loader.get();
+        }
+        Object cached = hotCache.get(key);
+        if (cached != null) {
+            return cached == LocalCache.NULL_VALUE ? null : (T) cached;
+        }
+        T value = loader.get();
+        hotCache.put(key, value);
+        return value;
+    }
+
+    /**
+     * 数据变更时删除本节点的热点缓存
+     */
+    public void evict(String key) {
+        hotCache.invalidate(key);
+    }
+
+    /**
+     * 定时衰减
+     */
+    @Scheduled(fixedDelayString = "${hmdp.cache.hot-key.decay-interval:10000}")
+    public void decay() {
+        sketch.halve();
+        synchronized (topHeap) {
+            List<String> keys = new ArrayList<>(topCounts.keySet());
+            topHeap.clear();
+            for (String key : keys) {
+                topCounts.put(key, topCounts.get(key) >> 1);
+                topHeap.add(key);
+            }
+        }
+        hotKeys.removeIf(key -> sketch.estimate(key) < sampledThreshold / 2);
+    }
+
+    /**
+     * 访问最多的K个key，按估算次数从高到低，次数换算回实际访问量
+     */
+    public List<Map<String, Object>> topKeys() {
+        List<Map.Entry<String, Long>> entries;
+        synchronized (topHeap) {
+            entries = new ArrayList<>(new HashMap<>(topCounts).entrySet());
+        }
+        entries.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        List<Map<String, Object>> result = new ArrayList<>(entries.size());
+        for (Map.Entry<String, Long> entry : entries) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("key", entry.getKey());
+            item.put("estimate", (long) (entry.getValue() / sampleRate));
+            item.put("hot", hotKeys.contains(entry.getKey()));
+            result.add(item);
+        }
+        return result;
+    }
+
+    private void updateTop(String key, long estimate) {
+        synchronized (topHeap) {
+            if (topCounts.containsKey(key)) {
+                // 先移出堆再改计数，否则堆序被破坏
+                topHeap.remove(key);
+                topCounts.put(key, estimate);
+                topHeap.add(key);
+                return;
+            }
+            if (topCounts.size() < topK) {
+                topCounts.put(key, estimate);
+                topHeap.add(key);
+                return;
+            }
+            String coldest = topHeap.peek();
+            if (coldest != null && topCounts.get(coldest) < estimate) {
+                topHeap.poll();
+                topCounts.remove(coldest);
+                topCounts.put(key, estimate);
+                topHeap.add(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.User;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.UserMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 商铺、笔记、用户id的布隆过滤器，防止用不存在的id穿透缓存
+ * 1.启动时分页扫描id建立，定时全量重建（删除的数据只能靠重建清掉）
+ * 2.新增数据时同步加入，并通过L1失效总线广播给其他节点，其他节点收到后加入各自的过滤器
+ * 3.广播丢失时总线对账会发现，收到通知后整体重建对应的过滤器
+ * 4.可选把位图同步到Redis，方便其他服务共用
+ * 过滤器还没建好之前一律放行。
+ */
+@Slf4j
+@Component
+public class IdBloomFilters implements ApplicationRunner, CacheInvalidationBus.BloomSync {
+
+    private static final int SCAN_PAGE_SIZE = 1000;
+    private static final double FPP = 0.01;
+    /**
+     * 预留的扩容空间，重建之间新增的数据不至于让误判率上升太快
+     */
+    private static final long MIN_EXPECTED_INSERTIONS = 10000;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final CacheInvalidationBus cacheInvalidationBus;
+
+    private final Map<String, Holder<?>> holders = new LinkedHashMap<>();
+
+    /**
+     * 广播丢失后的重建放到单独的线程，不占用公共ForkJoinPool，重建要扫全表，一次只跑一个
+     */
+    private final ExecutorService rebuildExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "bloom-rebuild");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Value("${hmdp.cache.bloom.redis-mirror:false}")
+    private boolean redisMirror;
+
+    public IdBloomFilters(StringRedisTemplate stringRedisTemplate, CacheInvalidationBus cacheInvalidationBus,
+                          ShopMapper shopMapper, BlogMapper blogMapper, UserMapper userMapper) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.cacheInvalidationBus = cacheInvalidationBus;
+        holders.put(CACHE_SHOP_KEY, new Holder<Shop>("shop", shopMapper));
+        holders.put(CACHE_BLOG_KEY, new Holder<Blog>("blog", blogMapper));
+        holders.put(CACHE_USER_KEY, new Holder<User>("user", userMapper));
+    }
+
+    @PostConstruct
+    public void init() {
+        cacheInvalidationBus.registerBloom(holders.keySet(), this);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        rebuildExecutor.shutdownNow();
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        rebuildAll();
+    }
+
+    /**
+     * 定时全量重建
+     */
+    @Scheduled(initialDelayString = "${hmdp.cache.bloom.rebuild-interval:3600000}",
+            fixedDelayString = "${hmdp.cache.bloom.rebuild-interval:3600000}")
+    public void rebuildAll() {
+        for (Holder<?> holder : holders.values()) {
+            try {
+                holder.rebuild();
+            } catch (Exception e) {
+                log.error("重建{}布隆过滤器失败", holder.name, e);
+            }
+        }
+    }
+
+    /**
+     * 判断某个前缀下的id是否可能存在，没有对应过滤器或者还没建好都返回true
+     */
+    public boolean mightContain(String keyPrefix, Object id) {
+        Holder<?> holder = holders.get(keyPrefix);
+        if (holder == null || !(id instanceof Number)) {
+            return true;
+        }
+        BloomFilter filter = holder.current;
+        return filter == null || filter.mightContain(((Number) id).longValue());
+    }
+
+    /**
+     * 新增数据后加入过滤器，并广播给其他节点
+     */
+    public void add(String keyPrefix, Long id) {
+        Holder<?> holder = holders.get(keyPrefix);
+        if (holder == null || id == null) {
+            return;
+        }
+        holder.add(id, true);
+        cacheInvalidationBus.broadcastBloomAdd(keyPrefix, id);
+    }
+
+    /**
+     * 其他节点新增的id，Redis位图已经由新增的节点写过
+     */
+    @Override
+    public void onAdded(String keyPrefix, List<?> ids) {
+        Holder<?> holder = holders.get(keyPrefix);
+        if (holder == null) {
+            return;
+        }
+        for (Object id : ids) {
+            holder.add(((Number) id).longValue(), false);
+        }
+    }
+
+    /**
+     * 广播丢失，不知道漏了哪些id，在后台整体重建；同一个过滤器已经在排队时不重复提交
+     */
+    @Override
+    public void onLost(String keyPrefix) {
+        Holder<?> holder = holders.get(keyPrefix);
+        if (holder == null || !holder.rebuildQueued.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            rebuildExecutor.execute(() -> {
+                holder.rebuildQueued.set(false);
+                try {
+                    holder.rebuild();
+                } catch (Exception e) {
+                    log.error("重建{}布隆过滤器失败", holder.name, e);
+                }
+            });
+        } catch (RuntimeException e) {
+            // 关闭后不再接受任务
+            holder.rebuildQueued.set(false);
+            log.warn("{}布隆过滤器重建任务提交失败", holder.name, e);
+        }
+    }
+
+    private class Holder<T> {
+        private final String name;
+        private final BaseMapper<T> mapper;
+        private volatile BloomFilter current;
+        /**
+         * 重建过程中新增的id同时写入正在构建的过滤器，避免切换后丢失
+         */
+        private volatile BloomFilter building;
+        private final AtomicBoolean rebuildQueued = new AtomicBoolean();
+
+        private Holder(String name, BaseMapper<T> mapper) {
+            this.name = name;
+            this.mapper = mapper;
+        }
+
+        private synchronized void rebuild() {
+            long begin = System.currentTimeMillis();
+            Integer count = mapper.selectCount(null);
+            BloomFilter filter = new BloomFilter(Math.max(count == null ? 0 : count * 2L, MIN_EXPECTED_INSERTIONS), FPP);
+            building = filter;
+            try {
+                // 按主键分页扫描，只查id
+                long lastId = 0;
+                long total = 0;
+                while (true) {
+                    List<Object> ids = mapper.selectObjs(new QueryWrapper<T>()
+                            .select("id").gt("id", lastId).orderByAsc("id").last("limit " + SCAN_PAGE_SIZE));
+                    for (Object id : ids) {
+                        lastId = ((Number) id).longValue();
+                        filter.put(lastId);
+                    }
+                    total += ids.size();
+                    if (ids.size() < SCAN_PAGE_SIZE) {
+                        break;
+                    }
+                }
+                current = filter;
+                log.info("{}布隆过滤器构建完成，共{}个id，{}位，{}个哈希函数，耗时{}ms",
+                        name, total, filter.getBitSize(), filter.getHashCount(), System.currentTimeMillis() - begin);
+            } finally {
+                building = null;
+            }
+            if (redisMirror) {
+                mirrorAll(filter);
+            }
+        }
+
+        private void add(long id, boolean mirror) {
+            BloomFilter filter = current;
+            if (filter != null) {
+                filter.put(id);
+            }
+            BloomFilter pending = building;
+            if (pending != null) {
+                pending.put(id);
+            }
+            // 刚好赶上切换，补写一次
+            BloomFilter latest = current;
+            if (latest != null && latest != filter) {
+                latest.put(id);
+            }
+            if (mirror && redisMirror && latest != null) {
+                mirrorOne(latest, id);
+            }
+        }
+
+        /**
+         * 整个位图写到临时key再rename，其他服务不会读到一半的位图
+         */
+        private void mirrorAll(BloomFilter filter) {
+            byte[] key = (BLOOM_FILTER_KEY + name).getBytes(StandardCharsets.UTF_8);
+            byte[] tmpKey = (BLOOM_FILTER_KEY + name + ":tmp").getBytes(StandardCharsets.UTF_8);
+            byte[] bitmap = filter.toRedisBitmap();
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+                connection.set(tmpKey, bitmap);
+                connection.rename(tmpKey, key);
+                return null;
+            });
+        }
+
+        private void mirrorOne(BloomFilter filter, long id) {
+            String key = BLOOM_FILTER_KEY + name;
+            long[] indexes = filter.bitIndexes(id);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (long index : indexes) {
+                    conn.setBit(key, index, true);
+                }
+                return null;
+            });
+        }
+    }
+}
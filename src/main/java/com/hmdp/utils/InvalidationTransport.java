@@ -0,0 +1,31 @@
+package com.hmdp.utils;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * L1失效广播的传输通道，生产用Redis发布订阅，测试用进程内实现
+ */
+public interface InvalidationTransport {
+
+    /**
+     * 广播一批失效消息
+     */
+    void publish(CacheInvalidationMessage message);
+
+    /**
+     * 订阅失效消息
+     */
+    void subscribe(Consumer<CacheInvalidationMessage> listener);
+
+    /**
+     * 递增并返回某个前缀的全局版本号
+     */
+    long nextVersion(String keyPrefix);
+
+    /**
+     * 批量读取前缀当前的全局版本号，没有版本的前缀返回0
+     */
+    Map<String, Long> currentVersions(Collection<String> keyPrefixes);
+}
@@ -0,0 +1,48 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * hutool JSON编码，和原来直接存JSON字符串的格式完全一致
+ */
+public class JsonCacheCodec implements CacheCodec {
+
+    public static final JsonCacheCodec INSTANCE = new JsonCacheCodec();
+
+    @Override
+    public byte[] encode(Object value) {
+        return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        if (BinaryCacheCodec.isBinary(bytes)) {
+            // 前缀从二进制切回JSON时，旧值仍然可读
+            return BinaryCacheCodec.INSTANCE.decode(bytes, type);
+        }
+        return JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), type);
+    }
+
+    @Override
+    public byte[] encodeLogical(RedisData redisData) {
+        return encode(redisData);
+    }
+
+    @Override
+    public <T> RedisData decodeLogical(byte[] bytes, Class<T> type) {
+        if (BinaryCacheCodec.isBinary(bytes)) {
+            return BinaryCacheCodec.INSTANCE.decodeLogical(bytes, type);
+        }
+        RedisData redisData = decode(bytes, RedisData.class);
+        redisData.setData(JSONUtil.toBean((JSONObject) redisData.getData(), type));
+        return redisData;
+    }
+
+    @Override
+    public boolean isNativeFormat(byte[] bytes, Class<?> type) {
+        return !BinaryCacheCodec.isBinary(bytes);
+    }
+}
@@ -0,0 +1,166 @@
+package com.hmdp.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 进程内一级缓存（L1）
+ * 按key哈希分段，每段是一个访问顺序的LinkedHashMap，超过容量淘汰最久未访问的条目，条目超过ttl视为过期。
+ * 缓存的是反序列化后的对象，调用方拿到后只读不改。
+ */
+public class LocalCache {
+
+    /**
+     * 缓存的空值标记，用来区分"没缓存"和"缓存了数据库不存在"
+     */
+    public static final Object NULL_VALUE = new Object();
+
+    private static final int SEGMENT_COUNT = 16;
+
+    private final String name;
+    private final int maxSize;
+    private final long ttlMillis;
+    private final Segment[] segments;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    public LocalCache(String name, int maxSize, long ttl, TimeUnit unit) {
+        this.name = name;
+        this.maxSize = maxSize;
+        this.ttlMillis = unit.toMillis(ttl);
+        this.segments = new Segment[SEGMENT_COUNT];
+        // 每段容量向上取整，保证总容量不小于maxSize
+        int segmentSize = Math.max(1, (maxSize + SEGMENT_COUNT - 1) / SEGMENT_COUNT);
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment(segmentSize);
+        }
+    }
+
+    /**
+     * 查询缓存
+     * @param key 缓存key
+     * @return 未命中或已过期返回null；命中空值返回 {@link #NULL_VALUE}
+     */
+    public Object get(String key) {
+        Segment segment = segmentFor(key);
+        Entry entry;
+        synchronized (segment) {
+            entry = segment.get(key);
+            if (entry != null && entry.expireAt <= System.currentTimeMillis()) {
+                segment.remove(key);
+                expirations.increment();
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.value;
+    }
+
+    public void put(String key, Object value) {
+        put(key, value, ttlMillis);
+    }
+
+    /**
+     * 写入缓存，可以单独指定比默认值更短的ttl，比如空值
+     */
+    public void put(String key, Object value, long ttlMillis) {
+        Entry entry = new Entry(value == null ? NULL_VALUE : value,
+                System.currentTimeMillis() + Math.min(ttlMillis, this.ttlMillis));
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, entry);
+        }
+    }
+
+    public void invalidate(String key) {
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            segment.remove(key);
+        }
+    }
+
+    public void invalidateAll() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 命中率等统计数据
+     */
+    public Map<String, Object> stats() {
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("name", name);
+        stats.put("size", size());
+        stats.put("maxSize", maxSize);
+        stats.put("ttlMillis", ttlMillis);
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRate", hitCount + missCount == 0 ? 0D : (double) hitCount / (hitCount + missCount));
+        stats.put("evictions", evictions.sum());
+        stats.put("expirations", expirations.sum());
+        return stats;
+    }
+
+    private Segment segmentFor(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (SEGMENT_COUNT - 1)];
+    }
+
+    private static class Entry {
+        private final Object value;
+        private final long expireAt;
+
+        private Entry(Object value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+
+    private class Segment extends LinkedHashMap<String, Entry> {
+        private final int capacity;
+
+        private Segment(int capacity) {
+            // accessOrder=true，按访问顺序排列，实现LRU
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.hmdp.utils;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 按key前缀管理进程内一级缓存，只有注册过的前缀才会走L1。
+ */
+@Component
+public class LocalCacheManager {
+
+    private final Map<String, LocalCache> caches = new ConcurrentHashMap<>();
+
+    private final List<Consumer<String>> registerListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * 为某个key前缀开启L1缓存，重复注册会替换旧的配置
+     * @param keyPrefix key前缀，比如 CACHE_SHOP_KEY
+     * @param maxSize 最多缓存的条目数
+     * @param ttl L1过期时间
+     * @param unit 时间单位
+     */
+    public LocalCache register(String keyPrefix, int maxSize, long ttl, TimeUnit unit) {
+        LocalCache cache = new LocalCache(keyPrefix, maxSize, ttl, unit);
+        if (caches.put(keyPrefix, cache) == null) {
+            for (Consumer<String> listener : registerListeners) {
+                listener.accept(keyPrefix);
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * 新前缀第一次注册时回调，重复注册不回调
+     */
+    public void onRegister(Consumer<String> listener) {
+        registerListeners.add(listener);
+    }
+
+    /**
+     * 根据前缀获取L1，没开启返回null
+     */
+    public LocalCache get(String keyPrefix) {
+        return caches.get(keyPrefix);
+    }
+
+    /**
+     * 根据完整key找到对应的L1，多个前缀都匹配时取最长的那个
+     */
+    public LocalCache match(String key) {
+        String prefix = matchPrefix(key);
+        return prefix == null ? null : caches.get(prefix);
+    }
+
+    /**
+     * 根据完整key找到注册过的最长前缀，没有匹配返回null
+     */
+    public String matchPrefix(String key) {
+        String matched = null;
+        for (String prefix : caches.keySet()) {
+            if (key.startsWith(prefix) && (matched == null || prefix.length() > matched.length())) {
+                matched = prefix;
+            }
+        }
+        return matched;
+    }
+
+    public Set<String> prefixes() {
+        return caches.keySet();
+    }
+
+    public void put(String key, Object value) {
+        LocalCache cache = match(key);
+        if (cache != null) {
+            cache.put(key, value);
+        }
+    }
+
+    public void evict(String key) {
+        LocalCache cache = match(key);
+        if (cache != null) {
+            cache.invalidate(key);
+        }
+    }
+
+    public void evictPrefix(String keyPrefix) {
+        LocalCache cache = caches.get(keyPrefix);
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+    }
+
+    public List<Map<String, Object>> stats() {
+        List<Map<String, Object>> stats = new ArrayList<>(caches.size());
+        for (LocalCache cache : caches.values()) {
+            stats.add(cache.stats());
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,49 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.CacheOutbox;
+import com.hmdp.mapper.CacheOutboxMapper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 轮询tb_cache_outbox的变更来源，表里的记录由db/cache_outbox_triggers.sql在tb_shop、tb_blog、tb_user上建的触发器写入
+ * 处理完的记录按id删除。Redis是共享的、L1失效会广播，任意一个节点处理过就够了，
+ * 多个节点同时轮询最多重复删除几次缓存，失效操作本身是幂等的。
+ * 不记录拉取位置，每次都取表里最早的一批：处理失败的记录没有删除，下次还会拉到；
+ * 自增id小的事务晚提交时，记录出现在已经处理过的id之前，下次同样能拉到。
+ */
+public class OutboxChangeSource implements ChangeSource {
+
+    private final CacheOutboxMapper cacheOutboxMapper;
+
+    public OutboxChangeSource(CacheOutboxMapper cacheOutboxMapper) {
+        this.cacheOutboxMapper = cacheOutboxMapper;
+    }
+
+    @Override
+    public List<ChangeEvent> poll(int maxSize) {
+        List<CacheOutbox> records = cacheOutboxMapper.selectList(new QueryWrapper<CacheOutbox>()
+                .orderByAsc("id").last("limit " + maxSize));
+        List<ChangeEvent> events = new ArrayList<>(records.size());
+        for (CacheOutbox record : records) {
+            events.add(new ChangeEvent(record.getId(), record.getTableName(), record.getRowId(), record.getOp()));
+        }
+        return events;
+    }
+
+    /**
+     * 只删除这一批处理过的记录
+     */
+    @Override
+    public void ack(List<ChangeEvent> events) {
+        List<Long> ids = new ArrayList<>(events.size());
+        for (ChangeEvent event : events) {
+            ids.add(event.getPosition());
+        }
+        if (!ids.isEmpty()) {
+            cacheOutboxMapper.deleteBatchIds(ids);
+        }
+    }
+}
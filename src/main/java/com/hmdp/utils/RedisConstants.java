@@ -10,13 +10,47 @@ public class RedisConstants {
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "dianping:cache:shop:";
+    public static final Double CACHE_SHOP_TTL_JITTER = 0.2;
+    public static final Integer LOCAL_CACHE_SHOP_MAX_SIZE = 10000;
+    public static final Long LOCAL_CACHE_SHOP_TTL = 10L;
+
+    public static final String CACHE_SHOP_TYPE_KEY = "dianping:cache:shop-type:list";
+    public static final String CACHE_SHOP_TYPE_VERSION_KEY = "dianping:cache:shop-type:version";
+
+    public static final String CACHE_BLOG_KEY = "dianping:cache:blog:";
+    public static final String CACHE_USER_KEY = "dianping:cache:user:";
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String BLOOM_FILTER_KEY = "dianping:bloom:";
+    public static final String CACHE_VERSION_KEY = "dianping:cache:version:";
+    public static final Long CACHE_VERSION_TTL = 1L;
+
+    public static final String CACHE_INVALIDATION_CHANNEL = "dianping:cache:invalidation";
+    public static final String CACHE_INVALIDATION_VERSION_KEY = "dianping:cache:invalidation:version:";
 
     public static final String LOCK_SHOP_KEY = "dianping:lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    public static final String BLOG_HOT_KEY = "blog:hot";
+    public static final String BLOG_LIKE_DELTA_KEY = "blog:like-delta";
+    public static final String BLOG_LIKE_FLUSHING_KEY = "blog:like-delta:flushing";
+    public static final String LOCK_BLOG_LIKE_FLUSH_KEY = "dianping:lock:blog-like-flush";
+    public static final String LOCK_BLOG_HOT_REBUILD_KEY = "dianping:lock:blog-hot-rebuild";
+    public static final String LOCK_SHOP_TYPE_REBUILD_KEY = "dianping:lock:shop-type-rebuild";
+    public static final String LOCK_SHOP_GEO_RELOAD_KEY = "dianping:lock:shop-geo-reload";
     public static final String FEED_KEY = "feed:";
+    public static final String FEED_OUTBOX_KEY = "feed:outbox:";
+    public static final String FEED_ACTIVE_KEY = "feed:active";
+    public static final String FEED_CELEBRITY_KEY = "feed:celebrities";
+    public static final String FEED_FANOUT_STREAM_KEY = "feed:fanout:stream";
+    public static final String FEED_FANOUT_PROGRESS_KEY = "feed:fanout:progress";
+    public static final String FEED_FANOUT_DEAD_KEY = "feed:fanout:dead";
+    public static final String FOLLOWS_KEY = "follows:";
+    public static final String FOLLOWS_LOADED_KEY = "follows:loaded:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    public static final String SHOP_GEO_RELOAD_KEY = "shop:geo-reload";
+    public static final String SHOP_GEO_JOURNAL_KEY = "shop:geo-reload:journal";
+    public static final Long SHOP_GEO_RELOAD_TTL = 60L;
     public static final String USER_SIGN_KEY = "sign:";
 }
@@ -0,0 +1,74 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATION_CHANNEL;
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATION_VERSION_KEY;
+
+/**
+ * 基于Redis发布订阅的失效通道，版本号存在Redis的计数器里
+ */
+@Slf4j
+public class RedisInvalidationTransport implements InvalidationTransport {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    public RedisInvalidationTransport(StringRedisTemplate stringRedisTemplate,
+                                      RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+    }
+
+    @Override
+    public void publish(CacheInvalidationMessage message) {
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATION_CHANNEL, JSONUtil.toJsonStr(message));
+    }
+
+    @Override
+    public void subscribe(Consumer<CacheInvalidationMessage> listener) {
+        listenerContainer.addMessageListener((message, pattern) -> {
+            try {
+                String json = new String(message.getBody(), StandardCharsets.UTF_8);
+                listener.accept(JSONUtil.toBean(json, CacheInvalidationMessage.class));
+            } catch (Exception e) {
+                log.error("处理缓存失效消息异常", e);
+            }
+        }, new ChannelTopic(CACHE_INVALIDATION_CHANNEL));
+    }
+
+    @Override
+    public long nextVersion(String keyPrefix) {
+        Long version = stringRedisTemplate.opsForValue().increment(CACHE_INVALIDATION_VERSION_KEY + keyPrefix);
+        return version == null ? 0L : version;
+    }
+
+    @Override
+    public Map<String, Long> currentVersions(Collection<String> keyPrefixes) {
+        List<String> prefixes = new ArrayList<>(keyPrefixes);
+        List<String> keys = new ArrayList<>(prefixes.size());
+        for (String prefix : prefixes) {
+            keys.add(CACHE_INVALIDATION_VERSION_KEY + prefix);
+        }
+        List<String> values = stringRedisTemplate.opsForValue().multiGet(keys);
+        Map<String, Long> result = new HashMap<>(prefixes.size());
+        for (int i = 0; i < prefixes.size(); i++) {
+            String value = values == null ? null : values.get(i);
+            result.put(prefixes.get(i), value == null ? 0L : Long.parseLong(value));
+        }
+        return result;
+    }
+}
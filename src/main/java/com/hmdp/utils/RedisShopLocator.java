@@ -0,0 +1,243 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import com.hmdp.dto.ShopDistance;
+import com.hmdp.entity.Shop;
+import org.springframework.data.geo.Circle;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResult;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.LOCK_SHOP_GEO_RELOAD_KEY;
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_JOURNAL_KEY;
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_RELOAD_KEY;
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_RELOAD_TTL;
+
+/**
+ * 基于Redis GEO的实现，每个类型一个GEO key
+ * Spring Data Redis 2.3没有GEOSEARCH，用语义相同的GEORADIUS
+ */
+public class RedisShopLocator implements ShopLocator {
+
+    private static final String TMP_SUFFIX = ":tmp";
+
+    /**
+     * 最近k个不限距离，用地球半周长作为半径
+     */
+    private static final double MAX_RADIUS_METERS = 20_037_508;
+
+    /**
+     * 写正式key，有重新加载在进行时把这次写入记进日志，日志条目是"类型,商铺id,x,y"（新增）或"类型,商铺id"（删除）
+     * KEYS: 正式key、重新加载标记、日志；ARGV: 商铺id、日志条目、x、y（删除没有坐标）
+     */
+    private static final DefaultRedisScript<Long> UPSERT_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('geoadd', KEYS[1], ARGV[3], ARGV[4], ARGV[1]) " +
+            "if redis.call('exists', KEYS[2]) == 1 then redis.call('rpush', KEYS[3], ARGV[2]) end " +
+            "return 1", Long.class);
+
+    private static final DefaultRedisScript<Long> REMOVE_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('zrem', KEYS[1], ARGV[1]) " +
+            "if redis.call('exists', KEYS[2]) == 1 then redis.call('rpush', KEYS[3], ARGV[2]) end " +
+            "return 1", Long.class);
+
+    /**
+     * 在临时key上按顺序重放日志，再把临时key改名覆盖正式key，最后删掉已经没有商铺的类型，整个过程原子执行
+     * 重放后临时key被删空的类型，说明最后一个商铺在加载期间被删除，正式key也要删掉
+     * KEYS: 重新加载标记、日志；ARGV: 正式key前缀、临时key后缀、加载到的类型数n、n个类型、待删除的正式key
+     */
+    private static final DefaultRedisScript<Long> FINISH_RELOAD_SCRIPT = new DefaultRedisScript<>(
+            "local prefix, suffix, n = ARGV[1], ARGV[2], tonumber(ARGV[3]) " +
+            "local types = {} " +
+            "for i = 4, 3 + n do types[ARGV[i]] = true end " +
+            "for _, entry in ipairs(redis.call('lrange', KEYS[2], 0, -1)) do " +
+            "local f = {} " +
+            "for v in string.gmatch(entry, '[^,]+') do f[#f + 1] = v end " +
+            "types[f[1]] = true " +
+            "if #f == 4 then redis.call('geoadd', prefix .. f[1] .. suffix, f[3], f[4], f[2]) " +
+            "else redis.call('zrem', prefix .. f[1] .. suffix, f[2]) end " +
+            "end " +
+            "local live = {} " +
+            "for typeId in pairs(types) do " +
+            "if redis.call('exists', prefix .. typeId .. suffix) == 1 then " +
+            "redis.call('rename', prefix .. typeId .. suffix, prefix .. typeId) " +
+            "else redis.call('del', prefix .. typeId) end " +
+            "live[prefix .. typeId] = true " +
+            "end " +
+            "for i = 4 + n, #ARGV do if not live[ARGV[i]] then redis.call('del', ARGV[i]) end end " +
+            "redis.call('del', KEYS[1], KEYS[2]) " +
+            "return 1", Long.class);
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedissonClient redissonClient;
+
+    public RedisShopLocator(StringRedisTemplate stringRedisTemplate, RedissonClient redissonClient) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redissonClient = redissonClient;
+    }
+
+    @Override
+    public List<ShopDistance> searchRadius(Long typeId, double x, double y, double radiusMeters, int limit) {
+        // GEORADIUS key x y radius m WITHDIST ASC COUNT limit
+        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().radius(
+                SHOP_GEO_KEY + typeId,
+                new Circle(new Point(x, y), new Distance(radiusMeters, RedisGeoCommands.DistanceUnit.METERS)),
+                RedisGeoCommands.GeoRadiusCommandArgs.newGeoRadiusArgs().includeDistance().sortAscending().limit(limit));
+        if (results == null) {
+            return Collections.emptyList();
+        }
+        List<ShopDistance> shops = new ArrayList<>(results.getContent().size());
+        for (GeoResult<RedisGeoCommands.GeoLocation<String>> result : results) {
+            shops.add(new ShopDistance(Long.valueOf(result.getContent().getName()), result.getDistance().getValue()));
+        }
+        return shops;
+    }
+
+    @Override
+    public List<ShopDistance> nearest(Long typeId, double x, double y, int k) {
+        return searchRadius(typeId, x, y, MAX_RADIUS_METERS, k);
+    }
+
+    @Override
+    public void upsert(Shop shop) {
+        String shopId = shop.getId().toString();
+        stringRedisTemplate.execute(UPSERT_SCRIPT,
+                journalKeys(SHOP_GEO_KEY + shop.getTypeId()),
+                shopId, shop.getTypeId() + "," + shopId + "," + shop.getX() + "," + shop.getY(),
+                shop.getX().toString(), shop.getY().toString());
+    }
+
+    @Override
+    public void remove(Long typeId, Long shopId) {
+        stringRedisTemplate.execute(REMOVE_SCRIPT,
+                journalKeys(SHOP_GEO_KEY + typeId),
+                shopId.toString(), typeId + "," + shopId);
+    }
+
+    /**
+     * 每页按类型分组pipeline写入本次加载独有的临时key，全部写完再rename覆盖正式key，已经删除的商铺在重新加载后也会消失
+     * 各节点都会触发重新加载，加锁保证同一时刻只有一个节点在加载，抢不到锁说明别的节点正在加载，直接返回
+     * 加载期间任何节点的新增、删除都记进Redis里的日志，覆盖前在临时key上重放，分页读到的旧坐标会被覆盖
+     * 已经没有商铺的类型不会生成临时key，rename覆盖不到，要把这些类型的正式key删掉
+     */
+    @Override
+    public void reload(Iterator<List<Shop>> pages) {
+        RLock lock = redissonClient.getLock(LOCK_SHOP_GEO_RELOAD_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            doReload(pages);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void doReload(Iterator<List<Shop>> pages) {
+        String tmpSuffix = TMP_SUFFIX + ":" + UUID.randomUUID().toString(true);
+        // 先开始记日志再读第一页，读到的数据比日志旧，重放后以日志为准
+        stringRedisTemplate.delete(SHOP_GEO_JOURNAL_KEY);
+        stringRedisTemplate.opsForValue().set(SHOP_GEO_RELOAD_KEY, tmpSuffix, SHOP_GEO_RELOAD_TTL, TimeUnit.MINUTES);
+        Set<Long> typeIds = new HashSet<>();
+        boolean finished = false;
+        try {
+            while (pages.hasNext()) {
+                List<Shop> shops = pages.next();
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    for (Shop shop : shops) {
+                        typeIds.add(shop.getTypeId());
+                        conn.geoAdd(SHOP_GEO_KEY + shop.getTypeId() + tmpSuffix,
+                                new Point(shop.getX(), shop.getY()), shop.getId().toString());
+                    }
+                    return null;
+                });
+            }
+            List<String> args = new ArrayList<>();
+            args.add(SHOP_GEO_KEY);
+            args.add(tmpSuffix);
+            args.add(String.valueOf(typeIds.size()));
+            Set<String> loaded = new HashSet<>();
+            for (Long typeId : typeIds) {
+                args.add(typeId.toString());
+                loaded.add(SHOP_GEO_KEY + typeId);
+            }
+            List<String> orphans = new ArrayList<>();
+            for (String key : liveKeys()) {
+                if (key.contains(TMP_SUFFIX)) {
+                    // 持有锁时别的临时key都是中断的加载留下的
+                    if (!key.endsWith(tmpSuffix)) {
+                        orphans.add(key);
+                    }
+                } else if (!loaded.contains(key)) {
+                    args.add(key);
+                }
+            }
+            if (!orphans.isEmpty()) {
+                stringRedisTemplate.delete(orphans);
+            }
+            stringRedisTemplate.execute(FINISH_RELOAD_SCRIPT,
+                    Arrays.asList(SHOP_GEO_RELOAD_KEY, SHOP_GEO_JOURNAL_KEY), args.toArray());
+            finished = true;
+        } finally {
+            if (!finished) {
+                List<String> keys = new ArrayList<>();
+                keys.add(SHOP_GEO_RELOAD_KEY);
+                keys.add(SHOP_GEO_JOURNAL_KEY);
+                for (Long typeId : typeIds) {
+                    keys.add(SHOP_GEO_KEY + typeId + tmpSuffix);
+                }
+                stringRedisTemplate.delete(keys);
+            }
+        }
+    }
+
+    private static List<String> journalKeys(String key) {
+        List<String> keys = new ArrayList<>(3);
+        keys.add(key);
+        keys.add(SHOP_GEO_RELOAD_KEY);
+        keys.add(SHOP_GEO_JOURNAL_KEY);
+        return keys;
+    }
+
+    /**
+     * SCAN出所有shop:geo:前缀的key，不用KEYS阻塞Redis
+     */
+    private List<String> liveKeys() {
+        return stringRedisTemplate.execute((RedisCallback<List<String>>) connection -> {
+            List<String> keys = new ArrayList<>();
+            ScanOptions options = ScanOptions.scanOptions().match(SHOP_GEO_KEY + "*").count(100).build();
+            try (Cursor<byte[]> cursor = connection.scan(options)) {
+                while (cursor.hasNext()) {
+                    keys.add(new String(cursor.next(), StandardCharsets.UTF_8));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return keys;
+        });
+    }
+}
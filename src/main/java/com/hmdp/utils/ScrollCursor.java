@@ -0,0 +1,54 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * 游标分页的游标编解码，内容是上一页最后一条记录的排序字段，对前端不透明
+ */
+public class ScrollCursor {
+
+    private static final String SEPARATOR = ",";
+
+    private ScrollCursor() {
+    }
+
+    public static String encode(long... values) {
+        StringBuilder sb = new StringBuilder();
+        for (long value : values) {
+            if (sb.length() > 0) {
+                sb.append(SEPARATOR);
+            }
+            sb.append(value);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param size 游标里应有的字段个数
+     * @return 空游标返回长度为0的数组表示第一页，格式不对返回null
+     */
+    public static long[] decode(String cursor, int size) {
+        if (StrUtil.isBlank(cursor)) {
+            return new long[0];
+        }
+        try {
+            String text = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            List<String> parts = StrUtil.split(text, SEPARATOR);
+            if (parts.size() != size) {
+                return null;
+            }
+            long[] values = new long[size];
+            for (int i = 0; i < size; i++) {
+                values[i] = Long.parseLong(parts.get(i));
+            }
+            return values;
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException也是IllegalArgumentException
+            return null;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
+
+/**
+ * 商铺逻辑过期缓存预热
+ * 1.启动时按主键分页扫描tb_shop，每页一次pipeline写入逻辑过期缓存
+ * 2.定时全量重刷，逻辑过期时间带随机值，不会集中过期
+ * 3.每页之间停顿一下，避免预热把数据库打满
+ * 逻辑过期和直接缓存对象共用商铺的key，只有查询走逻辑过期方案时才开启；没开启时手动触发也会被拒绝。
+ */
+@Slf4j
+@Component
+public class ShopCacheWarmer implements ApplicationRunner {
+
+    private final ShopMapper shopMapper;
+
+    private final CacheClient cacheClient;
+
+    @Value("${hmdp.cache.warmup.enabled:false}")
+    private boolean enabled;
+
+    @Value("${hmdp.cache.warmup.page-size:500}")
+    private int pageSize;
+
+    @Value("${hmdp.cache.warmup.throttle-millis:20}")
+    private long throttleMillis;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private volatile Progress progress = new Progress("IDLE");
+
+    /**
+     * 手动触发的预热在这个线程里跑，不占用请求线程
+     */
+    private final ExecutorService manualExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "shop-cache-warmup");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ShopCacheWarmer(ShopMapper shopMapper, CacheClient cacheClient) {
+        this.shopMapper = shopMapper;
+        this.cacheClient = cacheClient;
+    }
+
+    /**
+     * 开启预热说明商铺走逻辑过期方案，在任何查询之前标记，批量查询回填的也是逻辑过期格式
+     */
+    @PostConstruct
+    public void init() {
+        if (enabled) {
+            cacheClient.enableLogicalExpire(CACHE_SHOP_KEY);
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        manualExecutor.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 启动时同步预热，预热完成前应用不算启动完成
+     */
+    @Override
+    public void run(ApplicationArguments args) {
+        if (enabled) {
+            warmup();
+        }
+    }
+
+    /**
+     * 定时全量重刷
+     */
+    @Scheduled(initialDelayString = "${hmdp.cache.warmup.interval:1800000}",
+            fixedDelayString = "${hmdp.cache.warmup.interval:1800000}")
+    public void scheduledWarmup() {
+        if (enabled) {
+            warmup();
+        }
+    }
+
+    /**
+     * 在当前线程执行一次全量预热，没开启或已经有预热在跑时直接返回false
+     */
+    public boolean warmup() {
+        if (!start()) {
+            return false;
+        }
+        doWarmup();
+        return true;
+    }
+
+    /**
+     * 在后台线程执行一次全量预热，立即返回是否已经开始，进度通过progress查询
+     */
+    public boolean warmupAsync() {
+        if (!start()) {
+            return false;
+        }
+        try {
+            manualExecutor.execute(this::doWarmup);
+        } catch (RuntimeException e) {
+            running.set(false);
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * 没开启预热时商铺查询不走逻辑过期，写入不过期的RedisData会让普通查询读到错误的格式
+     */
+    private boolean start() {
+        if (!enabled || !running.compareAndSet(false, true)) {
+            return false;
+        }
+        progress = new Progress("RUNNING");
+        return true;
+    }
+
+    private void doWarmup() {
+        Progress current = progress;
+        try {
+            Integer total = shopMapper.selectCount(null);
+            current.total = total == null ? 0 : total;
+            long lastId = 0;
+            while (true) {
+                List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                        .gt("id", lastId).orderByAsc("id").last("limit " + pageSize));
+                if (shops.isEmpty()) {
+                    break;
+                }
+                Map<String, Shop> values = new LinkedHashMap<>(shops.size() * 2);
+                for (Shop shop : shops) {
+                    values.put(CACHE_SHOP_KEY + shop.getId(), shop);
+                }
+                cacheClient.setWithLogicalExpireBatch(values, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+                lastId = shops.get(shops.size() - 1).getId();
+                current.lastId = lastId;
+                current.written += shops.size();
+                if (shops.size() < pageSize) {
+                    break;
+                }
+                Thread.sleep(throttleMillis);
+            }
+            current.status = "FINISHED";
+            log.info("商铺缓存预热完成，共{}条，耗时{}ms",
+                    current.written, System.currentTimeMillis() - current.startTime);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            current.status = "INTERRUPTED";
+        } catch (Exception e) {
+            current.status = "FAILED";
+            current.error = e.getMessage();
+            log.error("商铺缓存预热失败，已写入{}条", current.written, e);
+        } finally {
+            current.finishTime = System.currentTimeMillis();
+            running.set(false);
+        }
+    }
+
+    /**
+     * 最近一次预热的进度
+     */
+    public Map<String, Object> progress() {
+        Progress current = progress;
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("enabled", enabled);
+        result.put("status", current.status);
+        result.put("total", current.total);
+        result.put("written", current.written);
+        result.put("lastId", current.lastId);
+        result.put("startTime", current.startTime);
+        result.put("finishTime", current.finishTime);
+        result.put("error", current.error);
+        return result;
+    }
+
+    private static class Progress {
+        private volatile String status;
+        private volatile long total;
+        private volatile long written;
+        private volatile long lastId;
+        private final long startTime = System.currentTimeMillis();
+        private volatile long finishTime;
+        private volatile String error;
+
+        private Progress(String status) {
+            this.status = status;
+        }
+    }
+}
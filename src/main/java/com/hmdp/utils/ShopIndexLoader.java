@@ -0,0 +1,70 @@
+package com.hmdp.utils;
+
+import com.hmdp.service.IShopService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+
+/**
+ * 启动时全量加载商铺的附近商铺索引和搜索索引，之后由新增、更新商铺时增量维护
+ * 进程内索引收不到其他节点的增量更新，另外定时全量重建一次
+ */
+@Slf4j
+@Component
+public class ShopIndexLoader implements ApplicationRunner {
+
+    @Resource
+    private IShopService shopService;
+
+    @Value("${hmdp.shop.geo.load-on-startup:true}")
+    private boolean loadGeoOnStartup;
+
+    /**
+     * 只有进程内索引需要定时重建，Redis GEO各节点共享，增量维护已经足够
+     */
+    @Value("#{'${hmdp.shop.geo.locator:redis}' == 'memory'}")
+    private boolean reloadGeo;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (loadGeoOnStartup) {
+            loadGeo();
+        }
+        loadSearch();
+    }
+
+    @Scheduled(initialDelayString = "${hmdp.shop.geo.reload-interval:600000}",
+            fixedDelayString = "${hmdp.shop.geo.reload-interval:600000}")
+    public void reloadGeo() {
+        if (reloadGeo) {
+            loadGeo();
+        }
+    }
+
+    @Scheduled(initialDelayString = "${hmdp.shop.search.reload-interval:600000}",
+            fixedDelayString = "${hmdp.shop.search.reload-interval:600000}")
+    public void reloadSearch() {
+        loadSearch();
+    }
+
+    private void loadGeo() {
+        try {
+            shopService.loadShopGeo();
+        } catch (Exception e) {
+            log.error("加载附近商铺索引失败，继续使用旧数据", e);
+        }
+    }
+
+    private void loadSearch() {
+        try {
+            shopService.loadShopSearchIndex();
+        } catch (Exception e) {
+            log.error("加载商铺搜索索引失败，继续使用旧数据", e);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.ShopDistance;
+import com.hmdp.entity.Shop;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 按类型查询附近商铺，有Redis GEO和进程内网格两种实现，通过hmdp.shop.geo.locator切换
+ */
+public interface ShopLocator {
+
+    /**
+     * 半径内的商铺，按距离由近到远
+     * @param limit 最多返回多少个
+     */
+    List<ShopDistance> searchRadius(Long typeId, double x, double y, double radiusMeters, int limit);
+
+    /**
+     * 最近的k个商铺，不限距离
+     */
+    List<ShopDistance> nearest(Long typeId, double x, double y, int k);
+
+    /**
+     * 新增或移动一个商铺，shop需要带id、typeId、x、y
+     */
+    void upsert(Shop shop);
+
+    void remove(Long typeId, Long shopId);
+
+    /**
+     * 全量重建，pages逐页给出所有商铺，重建完成前查询仍使用旧数据
+     */
+    void reload(Iterator<List<Shop>> pages);
+}
@@ -0,0 +1,317 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.entity.Shop;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * 商铺名称、商圈、地址的进程内倒排索引，替代LIKE '%name%'全表扫描
+ * 1.中文没有空格分词，按单字和相邻两字（n-gram）建倒排，查询词拆成同样的gram求交集，再校验原文包含查询词，语义和LIKE一致
+ * 2.名称前缀匹配 > 名称包含 > 商圈包含 > 地址包含，同一档按评分、销量倒序
+ * 3.按名称前缀联想，用有序map取出前缀区间
+ * 新增、修改商铺时增量更新，其他节点的修改靠定时全量重建同步。
+ */
+@Component
+public class ShopSearchIndex {
+
+    private static final int GRAM = 2;
+
+    private static final int RANK_NAME_PREFIX = 3;
+    private static final int RANK_NAME = 2;
+    private static final int RANK_AREA = 1;
+    private static final int RANK_ADDRESS = 0;
+
+    private static final Comparator<Hit> HIT_ORDER = Comparator.<Hit>comparingInt(hit -> hit.rank).reversed()
+            .thenComparing(Comparator.<Hit>comparingInt(hit -> hit.doc.score).reversed())
+            .thenComparing(Comparator.<Hit>comparingInt(hit -> hit.doc.sold).reversed())
+            .thenComparingLong(hit -> hit.doc.id);
+
+    private volatile Index index = new Index();
+
+    /**
+     * 保护写入和索引替换，写入不会落到刚被替换掉的旧索引上
+     */
+    private final Object writeLock = new Object();
+
+    /**
+     * 重建期间的写入，替换前在新索引上重放；不在重建时为null
+     */
+    private List<Consumer<Index>> writesDuringReload;
+
+    /**
+     * 搜索商铺，按相关度、评分、销量排序
+     * @return 命中的商铺id，offset开始最多limit个
+     */
+    public List<Long> search(String keyword, int offset, int limit) {
+        String query = normalize(keyword);
+        if (query.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        Index current = index;
+        List<Hit> hits = new ArrayList<>();
+        current.lock.readLock().lock();
+        try {
+            for (Long id : current.candidates(query)) {
+                Doc doc = current.docs.get(id);
+                int rank = doc.rank(query);
+                if (rank >= 0) {
+                    hits.add(new Hit(doc, rank));
+                }
+            }
+        } finally {
+            current.lock.readLock().unlock();
+        }
+        if (hits.size() <= offset) {
+            return Collections.emptyList();
+        }
+        hits.sort(HIT_ORDER);
+        List<Long> ids = new ArrayList<>(Math.min(limit, hits.size() - offset));
+        for (Hit hit : hits.subList(offset, Math.min(hits.size(), offset + limit))) {
+            ids.add(hit.doc.id);
+        }
+        return ids;
+    }
+
+    /**
+     * 名称联想：以prefix开头的商铺名称，按评分、销量倒序，名称去重
+     */
+    public List<String> suggest(String prefix, int limit) {
+        String query = normalize(prefix);
+        if (query.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        Index current = index;
+        List<Doc> docs = new ArrayList<>();
+        current.lock.readLock().lock();
+        try {
+            for (Set<Long> ids : current.names.subMap(query, query + Character.MAX_VALUE).values()) {
+                for (Long id : ids) {
+                    docs.add(current.docs.get(id));
+                }
+            }
+        } finally {
+            current.lock.readLock().unlock();
+        }
+        docs.sort(Comparator.<Doc>comparingInt(doc -> doc.score).reversed()
+                .thenComparing(Comparator.<Doc>comparingInt(doc -> doc.sold).reversed()));
+        Set<String> names = new LinkedHashSet<>();
+        for (Doc doc : docs) {
+            if (names.size() >= limit) {
+                break;
+            }
+            names.add(doc.displayName);
+        }
+        return new ArrayList<>(names);
+    }
+
+    /**
+     * 新增或修改商铺，shop需要带name、area、address、score、sold
+     */
+    public void upsert(Shop shop) {
+        Doc doc = new Doc(shop);
+        write(target -> {
+            target.remove(doc.id);
+            target.add(doc);
+        });
+    }
+
+    public void remove(Long shopId) {
+        write(target -> target.remove(shopId));
+    }
+
+    /**
+     * 在新的索引上全量构建，完成后整体替换，构建期间查询读的是旧索引
+     * 构建期间的写入先写旧索引并记录下来，替换前在新索引上按顺序重放，分页读到的旧数据会被覆盖
+     */
+    public synchronized void reload(Iterator<List<Shop>> pages) {
+        synchronized (writeLock) {
+            writesDuringReload = new ArrayList<>();
+        }
+        try {
+            Index fresh = new Index();
+            while (pages.hasNext()) {
+                for (Shop shop : pages.next()) {
+                    fresh.add(new Doc(shop));
+                }
+            }
+            synchronized (writeLock) {
+                for (Consumer<Index> write : writesDuringReload) {
+                    write.accept(fresh);
+                }
+                index = fresh;
+            }
+        } finally {
+            synchronized (writeLock) {
+                writesDuringReload = null;
+            }
+        }
+    }
+
+    private void write(Consumer<Index> write) {
+        synchronized (writeLock) {
+            Index current = index;
+            current.lock.writeLock().lock();
+            try {
+                write.accept(current);
+            } finally {
+                current.lock.writeLock().unlock();
+            }
+            if (writesDuringReload != null) {
+                writesDuringReload.add(write);
+            }
+        }
+    }
+
+    public int size() {
+        return index.docs.size();
+    }
+
+    /**
+     * 去掉空白并转小写，英文和数字不区分大小写
+     */
+    static String normalize(String text) {
+        return text == null ? "" : StrUtil.cleanBlank(text).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 单字和相邻两字，查询词只取两字gram（只有一个字时取单字），足够筛出候选
+     */
+    static Set<String> grams(String text, boolean forQuery) {
+        Set<String> grams = new HashSet<>();
+        if (forQuery && text.length() >= GRAM) {
+            for (int i = 0; i + GRAM <= text.length(); i++) {
+                grams.add(text.substring(i, i + GRAM));
+            }
+            return grams;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            grams.add(text.substring(i, i + 1));
+            if (!forQuery && i + GRAM <= text.length()) {
+                grams.add(text.substring(i, i + GRAM));
+            }
+        }
+        return grams;
+    }
+
+    private static class Doc {
+        private final long id;
+        private final String displayName;
+        private final String name;
+        private final String area;
+        private final String address;
+        private final int score;
+        private final int sold;
+
+        private Doc(Shop shop) {
+            this.id = shop.getId();
+            this.displayName = StrUtil.nullToEmpty(shop.getName());
+            this.name = normalize(shop.getName());
+            this.area = normalize(shop.getArea());
+            this.address = normalize(shop.getAddress());
+            this.score = shop.getScore() == null ? 0 : shop.getScore();
+            this.sold = shop.getSold() == null ? 0 : shop.getSold();
+        }
+
+        /**
+         * @return 命中档位，-1表示gram都命中但原文不包含查询词
+         */
+        private int rank(String query) {
+            if (name.startsWith(query)) {
+                return RANK_NAME_PREFIX;
+            }
+            if (name.contains(query)) {
+                return RANK_NAME;
+            }
+            if (area.contains(query)) {
+                return RANK_AREA;
+            }
+            return address.contains(query) ? RANK_ADDRESS : -1;
+        }
+
+        private Set<String> grams() {
+            Set<String> grams = ShopSearchIndex.grams(name, false);
+            grams.addAll(ShopSearchIndex.grams(area, false));
+            grams.addAll(ShopSearchIndex.grams(address, false));
+            return grams;
+        }
+    }
+
+    private static class Hit {
+        private final Doc doc;
+        private final int rank;
+
+        private Hit(Doc doc, int rank) {
+            this.doc = doc;
+            this.rank = rank;
+        }
+    }
+
+    private static class Index {
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Map<Long, Doc> docs = new HashMap<>();
+        private final Map<String, Set<Long>> postings = new HashMap<>();
+        private final TreeMap<String, Set<Long>> names = new TreeMap<>();
+
+        private void add(Doc doc) {
+            docs.put(doc.id, doc);
+            for (String gram : doc.grams()) {
+                postings.computeIfAbsent(gram, key -> new HashSet<>()).add(doc.id);
+            }
+            names.computeIfAbsent(doc.name, key -> new HashSet<>()).add(doc.id);
+        }
+
+        private void remove(Long id) {
+            Doc doc = docs.remove(id);
+            if (doc == null) {
+                return;
+            }
+            for (String gram : doc.grams()) {
+                removeFrom(postings, gram, id);
+            }
+            removeFrom(names, doc.name, id);
+        }
+
+        /**
+         * 所有gram的倒排求交集，从最短的开始
+         */
+        private Set<Long> candidates(String query) {
+            List<Set<Long>> lists = new ArrayList<>();
+            for (String gram : grams(query, true)) {
+                Set<Long> ids = postings.get(gram);
+                if (ids == null) {
+                    return Collections.emptySet();
+                }
+                lists.add(ids);
+            }
+            lists.sort(Comparator.comparingInt(Set::size));
+            Set<Long> result = new HashSet<>(lists.get(0));
+            for (int i = 1; i < lists.size() && !result.isEmpty(); i++) {
+                result.retainAll(lists.get(i));
+            }
+            return result;
+        }
+
+        private static void removeFrom(Map<String, Set<Long>> map, String key, Long id) {
+            Set<Long> ids = map.get(key);
+            if (ids != null && ids.remove(id) && ids.isEmpty()) {
+                map.remove(key);
+            }
+        }
+    }
+}
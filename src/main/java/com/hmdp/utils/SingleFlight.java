@@ -0,0 +1,95 @@
+package com.hmdp.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 进程内的请求合并（single-flight）
+ * 同一个key同一时刻只有第一个线程真正执行加载，其余线程挂在同一个future上等结果，加载完成后统一唤醒。
+ */
+public class SingleFlight {
+
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> calls = new ConcurrentHashMap<>();
+
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder shared = new LongAdder();
+
+    /**
+     * 执行或加入一次加载
+     * @param key 合并的维度，一般就是缓存key
+     * @param loader 真正的加载逻辑，只会被其中一个线程执行
+     * @param timeout 等待方最长等待时间
+     * @param unit 时间单位
+     * @return 加载结果，所有等待方拿到的是同一个对象
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Supplier<T> loader, long timeout, TimeUnit unit) {
+        CompletableFuture<Object> call = new CompletableFuture<>();
+        CompletableFuture<Object> existing = calls.putIfAbsent(key, call);
+        if (existing != null) {
+            // 已经有线程在加载，等它的结果
+            shared.increment();
+            return (T) await(existing, timeout, unit);
+        }
+        executions.increment();
+        try {
+            T result = loader.get();
+            call.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, call);
+        }
+    }
+
+    /**
+     * 合并统计：真正执行加载的次数、复用别人结果的次数、正在加载的key数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("executions", getExecutions());
+        stats.put("shared", getShared());
+        stats.put("inFlight", calls.size());
+        return stats;
+    }
+
+    /**
+     * 真正执行加载的次数
+     */
+    public long getExecutions() {
+        return executions.sum();
+    }
+
+    /**
+     * 直接复用别人加载结果的次数
+     */
+    public long getShared() {
+        return shared.sum();
+    }
+
+    private static Object await(CompletableFuture<Object> call, long timeout, TimeUnit unit) {
+        try {
+            return call.get(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (TimeoutException e) {
+            throw new RuntimeException("等待缓存重建超时", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+-- ----------------------------
+-- 缓存失效管道的变更捕获触发器，把tb_shop、tb_blog、tb_user的变更写入tb_cache_outbox
+-- 只在开启hmdp.cache.cdc.enabled时执行，没有管道消费时outbox会无限增长
+-- 关闭管道前先执行文件末尾注释掉的DROP TRIGGER
+-- ----------------------------
+
+-- ----------------------------
+-- Triggers structure for table tb_blog
+-- ----------------------------
+DROP TRIGGER IF EXISTS `trg_blog_after_insert`;
+delimiter ;;
+CREATE TRIGGER `trg_blog_after_insert` AFTER INSERT ON `tb_blog` FOR EACH ROW INSERT INTO `tb_cache_outbox`(`table_name`, `row_id`, `op`) VALUES ('tb_blog', NEW.id, 'INSERT')
+;;
+delimiter ;
+
+DROP TRIGGER IF EXISTS `trg_blog_after_update`;
+delimiter ;;
+CREATE TRIGGER `trg_blog_after_update` AFTER UPDATE ON `tb_blog` FOR EACH ROW INSERT INTO `tb_cache_outbox`(`table_name`, `row_id`, `op`) VALUES ('tb_blog', NEW.id, 'UPDATE')
+;;
+delimiter ;
+
+DROP TRIGGER IF EXISTS `trg_blog_after_delete`;
+delimiter ;;
+CREATE TRIGGER `trg_blog_after_delete` AFTER DELETE ON `tb_blog` FOR EACH ROW INSERT INTO `tb_cache_outbox`(`table_name`, `row_id`, `op`) VALUES ('tb_blog', OLD.id, 'DELETE')
+;;
+delimiter ;
+
+-- ----------------------------
+-- Triggers structure for table tb_shop
+-- ----------------------------
+DROP TRIGGER IF EXISTS `trg_shop_after_insert`;
+delimiter ;;
+CREATE TRIGGER `trg_shop_after_insert` AFTER INSERT ON `tb_shop` FOR EACH ROW INSERT INTO `tb_cache_outbox`(`table_name`, `row_id`, `op`) VALUES ('tb_shop', NEW.id, 'INSERT')
+;;
+delimiter ;
+
+DROP TRIGGER IF EXISTS `trg_shop_after_update`;
+delimiter ;;
+CREATE TRIGGER `trg_shop_after_update` AFTER UPDATE ON `tb_shop` FOR EACH ROW INSERT INTO `tb_cache_outbox`(`table_name`, `row_id`, `op`) VALUES ('tb_shop', NEW.id, 'UPDATE')
+;;
+delimiter ;
+
+DROP TRIGGER IF EXISTS `trg_shop_after_delete`;
+delimiter ;;
+CREATE TRIGGER `trg_shop_after_delete` AFTER DELETE ON `tb_shop` FOR EACH ROW INSERT INTO `tb_cache_outbox`(`table_name`, `row_id`, `op`) VALUES ('tb_shop', OLD.id, 'DELETE')
+;;
+delimiter ;
+
+-- ----------------------------
+-- Triggers structure for table tb_user
+-- ----------------------------
+DROP TRIGGER IF EXISTS `trg_user_after_insert`;
+delimiter ;;
+CREATE TRIGGER `trg_user_after_insert` AFTER INSERT ON `tb_user` FOR EACH ROW INSERT INTO `tb_cache_outbox`(`table_name`, `row_id`, `op`) VALUES ('tb_user', NEW.id, 'INSERT')
+;;
+delimiter ;
+
+DROP TRIGGER IF EXISTS `trg_user_after_update`;
+delimiter ;;
+CREATE TRIGGER `trg_user_after_update` AFTER UPDATE ON `tb_user` FOR EACH ROW INSERT INTO `tb_cache_outbox`(`table_name`, `row_id`, `op`) VALUES ('tb_user', NEW.id, 'UPDATE')
+;;
+delimiter ;
+
+DROP TRIGGER IF EXISTS `trg_user_after_delete`;
+delimiter ;;
+CREATE TRIGGER `trg_user_after_delete` AFTER DELETE ON `tb_user` FOR EACH ROW INSERT INTO `tb_cache_outbox`(`table_name`, `row_id`, `op`) VALUES ('tb_user', OLD.id, 'DELETE')
+;;
+delimiter ;
+
+-- DROP TRIGGER IF EXISTS `trg_blog_after_insert`;
+-- DROP TRIGGER IF EXISTS `trg_blog_after_update`;
+-- DROP TRIGGER IF EXISTS `trg_blog_after_delete`;
+-- DROP TRIGGER IF EXISTS `trg_shop_after_insert`;
+-- DROP TRIGGER IF EXISTS `trg_shop_after_update`;
+-- DROP TRIGGER IF EXISTS `trg_shop_after_delete`;
+-- DROP TRIGGER IF EXISTS `trg_user_after_insert`;
+-- DROP TRIGGER IF EXISTS `trg_user_after_update`;
+-- DROP TRIGGER IF EXISTS `trg_user_after_delete`;
@@ -0,0 +1,163 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.User;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.BlogHotRanking;
+import com.hmdp.utils.BlogLikeBuffer;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidationBus;
+import com.hmdp.utils.CacheRebuildExecutor;
+import com.hmdp.utils.FakeRedis;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.IdBloomFilters;
+import com.hmdp.utils.LocalCacheManager;
+import com.hmdp.utils.UserHolder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BlogServiceImplTest {
+
+    private static final long USER_ID = 100L;
+
+    private FakeRedis redis;
+    private CacheRebuildExecutor rebuildExecutor;
+    private CacheClient cacheClient;
+    private BlogMapper blogMapper;
+    private IUserService userService;
+    private BlogHotRanking blogHotRanking;
+    private BlogServiceImpl blogService;
+
+    @BeforeEach
+    void setUp() {
+        redis = new FakeRedis();
+        IdBloomFilters bloomFilters = mock(IdBloomFilters.class);
+        when(bloomFilters.mightContain(any(), any())).thenReturn(true);
+        rebuildExecutor = new CacheRebuildExecutor(1, 10);
+        HotKeyDetector hotKeyDetector = new HotKeyDetector(0, 1000, 20, 3000);
+        cacheClient = new CacheClient(redis.template, new LocalCacheManager(), mock(CacheInvalidationBus.class),
+                bloomFilters, rebuildExecutor, hotKeyDetector);
+        blogMapper = mock(BlogMapper.class);
+        userService = mock(IUserService.class);
+        when(userService.listByIds(anyCollection())).thenAnswer(invocation -> {
+            List<User> users = new ArrayList<>();
+            for (Object id : (Collection<?>) invocation.getArgument(0)) {
+                long userId = ((Number) id).longValue();
+                users.add(new User().setId(userId).setNickName("user" + userId));
+            }
+            return users;
+        });
+        blogHotRanking = mock(BlogHotRanking.class);
+
+        blogService = new BlogServiceImpl();
+        ReflectionTestUtils.setField(blogService, "baseMapper", blogMapper);
+        ReflectionTestUtils.setField(blogService, "userService", userService);
+        ReflectionTestUtils.setField(blogService, "stringRedisTemplate", redis.template);
+        ReflectionTestUtils.setField(blogService, "idBloomFilters", bloomFilters);
+        ReflectionTestUtils.setField(blogService, "cacheClient", cacheClient);
+        ReflectionTestUtils.setField(blogService, "hotKeyDetector", hotKeyDetector);
+        ReflectionTestUtils.setField(blogService, "blogHotRanking", blogHotRanking);
+        ReflectionTestUtils.setField(blogService, "blogLikeBuffer", new BlogLikeBuffer(redis.template, blogMapper,
+                mock(RedissonClient.class), mock(TransactionTemplate.class), 500));
+        UserDTO user = new UserDTO();
+        user.setId(USER_ID);
+        UserHolder.saveUser(user);
+    }
+
+    @AfterEach
+    void tearDown() {
+        UserHolder.removeUser();
+        rebuildExecutor.shutdown();
+        cacheClient.destroy();
+    }
+
+    /**
+     * 热门排行这一页有count篇笔记，每篇作者不同
+     */
+    private void hotPage(int count) {
+        Set<ZSetOperations.TypedTuple<String>> tuples = new LinkedHashSet<>();
+        for (long id = 1; id <= count; id++) {
+            tuples.add(new DefaultTypedTuple<>(String.valueOf(id), (double) (count - id)));
+        }
+        when(blogHotRanking.range(anyLong(), anyLong())).thenReturn(tuples);
+        when(blogMapper.selectBatchIds(anyCollection())).thenAnswer(invocation -> {
+            List<Blog> blogs = new ArrayList<>();
+            for (Object id : (Collection<?>) invocation.getArgument(0)) {
+                long blogId = ((Number) id).longValue();
+                blogs.add(new Blog().setId(blogId).setUserId(1000 + blogId).setLiked(10));
+            }
+            return blogs;
+        });
+    }
+
+    /**
+     * 查一页热门笔记，返回这次和Redis的往返次数
+     */
+    private int hotBlogRoundTrips(int count) {
+        hotPage(count);
+        int before = redis.roundTrips.get();
+        blogService.queryHotBlog(1);
+        return redis.roundTrips.get() - before;
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void hydratesAuthorsAndLikesInBatches() {
+        hotPage(10);
+        redis.zsets.put("blog:liked:3", new java.util.HashMap<>(Collections.singletonMap(String.valueOf(USER_ID), 1.0)));
+        redis.hash("blog:like-delta").put("3", "2");
+
+        Result result = blogService.queryHotBlog(1);
+        List<Blog> blogs = (List<Blog>) result.getData();
+        assertEquals(10, blogs.size());
+        assertEquals("user1003", blogs.get(2).getName());
+        assertTrue(blogs.get(2).getIsLike());
+        assertFalse(blogs.get(3).getIsLike());
+        assertEquals(12, blogs.get(2).getLiked());
+        // 10个作者一次IN查询
+        verify(userService, times(1)).listByIds(anyCollection());
+    }
+
+    @Test
+    void roundTripsDoNotGrowWithPageSize() {
+        // 作者缓存未命中：MGET、回填pipeline、点赞增量pipeline、点赞状态pipeline
+        assertEquals(4, hotBlogRoundTrips(2));
+        redis.values.clear();
+        assertEquals(4, hotBlogRoundTrips(10));
+        // 作者缓存命中后不再回填
+        assertEquals(3, hotBlogRoundTrips(10));
+    }
+
+    @Test
+    void likeBlogReturnsToggledState() {
+        assertEquals(Boolean.TRUE, blogService.likeBlog(1L).getData());
+        assertEquals(Boolean.FALSE, blogService.likeBlog(1L).getData());
+        assertEquals(Boolean.TRUE, blogService.likeBlog(1L).getData());
+        assertEquals("1", redis.hash("blog:like-delta").get("1"));
+    }
+}
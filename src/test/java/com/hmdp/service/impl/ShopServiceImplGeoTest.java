@@ -0,0 +1,102 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.dto.CursorResult;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.utils.GridShopLocator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 按距离分页，索引用进程内网格，和Redis GEO的结果语义一致
+ */
+class ShopServiceImplGeoTest {
+
+    private static final int TYPE_ID = 1;
+    private static final double X = 120.0;
+    private static final double Y = 30.0;
+
+    private ShopServiceImpl shopService;
+
+    @BeforeEach
+    void setUp() {
+        // 商铺i在正北方向约111 * i米，商铺13在5公里之外
+        Map<Long, Shop> shops = new HashMap<>();
+        for (long id = 1; id <= 12; id++) {
+            shops.put(id, new Shop().setId(id).setTypeId((long) TYPE_ID).setX(X).setY(Y + id * 0.001));
+        }
+        shops.put(13L, new Shop().setId(13L).setTypeId((long) TYPE_ID).setX(X).setY(Y + 0.1));
+        GridShopLocator locator = new GridShopLocator(0.01);
+        locator.reload(Collections.singletonList((List<Shop>) new ArrayList<>(shops.values())).iterator());
+
+        ShopMapper shopMapper = mock(ShopMapper.class);
+        // 数据库按任意顺序返回，由服务按距离重排
+        when(shopMapper.selectBatchIds(anyCollection())).thenAnswer(invocation -> {
+            List<Shop> found = new ArrayList<>();
+            for (Object id : (Collection<?>) invocation.getArgument(0)) {
+                found.add(0, shops.get(((Number) id).longValue()));
+            }
+            return found;
+        });
+        shopService = new ShopServiceImpl();
+        ReflectionTestUtils.setField(shopService, "baseMapper", shopMapper);
+        ReflectionTestUtils.setField(shopService, "shopLocator", locator);
+        ReflectionTestUtils.setField(shopService, "geoRadius", 5000d);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Long> ids(Object shops) {
+        return ((List<Shop>) shops).stream().map(Shop::getId).collect(Collectors.toList());
+    }
+
+    private static List<Long> range(long from, long to) {
+        return LongStream.rangeClosed(from, to).boxed().collect(Collectors.toList());
+    }
+
+    @Test
+    void pagesByDistance() {
+        Result page1 = shopService.queryShopByType(TYPE_ID, 1, X, Y);
+        assertEquals(range(1, 5), ids(page1.getData()));
+        @SuppressWarnings("unchecked")
+        List<Shop> shops = (List<Shop>) page1.getData();
+        for (int i = 1; i < shops.size(); i++) {
+            assertTrue(shops.get(i - 1).getDistance() < shops.get(i).getDistance());
+        }
+        assertEquals(range(6, 10), ids(shopService.queryShopByType(TYPE_ID, 2, X, Y).getData()));
+        // 最后一页不满，5公里外的不出现
+        assertEquals(Arrays.asList(11L, 12L), ids(shopService.queryShopByType(TYPE_ID, 3, X, Y).getData()));
+        assertTrue(ids(shopService.queryShopByType(TYPE_ID, 4, X, Y).getData()).isEmpty());
+    }
+
+    @Test
+    void scrollMatchesPages() {
+        List<Long> all = new ArrayList<>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            CursorResult result = (CursorResult) shopService.queryShopByTypeScroll(TYPE_ID, cursor, X, Y).getData();
+            all.addAll(ids(result.getList()));
+            cursor = result.getNextCursor();
+            pages++;
+        } while (cursor != null);
+        assertEquals(range(1, 12), all);
+        assertEquals(3, pages);
+    }
+}
@@ -0,0 +1,108 @@
+package com.hmdp.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.controller.ShopTypeController;
+import com.hmdp.dto.SerializedResult;
+import com.hmdp.entity.ShopType;
+import com.hmdp.mapper.ShopTypeMapper;
+import com.hmdp.utils.FakeRedis;
+import com.hmdp.utils.RedisConstants;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ShopTypeServiceImplTest {
+
+    private FakeRedis redis;
+    private ShopTypeMapper shopTypeMapper;
+    private List<ShopType> types;
+
+    @BeforeEach
+    void setUp() {
+        redis = new FakeRedis();
+        shopTypeMapper = mock(ShopTypeMapper.class);
+        types = Collections.singletonList(new ShopType().setId(1L).setName("美食").setSort(1));
+        when(shopTypeMapper.selectList(any())).thenAnswer(invocation -> types);
+    }
+
+    /**
+     * 模拟一个节点，多个节点共用同一个Redis
+     */
+    private ShopTypeServiceImpl node() {
+        ShopTypeServiceImpl service = new ShopTypeServiceImpl();
+        RedissonClient redissonClient = mock(RedissonClient.class);
+        when(redissonClient.getLock(anyString())).thenReturn(mock(RLock.class));
+        ReflectionTestUtils.setField(service, "baseMapper", shopTypeMapper);
+        ReflectionTestUtils.setField(service, "stringRedisTemplate", redis.template);
+        ReflectionTestUtils.setField(service, "objectMapper", new ObjectMapper().findAndRegisterModules());
+        ReflectionTestUtils.setField(service, "redissonClient", redissonClient);
+        return service;
+    }
+
+    private static ShopTypeController controller(ShopTypeServiceImpl service) {
+        ShopTypeController controller = new ShopTypeController();
+        ReflectionTestUtils.setField(controller, "typeService", service);
+        return controller;
+    }
+
+    @Test
+    void etagRoundTripAcrossVersions() {
+        ShopTypeServiceImpl node1 = node();
+        ShopTypeController controller = controller(node1);
+
+        // Redis里还没有，第一次查询重建出版本1
+        ResponseEntity<byte[]> first = controller.queryTypeList(null);
+        assertEquals(HttpStatus.OK, first.getStatusCode());
+        String etag = first.getHeaders().getETag();
+        assertTrue(etag.startsWith("\"1-"), etag);
+        assertTrue(new String(first.getBody(), StandardCharsets.UTF_8).contains("美食"));
+
+        // 带着同一个ETag再来，返回304不带响应体
+        ResponseEntity<byte[]> notModified = controller.queryTypeList(etag);
+        assertEquals(HttpStatus.NOT_MODIFIED, notModified.getStatusCode());
+        assertNull(notModified.getBody());
+
+        // 另一个节点修改了类型，本节点定时同步之前还是旧版本
+        types = Arrays.asList(new ShopType().setId(1L).setName("美食").setSort(1),
+                new ShopType().setId(2L).setName("KTV").setSort(2));
+        node().rebuildTypeList();
+        assertEquals(HttpStatus.NOT_MODIFIED, controller.queryTypeList(etag).getStatusCode());
+
+        node1.syncTypeList();
+        ResponseEntity<byte[]> changed = controller.queryTypeList(etag);
+        assertEquals(HttpStatus.OK, changed.getStatusCode());
+        assertTrue(changed.getHeaders().getETag().startsWith("\"2-"));
+        assertTrue(new String(changed.getBody(), StandardCharsets.UTF_8).contains("KTV"));
+    }
+
+    @Test
+    void olderVersionNeverReplacesNewer() {
+        ShopTypeServiceImpl node1 = node();
+        node1.rebuildTypeList();
+        node().rebuildTypeList();
+        node1.syncTypeList();
+        SerializedResult latest = node1.queryTypeList();
+        assertEquals(2, latest.getVersion());
+
+        // Redis里被写回了旧版本，本地不会退回去
+        byte[] raw = redis.values.get(RedisConstants.CACHE_SHOP_TYPE_KEY);
+        raw[Long.BYTES - 1] = 1;
+        node1.syncTypeList();
+        assertSame(latest, node1.queryTypeList());
+    }
+}
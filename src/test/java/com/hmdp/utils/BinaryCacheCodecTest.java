@@ -0,0 +1,58 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryCacheCodecTest {
+
+    private final BinaryCacheCodec codec = BinaryCacheCodec.INSTANCE;
+
+    @Test
+    void roundTrip() {
+        Shop shop = new Shop().setId(1L).setName("103茶餐厅").setTypeId(1L).setX(120.149192).setY(30.316078)
+                .setAvgPrice(80L).setSold(4215).setScore(37).setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39));
+        byte[] bytes = codec.encode(shop);
+        assertTrue(BinaryCacheCodec.isBinary(bytes));
+        assertTrue(bytes.length < JsonCacheCodec.INSTANCE.encode(shop).length);
+        assertEquals(shop, codec.decode(bytes, Shop.class));
+    }
+
+    @Test
+    void logicalExpireInHeader() {
+        Shop shop = new Shop().setId(2L).setName("蔡馬洪涛烤肉");
+        RedisData redisData = new RedisData();
+        redisData.setData(shop);
+        redisData.setExpireTime(LocalDateTime.now().withNano(0).plusSeconds(30));
+        redisData.setRebuildMillis(35L);
+        byte[] bytes = codec.encodeLogical(redisData);
+        assertTrue(BinaryCacheCodec.isBinary(bytes));
+
+        RedisData decoded = codec.decodeLogical(bytes, Shop.class);
+        assertEquals(redisData.getExpireTime(), decoded.getExpireTime());
+        assertEquals(35L, decoded.getRebuildMillis());
+        assertEquals(shop, decoded.getData());
+    }
+
+    @Test
+    void readLegacyJson() {
+        Shop shop = new Shop().setId(3L).setName("新白鹿");
+        byte[] json = JsonCacheCodec.INSTANCE.encode(shop);
+        assertFalse(codec.isNativeFormat(json, Shop.class));
+        assertEquals(shop, codec.decode(json, Shop.class));
+    }
+
+    @Test
+    void jsonIsNativeWithoutSerializer() {
+        ShopType type = new ShopType().setId(1L).setName("美食");
+        byte[] bytes = codec.encode(type);
+        assertFalse(BinaryCacheCodec.isBinary(bytes));
+        // 没有二进制序列化器的类型只能写成JSON，读到时不应再迁移
+        assertTrue(codec.isNativeFormat(bytes, ShopType.class));
+        assertEquals(type.getName(), codec.decode(bytes, ShopType.class).getName());
+    }
+}
@@ -0,0 +1,134 @@
+package com.hmdp.utils;
+
+import com.hmdp.mapper.BlogMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.BLOG_HOT_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_LIKE_DELTA_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_LIKE_FLUSHING_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BlogLikeBufferTest {
+
+    private FakeRedis redis;
+    private BlogMapper blogMapper;
+    private BlogLikeBuffer buffer;
+
+    @BeforeEach
+    void setUp() {
+        redis = new FakeRedis();
+        blogMapper = mock(BlogMapper.class);
+        RedissonClient redissonClient = mock(RedissonClient.class);
+        RLock lock = mock(RLock.class);
+        when(lock.tryLock()).thenReturn(true);
+        when(redissonClient.getLock(anyString())).thenReturn(lock);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(mock(PlatformTransactionManager.class));
+        buffer = new BlogLikeBuffer(redis.template, blogMapper, redissonClient, transactionTemplate, 500);
+    }
+
+    private void flushing(String flushId, String... deltas) {
+        Map<String, String> hash = redis.hash(BLOG_LIKE_FLUSHING_KEY);
+        hash.put("_flushId", flushId);
+        for (int i = 0; i < deltas.length; i += 2) {
+            hash.put(deltas[i], deltas[i + 1]);
+        }
+    }
+
+    @Test
+    void replayExistingFlushingBeforeNewDeltas() {
+        // 上次写库后没来得及删除flushing，当前增量里又有新的点赞
+        flushing("f1", "1", "3");
+        redis.hash(BLOG_LIKE_DELTA_KEY).put("1", "2");
+        when(blogMapper.insertLikeFlush("f1")).thenReturn(1);
+
+        buffer.flush();
+
+        Map<Long, Long> replayed = new HashMap<>();
+        replayed.put(1L, 3L);
+        verify(blogMapper).incrLikedBatch(replayed);
+        assertFalse(redis.hashes.containsKey(BLOG_LIKE_FLUSHING_KEY));
+        // 新增量留到下一批
+        assertEquals("2", redis.hash(BLOG_LIKE_DELTA_KEY).get("1"));
+    }
+
+    @Test
+    void skipBatchAlreadyCommitted() {
+        flushing("f1", "1", "3");
+        when(blogMapper.insertLikeFlush("f1")).thenReturn(0);
+
+        buffer.flush();
+
+        verify(blogMapper, never()).incrLikedBatch(any());
+        assertFalse(redis.hashes.containsKey(BLOG_LIKE_FLUSHING_KEY));
+    }
+
+    @Test
+    void flushRenamesDeltaWithNewBatchId() {
+        buffer.toggle(1L, 10L);
+        buffer.toggle(1L, 11L);
+        when(blogMapper.insertLikeFlush(anyString())).thenReturn(1);
+
+        buffer.flush();
+
+        verify(blogMapper).incrLikedBatch(Collections.singletonMap(1L, 2L));
+        assertFalse(redis.hashes.containsKey(BLOG_LIKE_DELTA_KEY));
+        assertFalse(redis.hashes.containsKey(BLOG_LIKE_FLUSHING_KEY));
+    }
+
+    @Test
+    void pendingSumsBothHashesUntilBatchCommits() {
+        flushing("f1", "1", "3", "2", "-1");
+        assertTrue(buffer.toggle(1L, 10L));
+        assertTrue(buffer.toggle(1L, 11L));
+        assertFalse(buffer.toggle(1L, 11L));
+
+        Map<Long, Long> expected = new HashMap<>();
+        expected.put(1L, 4L);
+        expected.put(2L, -1L);
+        assertEquals(expected, buffer.pending(Arrays.asList(1L, 2L, 3L)));
+
+        // 批次已经提交、flushing还没删除，flushing里的增量已经在liked里了
+        when(blogMapper.countLikeFlush("f1")).thenReturn(1);
+        assertEquals(Collections.singletonMap(1L, 1L), buffer.pending(Arrays.asList(1L, 2L, 3L)));
+    }
+
+    @Test
+    void toggleReturnsStateAfterSwitch() {
+        // 笔记1在热门排行里，笔记2不在
+        redis.zsets.put(BLOG_HOT_KEY, new HashMap<>(Collections.singletonMap("1", 5.0)));
+
+        assertTrue(buffer.toggle(1L, 10L));
+        assertTrue(redis.zsets.get(BLOG_LIKED_KEY + 1).containsKey("10"));
+        assertEquals("1", redis.hash(BLOG_LIKE_DELTA_KEY).get("1"));
+        assertEquals(6.0, redis.zsets.get(BLOG_HOT_KEY).get("1"));
+
+        // 同一用户再点一次是取消点赞
+        assertFalse(buffer.toggle(1L, 10L));
+        assertFalse(redis.zsets.get(BLOG_LIKED_KEY + 1).containsKey("10"));
+        assertEquals("0", redis.hash(BLOG_LIKE_DELTA_KEY).get("1"));
+        assertEquals(5.0, redis.zsets.get(BLOG_HOT_KEY).get("1"));
+
+        // 不在排行里的笔记只记增量，不会被加进排行
+        assertTrue(buffer.toggle(2L, 10L));
+        assertTrue(buffer.toggle(2L, 11L));
+        assertEquals("2", redis.hash(BLOG_LIKE_DELTA_KEY).get("2"));
+        assertFalse(redis.zsets.get(BLOG_HOT_KEY).containsKey("2"));
+    }
+}
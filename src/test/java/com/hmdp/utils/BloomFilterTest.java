@@ -0,0 +1,71 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BloomFilterTest {
+
+    @Test
+    void sizing() {
+        // m = -n*ln(p)/(ln2)^2 = 9586，向上取整到64的倍数；k = m/n*ln2
+        BloomFilter filter = new BloomFilter(1000, 0.01);
+        assertEquals(9600, filter.getBitSize());
+        assertEquals(7, filter.getHashCount());
+        // 预计个数为0时也至少有一个long
+        BloomFilter tiny = new BloomFilter(0, 0.01);
+        assertEquals(64, tiny.getBitSize());
+        assertTrue(tiny.getHashCount() >= 1);
+    }
+
+    @Test
+    void noFalseNegativesAndExpectedFalsePositiveRate() {
+        int n = 10000;
+        BloomFilter filter = new BloomFilter(n, 0.01);
+        for (long id = 1; id <= n; id++) {
+            filter.put(id);
+        }
+        for (long id = 1; id <= n; id++) {
+            assertTrue(filter.mightContain(id));
+        }
+        int probes = 100000;
+        int falsePositives = 0;
+        for (long id = n + 1; id <= n + probes; id++) {
+            if (filter.mightContain(id)) {
+                falsePositives++;
+            }
+        }
+        double rate = (double) falsePositives / probes;
+        assertTrue(rate < 0.015, "误判率" + rate);
+    }
+
+    @Test
+    void redisBitmapMatchesBitIndexes() {
+        BloomFilter filter = new BloomFilter(100, 0.01);
+        long[] ids = {1, 42, 1L << 40};
+        for (long id : ids) {
+            filter.put(id);
+        }
+        byte[] bitmap = filter.toRedisBitmap();
+        assertEquals(filter.getBitSize() / 8, bitmap.length);
+        // 和SETBIT的位序一致：第index位是第index/8个字节从高位数的第index%8位
+        int set = 0;
+        for (long id : ids) {
+            for (long index : filter.bitIndexes(id)) {
+                assertNotEquals(0, bitmap[(int) (index >>> 3)] & (0x80 >>> (index & 7)));
+            }
+        }
+        for (byte b : bitmap) {
+            set += Integer.bitCount(b & 0xFF);
+        }
+        assertTrue(set <= ids.length * filter.getHashCount());
+        // 从位图按同样的位序读回，判断结果和原过滤器一致
+        for (long id = 0; id < 1000; id++) {
+            boolean all = true;
+            for (long index : filter.bitIndexes(id)) {
+                all &= (bitmap[(int) (index >>> 3)] & (0x80 >>> (index & 7))) != 0;
+            }
+            assertEquals(filter.mightContain(id), all);
+        }
+    }
+}
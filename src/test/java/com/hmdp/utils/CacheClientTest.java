@@ -0,0 +1,249 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CacheClientTest {
+
+    private static final String PREFIX = "test:cache:shop:";
+
+    private FakeRedis redis;
+    private LocalCacheManager localCacheManager;
+    private CacheRebuildExecutor rebuildExecutor;
+    private CacheClient cacheClient;
+    private final AtomicInteger singleLoads = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        redis = new FakeRedis();
+        localCacheManager = new LocalCacheManager();
+        IdBloomFilters bloomFilters = mock(IdBloomFilters.class);
+        when(bloomFilters.mightContain(any(), any())).thenReturn(true);
+        rebuildExecutor = new CacheRebuildExecutor(1, 10);
+        cacheClient = new CacheClient(redis.template, localCacheManager, mock(CacheInvalidationBus.class),
+                bloomFilters, rebuildExecutor, new HotKeyDetector(0, 1000, 20, 3000));
+        cacheClient.setCodec(PREFIX, BinaryCacheCodec.INSTANCE);
+        cacheClient.enableLocalCache(PREFIX, 100, 1, TimeUnit.MINUTES);
+    }
+
+    @AfterEach
+    void tearDown() {
+        rebuildExecutor.shutdown();
+        cacheClient.destroy();
+    }
+
+    private Shop loadOne(Long id) {
+        singleLoads.incrementAndGet();
+        return new Shop().setId(id).setName("shop" + id);
+    }
+
+    private static Map<Long, Shop> loadMany(List<Long> ids) {
+        Map<Long, Shop> shops = new HashMap<>();
+        for (Long id : ids) {
+            if (id < 100) {
+                shops.put(id, new Shop().setId(id).setName("shop" + id));
+            }
+        }
+        return shops;
+    }
+
+    private List<Shop> search(Function<List<Long>, Map<Long, Shop>> dbFallback, Long... ids) {
+        return cacheClient.queryMany(PREFIX, Arrays.asList(ids), Shop.class, dbFallback, 30L, TimeUnit.MINUTES);
+    }
+
+    @Test
+    void searchThenLogicalQuery() {
+        cacheClient.enableLogicalExpire(PREFIX);
+        List<Shop> shops = search(CacheClientTest::loadMany, 1L, 2L, 404L);
+        assertEquals("shop1", shops.get(0).getName());
+        assertNull(shops.get(2));
+        // L1和Redis里都是逻辑过期格式，单个查询直接命中
+        Shop shop = cacheClient.queryWithLogicalExpire(PREFIX, 1L, Shop.class, this::loadOne, 30L, TimeUnit.MINUTES);
+        assertEquals("shop1", shop.getName());
+        localCacheManager.get(PREFIX).invalidate(PREFIX + 2);
+        shop = cacheClient.queryWithLogicalExpire(PREFIX, 2L, Shop.class, this::loadOne, 30L, TimeUnit.MINUTES);
+        assertEquals("shop2", shop.getName());
+        assertNull(cacheClient.queryWithLogicalExpire(PREFIX, 404L, Shop.class, this::loadOne, 30L, TimeUnit.MINUTES));
+        assertEquals(0, singleLoads.get());
+    }
+
+    @Test
+    void passThroughUnwrapsLogicalValues() {
+        cacheClient.enableLogicalExpire(PREFIX);
+        search(CacheClientTest::loadMany, 1L, 2L);
+        // L1里是RedisData
+        assertEquals("shop1", cacheClient.queryWithPassThrough(PREFIX, 1L, Shop.class, this::loadOne,
+                30L, TimeUnit.MINUTES).getName());
+        // Redis里是逻辑过期格式
+        localCacheManager.get(PREFIX).invalidateAll();
+        assertEquals("shop2", cacheClient.queryWithMutex(PREFIX, 2L, Shop.class, this::loadOne,
+                30L, TimeUnit.MINUTES).getName());
+        assertEquals(0, singleLoads.get());
+    }
+
+    @Test
+    void logicalValuesReadBySearch() {
+        cacheClient.setWithLogicalExpire(PREFIX + 1, new Shop().setId(1L).setName("warmed"), 30L, TimeUnit.MINUTES);
+        localCacheManager.get(PREFIX).invalidateAll();
+        cacheClient.enableLogicalExpire(PREFIX);
+        List<Shop> shops = search(ids -> {
+            throw new AssertionError("不应查库");
+        }, 1L);
+        assertEquals("warmed", shops.get(0).getName());
+        // 再次命中的是L1里的RedisData
+        assertEquals("warmed", search(ids -> Collections.emptyMap(), 1L).get(0).getName());
+    }
+
+    @Test
+    void invalidateAndRefreshRewritesLatest() throws InterruptedException {
+        cacheClient.enableVersionFence(PREFIX);
+        cacheClient.set(PREFIX + 1, new Shop().setId(1L).setName("old"), 30L, TimeUnit.MINUTES);
+        cacheClient.invalidateAndRefresh(PREFIX + 1, () -> new Shop().setId(1L).setName("new"),
+                30L, TimeUnit.MINUTES);
+        long deadline = System.currentTimeMillis() + 2000;
+        while (redis.values.get(PREFIX + 1) == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("new", BinaryCacheCodec.INSTANCE.decode(redis.values.get(PREFIX + 1), Shop.class).getName());
+    }
+
+    @Test
+    void searchBackfillRespectsVersionFence() {
+        cacheClient.enableVersionFence(PREFIX);
+        List<Shop> shops = search(ids -> {
+            // 查库期间有更新提交
+            cacheClient.invalidate(PREFIX + 1);
+            return loadMany(ids);
+        }, 1L, 2L);
+        assertEquals("shop1", shops.get(0).getName());
+        assertNull(redis.values.get(PREFIX + 1));
+        assertNotNull(redis.values.get(PREFIX + 2));
+    }
+
+    @Test
+    void queryManyKeepsOrderAndBackfillsMisses() {
+        cacheClient.set(PREFIX + 1, new Shop().setId(1L).setName("cached"), 30L, TimeUnit.MINUTES);
+        localCacheManager.get(PREFIX).invalidateAll();
+        List<List<Long>> queried = new ArrayList<>();
+        List<Shop> shops = search(ids -> {
+            queried.add(new ArrayList<>(ids));
+            return loadMany(ids);
+        }, 3L, 1L, 404L, 3L, 2L);
+
+        // 按传入顺序返回，重复的id各占一位，查不到的是null
+        assertEquals(Arrays.asList("shop3", "cached", null, "shop3", "shop2"),
+                shops.stream().map(shop -> shop == null ? null : shop.getName()).collect(Collectors.toList()));
+        // Redis命中的不查库，未命中的去重后一次查库
+        assertEquals(Collections.singletonList(Arrays.asList(3L, 404L, 2L)), queried);
+        // 查到的回填，查不到的缓存空值
+        assertNotNull(redis.values.get(PREFIX + 3));
+        assertNotNull(redis.values.get(PREFIX + 2));
+        assertEquals(0, redis.values.get(PREFIX + 404).length);
+
+        localCacheManager.get(PREFIX).invalidateAll();
+        shops = search(ids -> {
+            throw new AssertionError("不应查库");
+        }, 2L, 404L, 3L);
+        assertEquals("shop2", shops.get(0).getName());
+        assertNull(shops.get(1));
+        assertEquals("shop3", shops.get(2).getName());
+    }
+
+    /**
+     * 均匀取样random，返回触发提前刷新的比例
+     */
+    private static double refreshRatio(long remaining, long rebuildMillis) {
+        int samples = 10000;
+        int refreshed = 0;
+        for (int i = 0; i < samples; i++) {
+            if (CacheClient.shouldRefreshEarly(0, remaining, rebuildMillis, (i + 0.5) / samples)) {
+                refreshed++;
+            }
+        }
+        return (double) refreshed / samples;
+    }
+
+    @Test
+    void earlyRefreshProbabilityGrowsTowardsExpiry() {
+        // 提前刷新的概率是exp(-剩余时间 / 重建耗时)
+        assertEquals(1.0, refreshRatio(0, 100));
+        assertEquals(Math.exp(-1), refreshRatio(100, 100), 0.01);
+        assertEquals(0.5, refreshRatio(Math.round(1000 * Math.log(2)), 1000), 0.01);
+        assertEquals(Math.exp(-5), refreshRatio(500, 100), 0.01);
+        assertEquals(0.0, refreshRatio(3_600_000, 100));
+        // 剩余时间相同，重建越慢越早刷新
+        assertTrue(refreshRatio(500, 1000) > refreshRatio(500, 100));
+    }
+
+    @Test
+    void ttlJitterStaysWithinBounds() {
+        cacheClient.setTtlJitter(PREFIX, 0.2);
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (int i = 0; i < 1000; i++) {
+            long ttl = cacheClient.ttlWithJitter(PREFIX + i, 100, TimeUnit.SECONDS);
+            min = Math.min(min, ttl);
+            max = Math.max(max, ttl);
+        }
+        // 只会延长不会缩短，最多延长ratio倍，1000个样本应该铺开大半个区间
+        assertTrue(min >= 100_000, "min " + min);
+        assertTrue(max <= 120_000, "max " + max);
+        assertTrue(max - min > 15_000, "spread " + (max - min));
+        // 没配置随机比例的前缀原样返回
+        assertEquals(100_000, cacheClient.ttlWithJitter("test:other:1", 100, TimeUnit.SECONDS));
+        assertThrows(IllegalArgumentException.class, () -> cacheClient.setTtlJitter(PREFIX, -0.1));
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> histogram = (Map<String, Object>) cacheClient.expiryHistograms().get(PREFIX);
+        assertEquals(1000L, histogram.get("total"));
+        @SuppressWarnings("unchecked")
+        Map<String, Long> buckets = (Map<String, Long>) histogram.get("buckets");
+        // 20秒的随机区间落在2到3个10秒的槽里
+        assertTrue(buckets.size() >= 2 && buckets.size() <= 3, "buckets " + buckets);
+    }
+
+    @Test
+    void invalidateFencesBackfillAndDeletesAgainLater() throws InterruptedException {
+        ReflectionTestUtils.setField(cacheClient, "doubleDeleteDelayMillis", 100L);
+        cacheClient.enableVersionFence(PREFIX);
+        cacheClient.set(PREFIX + 1, new Shop().setId(1L).setName("old"), 30L, TimeUnit.MINUTES);
+
+        // 查库期间更新提交：查到的旧数据因为版本号变了不回填
+        Shop shop = cacheClient.queryWithPassThrough(PREFIX, 2L, Shop.class, id -> {
+            cacheClient.invalidate(PREFIX + 2);
+            return new Shop().setId(id).setName("stale");
+        }, 30L, TimeUnit.MINUTES);
+        assertEquals("stale", shop.getName());
+        assertNull(redis.values.get(PREFIX + 2));
+        assertEquals("1", redis.get(RedisConstants.CACHE_VERSION_KEY + PREFIX + 2));
+
+        // 第一次删除立即生效，之后被写回的旧值由延时的第二次删除清掉
+        cacheClient.invalidate(PREFIX + 1);
+        assertNull(redis.values.get(PREFIX + 1));
+        redis.values.put(PREFIX + 1, BinaryCacheCodec.INSTANCE.encode(new Shop().setId(1L).setName("old")));
+        long deadline = System.currentTimeMillis() + 2000;
+        while (redis.values.get(PREFIX + 1) != null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNull(redis.values.get(PREFIX + 1));
+    }
+}
@@ -0,0 +1,98 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.CacheOutbox;
+import com.hmdp.mapper.CacheOutboxMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CacheInvalidationPipelineTest {
+
+    /**
+     * 模拟tb_cache_outbox
+     */
+    private final List<CacheOutbox> outbox = new CopyOnWriteArrayList<>();
+
+    private final List<String> invalidated = new CopyOnWriteArrayList<>();
+
+    private final AtomicBoolean failing = new AtomicBoolean();
+
+    private CacheInvalidationPipeline pipeline;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        CacheOutboxMapper mapper = mock(CacheOutboxMapper.class);
+        when(mapper.selectList(any())).thenAnswer(invocation -> outbox.stream()
+                .sorted(Comparator.comparing(CacheOutbox::getId)).collect(Collectors.toList()));
+        when(mapper.deleteBatchIds(any())).thenAnswer(invocation -> {
+            Collection<Long> ids = invocation.getArgument(0);
+            outbox.removeIf(record -> ids.contains(record.getId()));
+            return ids.size();
+        });
+        CacheClient cacheClient = mock(CacheClient.class);
+        doAnswer(invocation -> {
+            String key = invocation.getArgument(0);
+            if (failing.get() && key.endsWith(":2")) {
+                throw new IllegalStateException("Redis不可用");
+            }
+            invalidated.add(key);
+            return null;
+        }).when(cacheClient).invalidate(anyString());
+        pipeline = new CacheInvalidationPipeline(new OutboxChangeSource(mapper), cacheClient,
+                mock(IdBloomFilters.class), new HotKeyDetector(0, 1000, 20, 3000), 100, 1000, 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pipeline.stop();
+    }
+
+    private void change(long id, long rowId) {
+        outbox.add(new CacheOutbox().setId(id).setTableName("tb_shop").setRowId(rowId).setOp(ChangeEvent.UPDATE));
+    }
+
+    @Test
+    void failedBatchIsPulledAgain() {
+        change(1, 1);
+        change(2, 2);
+        failing.set(true);
+        assertThrows(RuntimeException.class, () -> pipeline.process());
+        // 整批没有确认，一条都没删
+        assertEquals(2, outbox.size());
+
+        failing.set(false);
+        change(3, 3);
+        assertEquals(3, pipeline.process());
+        assertTrue(outbox.isEmpty());
+        assertTrue(invalidated.contains(CACHE_SHOP_KEY + 2));
+    }
+
+    @Test
+    void lateCommittedRowIsNotSkipped() {
+        change(2, 2);
+        assertEquals(1, pipeline.process());
+        // id更小的事务后提交
+        change(1, 1);
+        change(3, 3);
+        assertEquals(2, pipeline.process());
+        assertTrue(invalidated.containsAll(Arrays.asList(CACHE_SHOP_KEY + 1, CACHE_SHOP_KEY + 2, CACHE_SHOP_KEY + 3)));
+        assertTrue(outbox.isEmpty());
+    }
+}
@@ -0,0 +1,67 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheRebuildExecutorTest {
+
+    @Test
+    void dedupAndReject() throws InterruptedException {
+        CacheRebuildExecutor executor = new CacheRebuildExecutor(1, 2);
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        assertTrue(executor.submit("k0", () -> {
+            started.countDown();
+            await(blocker);
+        }));
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        assertTrue(executor.submit("k1", () -> { }));
+        // 同一个key还在排队
+        assertFalse(executor.submit("k1", () -> { }));
+        assertTrue(executor.submit("k2", () -> { }));
+        // 队列已满
+        assertFalse(executor.submit("k3", () -> { }));
+        blocker.countDown();
+        executor.shutdown();
+
+        assertEquals(1L, executor.stats().get("deduplicated"));
+        assertEquals(1L, executor.stats().get("rejected"));
+    }
+
+    @Test
+    void hotLaneRunsFirst() throws InterruptedException {
+        CacheRebuildExecutor executor = new CacheRebuildExecutor(1, 10);
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+        List<String> order = new CopyOnWriteArrayList<>();
+        executor.submit("block", () -> await(blocker));
+        executor.submit("normal", () -> {
+            order.add("normal");
+            done.countDown();
+        });
+        executor.submit("hot", () -> {
+            order.add("hot");
+            done.countDown();
+        }, true);
+        blocker.countDown();
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        assertEquals("hot", order.get(0));
+        assertEquals(0, executor.stats().get("queueDepth"));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class ExpiryHistogramTest {
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void countsPerBucketAndPeakToMean() {
+        ExpiryHistogram histogram = new ExpiryHistogram(1000);
+        long base = (System.currentTimeMillis() / 1000 + 60) * 1000;
+        // 第一个槽3个，第二个槽1个
+        histogram.record(base);
+        histogram.record(base + 999);
+        histogram.record(base + 500);
+        histogram.record(base + 1000);
+        // 已经过期的槽不统计
+        histogram.record(System.currentTimeMillis() - 5000);
+
+        Map<String, Object> snapshot = histogram.snapshot();
+        Map<String, Long> buckets = (Map<String, Long>) snapshot.get("buckets");
+        assertEquals(3L, buckets.get(String.valueOf(base)));
+        assertEquals(1L, buckets.get(String.valueOf(base + 1000)));
+        assertEquals(2, buckets.size());
+        assertEquals(4L, snapshot.get("total"));
+        assertEquals(3L, snapshot.get("peak"));
+        assertEquals(1.5, (double) snapshot.get("peakToMean"), 1e-9);
+    }
+
+    @Test
+    void emptyHistogram() {
+        Map<String, Object> snapshot = new ExpiryHistogram(1000).snapshot();
+        assertEquals(0L, snapshot.get("total"));
+        assertFalse(((Map<?, ?>) snapshot.get("buckets")).containsKey("0"));
+    }
+}
@@ -0,0 +1,415 @@
+package com.hmdp.utils;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.Mockito.RETURNS_DEFAULTS;
+import static org.mockito.Mockito.mock;
+
+/**
+ * 单元测试用的内存Redis，只实现CacheClient用到的字符串命令、pipeline和几个脚本，
+ * 以及BlogLikeBuffer用到的哈希、有序集合、点赞脚本和写回脚本，FeedManager推送和读取用到的集合、有序集合命令，不处理过期
+ * 其他包里的服务测试也会用到，所以是public
+ */
+public class FakeRedis {
+
+    public final Map<String, byte[]> values = new ConcurrentHashMap<>();
+
+    public final Map<String, Map<String, String>> hashes = new ConcurrentHashMap<>();
+
+    public final Map<String, Map<String, Double>> zsets = new ConcurrentHashMap<>();
+
+    public final Map<String, Set<String>> sets = new ConcurrentHashMap<>();
+
+    public final StringRedisTemplate template;
+
+    /**
+     * 和Redis之间的往返次数，一次pipeline算一次
+     */
+    public final AtomicInteger roundTrips = new AtomicInteger();
+
+    private final StringRedisConnection connection;
+
+    private List<Object> pipeline;
+
+    @SuppressWarnings("unchecked")
+    public FakeRedis() {
+        connection = mock(StringRedisConnection.class, this::onConnection);
+        ValueOperations<String, String> ops = mock(ValueOperations.class, this::onValueOps);
+        HashOperations<String, Object, Object> hashOps = mock(HashOperations.class, this::onHashOps);
+        ZSetOperations<String, String> zSetOps = mock(ZSetOperations.class, this::onZSetOps);
+        SetOperations<String, String> setOps = mock(SetOperations.class, this::onSetOps);
+        template = mock(StringRedisTemplate.class, invocation -> onTemplate(invocation, ops, hashOps, zSetOps, setOps));
+    }
+
+    public Map<String, String> hash(String key) {
+        return hashes.computeIfAbsent(key, k -> new HashMap<>());
+    }
+
+    public String get(String key) {
+        byte[] value = values.get(key);
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
+
+    public Map<String, Double> zset(String key) {
+        return zsets.computeIfAbsent(key, k -> new HashMap<>());
+    }
+
+    private synchronized Object onTemplate(InvocationOnMock invocation, ValueOperations<String, String> ops,
+                                           HashOperations<String, Object, Object> hashOps,
+                                           ZSetOperations<String, String> zSetOps,
+                                           SetOperations<String, String> setOps) throws Throwable {
+        Object[] args = invocation.getArguments();
+        String method = invocation.getMethod().getName();
+        if (method.startsWith("execute") || "delete".equals(method) || "hasKey".equals(method)) {
+            roundTrips.incrementAndGet();
+        }
+        switch (method) {
+            case "execute":
+                if (args.length == 1 && args[0] instanceof RedisCallback) {
+                    return ((RedisCallback<?>) args[0]).doInRedis(connection);
+                }
+                if (args[0] instanceof RedisScript) {
+                    // Mockito把可变参数展开了，args[2]开始是脚本参数
+                    @SuppressWarnings("unchecked")
+                    List<String> keys = (List<String>) args[1];
+                    return evalScript(((RedisScript<?>) args[0]).getScriptAsString(), keys,
+                            Arrays.copyOfRange(args, 2, args.length));
+                }
+                break;
+            case "executePipelined":
+                if (args.length == 1 && args[0] instanceof RedisCallback) {
+                    pipeline = new ArrayList<>();
+                    try {
+                        ((RedisCallback<?>) args[0]).doInRedis(connection);
+                        List<Object> results = new ArrayList<>(pipeline.size());
+                        // 和StringRedisTemplate一样把字节结果反序列化成字符串
+                        for (Object result : pipeline) {
+                            results.add(result instanceof byte[]
+                                    ? new String((byte[]) result, StandardCharsets.UTF_8) : result);
+                        }
+                        return results;
+                    } finally {
+                        pipeline = null;
+                    }
+                }
+                break;
+            case "opsForValue":
+                return ops;
+            case "opsForHash":
+                return hashOps;
+            case "opsForZSet":
+                return zSetOps;
+            case "opsForSet":
+                return setOps;
+            case "hasKey":
+                return values.containsKey(args[0]) || hashes.containsKey(args[0])
+                        || zsets.containsKey(args[0]) || sets.containsKey(args[0]);
+            case "delete":
+                if (args[0] instanceof String) {
+                    boolean removed = values.remove(args[0]) != null;
+                    removed |= hashes.remove(args[0]) != null;
+                    removed |= sets.remove(args[0]) != null;
+                    return zsets.remove(args[0]) != null || removed;
+                }
+                break;
+            default:
+        }
+        return RETURNS_DEFAULTS.answer(invocation);
+    }
+
+    private Object onValueOps(InvocationOnMock invocation) throws Throwable {
+        Object[] args = invocation.getArguments();
+        roundTrips.incrementAndGet();
+        switch (invocation.getMethod().getName()) {
+            case "get":
+                return get((String) args[0]);
+            case "setIfAbsent":
+                return values.putIfAbsent((String) args[0], bytes((String) args[1])) == null;
+            case "increment":
+                synchronized (this) {
+                    String current = get((String) args[0]);
+                    long next = (current == null ? 0 : Long.parseLong(current)) + 1;
+                    values.put((String) args[0], bytes(String.valueOf(next)));
+                    return next;
+                }
+            default:
+                return RETURNS_DEFAULTS.answer(invocation);
+        }
+    }
+
+    private synchronized Object onHashOps(InvocationOnMock invocation) throws Throwable {
+        Object[] args = invocation.getArguments();
+        roundTrips.incrementAndGet();
+        Map<String, String> hash = hashes.get((String) args[0]);
+        switch (invocation.getMethod().getName()) {
+            case "entries":
+                return hash == null ? new HashMap<>() : new HashMap<Object, Object>(hash);
+            case "get":
+                return hash == null ? null : hash.get(args[1].toString());
+            case "put":
+                hash((String) args[0]).put(args[1].toString(), args[2].toString());
+                return null;
+            default:
+                return RETURNS_DEFAULTS.answer(invocation);
+        }
+    }
+
+    private synchronized Object onZSetOps(InvocationOnMock invocation) throws Throwable {
+        Object[] args = invocation.getArguments();
+        roundTrips.incrementAndGet();
+        String key = (String) args[0];
+        switch (invocation.getMethod().getName()) {
+            case "add":
+                return zset(key).put((String) args[1], (Double) args[2]) == null;
+            case "score":
+                return zsets.containsKey(key) ? zsets.get(key).get(args[1].toString()) : null;
+            case "removeRange":
+                return removeRange(key, (Long) args[1], (Long) args[2]);
+            case "zCard":
+                return zsets.containsKey(key) ? (long) zsets.get(key).size() : 0L;
+            default:
+                return RETURNS_DEFAULTS.answer(invocation);
+        }
+    }
+
+    private synchronized Object onSetOps(InvocationOnMock invocation) throws Throwable {
+        Object[] args = invocation.getArguments();
+        roundTrips.incrementAndGet();
+        String key = (String) args[0];
+        Set<String> set = sets.get(key);
+        switch (invocation.getMethod().getName()) {
+            case "add":
+                long added = 0;
+                for (int i = 1; i < args.length; i++) {
+                    added += sets.computeIfAbsent(key, k -> new HashSet<>()).add(args[i].toString()) ? 1 : 0;
+                }
+                return added;
+            case "remove":
+                long removed = 0;
+                for (int i = 1; i < args.length; i++) {
+                    removed += set != null && set.remove(args[i].toString()) ? 1 : 0;
+                }
+                return removed;
+            case "members":
+                return set == null ? new HashSet<>() : new HashSet<>(set);
+            case "intersect":
+                Set<String> other = sets.get((String) args[1]);
+                Set<String> both = set == null ? new HashSet<>() : new HashSet<>(set);
+                both.retainAll(other == null ? new HashSet<>() : other);
+                return both;
+            default:
+                return RETURNS_DEFAULTS.answer(invocation);
+        }
+    }
+
+    /**
+     * 有序集合按分数升序、分数相同按成员排序，和Redis一致
+     */
+    private List<Map.Entry<String, Double>> ranked(String key) {
+        List<Map.Entry<String, Double>> entries = new ArrayList<>(zsets.getOrDefault(key, new HashMap<>()).entrySet());
+        entries.sort(Map.Entry.<String, Double>comparingByValue().thenComparing(Map.Entry.comparingByKey()));
+        return entries;
+    }
+
+    /**
+     * ZREMRANGEBYRANK，负数下标从末尾数
+     */
+    private long removeRange(String key, long start, long end) {
+        List<Map.Entry<String, Double>> entries = ranked(key);
+        int size = entries.size();
+        long from = Math.max(0, start < 0 ? size + start : start);
+        long to = Math.min(size - 1, end < 0 ? size + end : end);
+        long removed = 0;
+        for (long i = from; i <= to; i++) {
+            zsets.get(key).remove(entries.get((int) i).getKey());
+            removed++;
+        }
+        return removed;
+    }
+
+    private static Set<ZSetOperations.TypedTuple<String>> tuples(List<Map.Entry<String, Double>> entries) {
+        Set<ZSetOperations.TypedTuple<String>> tuples = new LinkedHashSet<>();
+        for (Map.Entry<String, Double> entry : entries) {
+            tuples.add(new DefaultTypedTuple<>(entry.getKey(), entry.getValue()));
+        }
+        return tuples;
+    }
+
+    private Object onConnection(InvocationOnMock invocation) throws Throwable {
+        Object[] args = invocation.getArguments();
+        Object result;
+        switch (invocation.getMethod().getName()) {
+            case "zAdd":
+                result = zset(key(args[0])).put(key(args[2]), (Double) args[1]) == null;
+                break;
+            case "zRemRange":
+                result = removeRange(key(args[0]), (Long) args[1], (Long) args[2]);
+                break;
+            case "zCard":
+                result = (long) zsets.getOrDefault(key(args[0]), new HashMap<>()).size();
+                break;
+            case "zRangeWithScores": {
+                List<Map.Entry<String, Double>> entries = ranked(key(args[0]));
+                int from = (int) Math.min(entries.size(), (Long) args[1]);
+                int to = (int) Math.min(entries.size(), (Long) args[2] + 1);
+                // 像StringRedisTemplate的pipeline一样返回TypedTuple
+                result = tuples(entries.subList(from, Math.max(from, to)));
+                break;
+            }
+            case "zRevRangeByScoreWithScores": {
+                // (key, min, max, offset, count)
+                double min = (Double) args[1];
+                double max = (Double) args[2];
+                List<Map.Entry<String, Double>> entries = ranked(key(args[0]));
+                entries.sort(Comparator.comparing(
+                        (Map.Entry<String, Double> entry) -> entry.getValue()).thenComparing(Map.Entry::getKey).reversed());
+                List<Map.Entry<String, Double>> ranged = new ArrayList<>();
+                for (Map.Entry<String, Double> entry : entries) {
+                    if (entry.getValue() >= min && entry.getValue() <= max) {
+                        ranged.add(entry);
+                    }
+                }
+                int from = (int) Math.min(ranged.size(), (Long) args[3]);
+                int to = (int) Math.min(ranged.size(), from + (Long) args[4]);
+                result = tuples(ranged.subList(from, to));
+                break;
+            }
+            case "zScore":
+                Map<String, Double> zset = zsets.get(key(args[0]));
+                result = zset == null ? null : zset.get(key(args[1]));
+                break;
+            case "hMGet":
+                Map<String, String> hash = hashes.get(key(args[0]));
+                List<String> hashValues = new ArrayList<>(args.length - 1);
+                for (int i = 1; i < args.length; i++) {
+                    hashValues.add(hash == null ? null : hash.get(key(args[i])));
+                }
+                result = hashValues;
+                break;
+            case "get":
+                result = values.get(key(args[0]));
+                break;
+            case "mGet":
+                List<byte[]> list = new ArrayList<>(args.length);
+                for (Object arg : args) {
+                    list.add(values.get(key(arg)));
+                }
+                result = list;
+                break;
+            case "set":
+                values.put(key(args[0]), (byte[]) args[1]);
+                result = Boolean.TRUE;
+                break;
+            case "pSetEx":
+                values.put(key(args[0]), (byte[]) args[2]);
+                result = Boolean.TRUE;
+                break;
+            case "eval":
+                result = eval(new String((byte[]) args[0], StandardCharsets.UTF_8), args);
+                break;
+            default:
+                return RETURNS_DEFAULTS.answer(invocation);
+        }
+        if (pipeline != null) {
+            pipeline.add(result);
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * 按脚本内容模拟CacheClient里的版本号脚本和迁移脚本，args[3]开始是keys和参数
+     */
+    private Long eval(String script, Object[] args) {
+        if (script.startsWith("local v = redis.call('incr'")) {
+            String versionKey = key(args[3]);
+            String version = get(versionKey);
+            long next = version == null ? 1 : Long.parseLong(version) + 1;
+            values.put(versionKey, bytes(String.valueOf(next)));
+            return next;
+        }
+        if (script.startsWith("local v = redis.call('get', KEYS[2])")) {
+            String version = get(key(args[4]));
+            if (!(version == null ? "" : version).equals(key(args[5]))) {
+                return 0L;
+            }
+            values.put(key(args[3]), (byte[]) args[6]);
+            return 1L;
+        }
+        if (script.startsWith("local v = redis.call('get', KEYS[1])")) {
+            byte[] current = values.get(key(args[3]));
+            if (!Arrays.equals(current, (byte[]) args[4])) {
+                return 0L;
+            }
+            values.put(key(args[3]), (byte[]) args[5]);
+            return 1L;
+        }
+        throw new UnsupportedOperationException(script);
+    }
+
+    /**
+     * 按脚本内容模拟BlogLikeBuffer里的写回准备脚本和点赞脚本
+     */
+    private Long evalScript(String script, List<String> keys, Object[] argv) {
+        if (script.startsWith("if redis.call('exists', KEYS[2]) == 1 then return 1 end")) {
+            if (hashes.containsKey(keys.get(1))) {
+                return 1L;
+            }
+            Map<String, String> delta = hashes.remove(keys.get(0));
+            if (delta == null) {
+                return 0L;
+            }
+            delta.put(argv[0].toString(), argv[1].toString());
+            hashes.put(keys.get(1), delta);
+            return 1L;
+        }
+        if (script.startsWith("local delta = 1")) {
+            Map<String, Double> liked = zsets.computeIfAbsent(keys.get(0), k -> new HashMap<>());
+            String userId = argv[0].toString();
+            long delta = 1;
+            if (liked.remove(userId) != null) {
+                delta = -1;
+            } else {
+                liked.put(userId, Double.valueOf(argv[1].toString()));
+            }
+            hash(keys.get(1)).merge(argv[2].toString(), String.valueOf(delta),
+                    (a, b) -> String.valueOf(Long.parseLong(a) + Long.parseLong(b)));
+            Map<String, Double> hot = zsets.get(keys.get(2));
+            if (hot != null && hot.containsKey(argv[2].toString())) {
+                hot.merge(argv[2].toString(), (double) delta, Double::sum);
+            }
+            return delta;
+        }
+        throw new UnsupportedOperationException(script);
+    }
+
+    private static String key(Object raw) {
+        return raw instanceof String ? (String) raw : new String((byte[]) raw, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,262 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.AbstractWrapper;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Follow;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.mapper.FollowMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.ZSetOperations;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.FEED_ACTIVE_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_CELEBRITY_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_KEY;
+import static com.hmdp.utils.RedisConstants.FOLLOWS_KEY;
+import static com.hmdp.utils.RedisConstants.FOLLOWS_LOADED_KEY;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class FeedManagerTest {
+
+    /**
+     * 数据库里关注作者的全部笔记，按分数倒序
+     */
+    private static final List<ZSetOperations.TypedTuple<String>> DB = tuples(
+            "7", 7000, "6", 6000, "5", 5000, "4", 4000, "3", 4000, "2", 2000, "1", 1000);
+
+    private static List<ZSetOperations.TypedTuple<String>> tuples(Object... pairs) {
+        List<ZSetOperations.TypedTuple<String>> tuples = new ArrayList<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            tuples.add(new DefaultTypedTuple<>((String) pairs[i], ((Integer) pairs[i + 1]).doubleValue()));
+        }
+        return tuples;
+    }
+
+    private static List<ZSetOperations.TypedTuple<String>> cold(double before, int limit) {
+        return DB.stream().filter(t -> t.getScore() <= before).limit(limit).collect(Collectors.toList());
+    }
+
+    /**
+     * 模拟Redis按max、offset + count截取各来源后合并一页
+     */
+    private static List<ZSetOperations.TypedTuple<String>> page(List<List<ZSetOperations.TypedTuple<String>>> sources,
+                                                                long max, int offset, int count) {
+        List<Object> ranged = new ArrayList<>();
+        for (List<ZSetOperations.TypedTuple<String>> source : sources) {
+            ranged.add(source.stream().filter(t -> t.getScore() <= max).limit(offset + count)
+                    .collect(Collectors.toList()));
+        }
+        List<ZSetOperations.TypedTuple<String>> inbox = sources.get(0);
+        double boundary = inbox.isEmpty() ? Double.POSITIVE_INFINITY : inbox.get(inbox.size() - 1).getScore();
+        return FeedManager.mergePage(ranged, boundary, max, offset, count, FeedManagerTest::cold);
+    }
+
+    /**
+     * 按BlogServiceImpl.queryBlogOfFollow的方式一页页往下翻，返回依次读到的笔记id
+     */
+    private static List<String> scrollAll(List<List<ZSetOperations.TypedTuple<String>>> sources, int count) {
+        List<String> ids = new ArrayList<>();
+        long max = Long.MAX_VALUE;
+        int offset = 0;
+        for (int i = 0; i < 20; i++) {
+            List<ZSetOperations.TypedTuple<String>> page = page(sources, max, offset, count);
+            if (page.isEmpty()) {
+                return ids;
+            }
+            long minTime = 0;
+            int os = 1;
+            for (ZSetOperations.TypedTuple<String> tuple : page) {
+                ids.add(tuple.getValue());
+                long time = tuple.getScore().longValue();
+                if (time == minTime) {
+                    os++;
+                } else {
+                    minTime = time;
+                    os = 1;
+                }
+            }
+            max = minTime;
+            offset = os;
+        }
+        fail("没有翻到底");
+        return ids;
+    }
+
+    @Test
+    void oldestInboxEntryNotRepeatedFromDatabase() {
+        List<ZSetOperations.TypedTuple<String>> inbox = tuples("7", 7000, "6", 6000, "5", 5000);
+        List<ZSetOperations.TypedTuple<String>> page = page(Collections.singletonList(inbox), Long.MAX_VALUE, 0, 5);
+        assertEquals(Arrays.asList("7", "6", "5", "4", "3"),
+                page.stream().map(ZSetOperations.TypedTuple::getValue).collect(Collectors.toList()));
+    }
+
+    @Test
+    void scrollAcrossBoundaryWithTrimmedTies() {
+        // 4和3分数相同，收件箱裁剪时裁掉了3
+        List<ZSetOperations.TypedTuple<String>> inbox = tuples("7", 7000, "6", 6000, "5", 5000, "4", 4000);
+        assertEquals(Arrays.asList("7", "6", "5", "4", "3", "2", "1"),
+                scrollAll(Collections.singletonList(inbox), 2));
+        assertEquals(Arrays.asList("7", "6", "5", "4", "3", "2", "1"),
+                scrollAll(Collections.singletonList(inbox), 3));
+    }
+
+    @Test
+    void celebrityOutboxBelowBoundaryComesFromDatabase() {
+        List<ZSetOperations.TypedTuple<String>> inbox = tuples("7", 7000, "5", 5000);
+        // 大V的发件箱里比收件箱最旧一篇还早的部分不用，由数据库按同样的分数返回
+        List<ZSetOperations.TypedTuple<String>> outbox = tuples("6", 6000, "2", 2000);
+        assertEquals(Arrays.asList("7", "6", "5", "4", "3", "2", "1"), scrollAll(Arrays.asList(inbox, outbox), 2));
+    }
+
+    @Test
+    void emptyInboxReadsDatabase() {
+        assertEquals(Arrays.asList("7", "6", "5", "4", "3", "2", "1"),
+                scrollAll(Collections.singletonList(Collections.emptyList()), 2));
+    }
+
+    /**
+     * 条件构造器里按添加顺序排列的参数值
+     */
+    private static List<Object> params(Object wrapper) {
+        AbstractWrapper<?, ?, ?> w = (AbstractWrapper<?, ?, ?>) wrapper;
+        // 参数在生成SQL片段时才放进map
+        w.getSqlSegment();
+        return w.getParamNameValuePairs().entrySet().stream()
+                .sorted(Comparator.comparing(e -> Integer.valueOf(e.getKey().replaceAll("\\D", ""))))
+                .map(Map.Entry::getValue).collect(Collectors.toList());
+    }
+
+    private static FeedManager feedManager(FakeRedis redis, FollowMapper followMapper, BlogMapper blogMapper,
+                                           int fanoutBatchSize) {
+        return new FeedManager(redis.template, followMapper, blogMapper, 10, 7, 1000, 200, fanoutBatchSize, 50, 14, 200);
+    }
+
+    /**
+     * followers个粉丝，tb_follow的id是1..followers，粉丝用户id是100 + id，都是活跃用户
+     */
+    private static FollowMapper followers(FakeRedis redis, long authorId, int followers, List<Long> queriedAfter) {
+        FollowMapper followMapper = mock(FollowMapper.class);
+        when(followMapper.selectCount(any())).thenAnswer(invocation ->
+                authorId == (Long) params(invocation.getArgument(0)).get(0) ? followers : 0);
+        when(followMapper.selectList(any())).thenAnswer(invocation -> {
+            List<Object> params = params(invocation.getArgument(0));
+            if (authorId != (Long) params.get(0)) {
+                return Collections.emptyList();
+            }
+            long after = (Long) params.get(1);
+            queriedAfter.add(after);
+            int limit = Integer.parseInt(((AbstractWrapper<?, ?, ?>) invocation.getArgument(0)).getSqlSegment()
+                    .replaceAll(".*limit (\\d+).*", "$1"));
+            List<Follow> page = new ArrayList<>();
+            for (long id = after + 1; id <= followers && page.size() < limit; id++) {
+                page.add(new Follow().setId(id).setUserId(100 + id).setFollowUserId(authorId));
+            }
+            return page;
+        });
+        for (long id = 1; id <= followers; id++) {
+            redis.zset(FEED_ACTIVE_KEY).put(String.valueOf(100 + id), (double) System.currentTimeMillis());
+        }
+        return followMapper;
+    }
+
+    @Test
+    void readMergesPushedInboxWithPulledCelebrityOutbox() {
+        FakeRedis redis = new FakeRedis();
+        // 用户1关注了普通作者10（1个粉丝）和大V 20（10个粉丝，达到阈值）
+        FollowMapper followMapper = mock(FollowMapper.class);
+        when(followMapper.selectCount(any())).thenAnswer(invocation ->
+                (Long) params(invocation.getArgument(0)).get(0) == 20L ? 10 : 1);
+        when(followMapper.selectList(any())).thenAnswer(invocation -> {
+            List<Object> params = params(invocation.getArgument(0));
+            return (Long) params.get(0) == 10L && (Long) params.get(1) == 0L
+                    ? Collections.singletonList(new Follow().setId(1L).setUserId(1L).setFollowUserId(10L))
+                    : Collections.emptyList();
+        });
+        redis.zset(FEED_ACTIVE_KEY).put("1", (double) System.currentTimeMillis());
+        redis.sets.put(FOLLOWS_KEY + 1, new HashSet<>(Arrays.asList("10", "20")));
+        redis.values.put(FOLLOWS_LOADED_KEY + 1, "1".getBytes());
+
+        LocalDateTime base = LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS).minusHours(3);
+        // 笔记99在关注之前发布，只在数据库里
+        List<Blog> db = Arrays.asList(
+                new Blog().setId(202L).setUserId(20L).setCreateTime(base.plusMinutes(100)),
+                new Blog().setId(102L).setUserId(10L).setCreateTime(base.plusMinutes(90)),
+                new Blog().setId(201L).setUserId(20L).setCreateTime(base.plusMinutes(80)),
+                new Blog().setId(101L).setUserId(10L).setCreateTime(base.plusMinutes(70)),
+                new Blog().setId(99L).setUserId(10L).setCreateTime(base));
+        BlogMapper blogMapper = mock(BlogMapper.class);
+        when(blogMapper.selectList(any())).thenAnswer(invocation -> {
+            LocalDateTime before = (LocalDateTime) params(invocation.getArgument(0)).stream()
+                    .filter(p -> p instanceof LocalDateTime).findFirst().orElseThrow(IllegalStateException::new);
+            return db.stream().filter(b -> !b.getCreateTime().isAfter(before)).collect(Collectors.toList());
+        });
+
+        FeedManager feedManager = feedManager(redis, followMapper, blogMapper, 500);
+        for (int i = db.size() - 2; i >= 0; i--) {
+            Blog blog = db.get(i);
+            feedManager.deliver(blog.getUserId(), blog.getId(), FeedManager.score(blog.getCreateTime()), 0, id -> { });
+        }
+
+        // 普通作者推到收件箱，大V只写发件箱
+        assertEquals(Arrays.asList("101", "102"), redis.zsets.get(FEED_KEY + 1).keySet().stream().sorted()
+                .collect(Collectors.toList()));
+        assertEquals(Collections.singleton("20"), redis.sets.get(FEED_CELEBRITY_KEY));
+
+        List<ZSetOperations.TypedTuple<String>> page = feedManager.read(1L, Long.MAX_VALUE, 0, 10);
+        assertEquals(Arrays.asList("202", "102", "201", "101", "99"),
+                page.stream().map(ZSetOperations.TypedTuple::getValue).collect(Collectors.toList()));
+        assertEquals(FeedManager.score(base.plusMinutes(100)), page.get(0).getScore().longValue());
+    }
+
+    @Test
+    void fanoutResumesFromRecordedProgress() {
+        FakeRedis redis = new FakeRedis();
+        List<Long> queriedAfter = new ArrayList<>();
+        FeedManager feedManager = feedManager(redis, followers(redis, 10L, 5, queriedAfter), mock(BlogMapper.class), 2);
+        List<Long> progress = new ArrayList<>();
+
+        // 推完第一页、记录进度后节点宕机
+        assertThrows(IllegalStateException.class, () -> feedManager.deliver(10L, 1L, 1000, 0, lastId -> {
+            progress.add(lastId);
+            throw new IllegalStateException("down");
+        }));
+        assertEquals(Collections.singletonList(2L), progress);
+        assertTrue(redis.zsets.containsKey(FEED_KEY + 102));
+        assertFalse(redis.zsets.containsKey(FEED_KEY + 103));
+
+        // 接手后从记录的粉丝位置继续，不再从头查
+        feedManager.deliver(10L, 1L, 1000, progress.get(progress.size() - 1), progress::add);
+        assertEquals(Arrays.asList(2L, 4L, 5L), progress);
+        assertEquals(Arrays.asList(0L, 2L, 4L), queriedAfter);
+        for (long userId = 101; userId <= 105; userId++) {
+            assertEquals(Collections.singletonMap("1", 1000.0), redis.zsets.get(FEED_KEY + userId));
+        }
+    }
+
+    @Test
+    void fanoutSkipsInactiveFollowers() {
+        FakeRedis redis = new FakeRedis();
+        FeedManager feedManager = feedManager(redis, followers(redis, 10L, 2, new ArrayList<>()), mock(BlogMapper.class), 2);
+        // 粉丝102八天没读过关注流，推送跳过，下次读取时重建收件箱
+        redis.zset(FEED_ACTIVE_KEY).put("102", (double) (System.currentTimeMillis() - 8 * 24 * 3600_000L));
+
+        feedManager.deliver(10L, 1L, 1000, 0, lastId -> { });
+
+        assertTrue(redis.zsets.containsKey(FEED_KEY + 101));
+        assertFalse(redis.zsets.containsKey(FEED_KEY + 102));
+    }
+}
@@ -0,0 +1,115 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.ShopDistance;
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GridShopLocatorTest {
+
+    private static final long TYPE_ID = 1L;
+
+    @Test
+    void sameResultAsBruteForce() {
+        List<Shop> shops = randomShops(2000);
+        GridShopLocator locator = new GridShopLocator(0.01);
+        locator.reload(Collections.singletonList(shops).iterator());
+
+        Random random = new Random(7);
+        for (int i = 0; i < 50; i++) {
+            double x = 120.0 + random.nextDouble() * 0.4;
+            double y = 30.1 + random.nextDouble() * 0.4;
+            List<Long> expected = bruteForce(shops, x, y).stream()
+                    .limit(10).map(ShopDistance::getShopId).collect(Collectors.toList());
+            List<Long> actual = locator.nearest(TYPE_ID, x, y, 10).stream()
+                    .map(ShopDistance::getShopId).collect(Collectors.toList());
+            assertEquals(expected, actual);
+
+            List<Long> inRadius = bruteForce(shops, x, y).stream()
+                    .filter(d -> d.getDistance() <= 3000).map(ShopDistance::getShopId).collect(Collectors.toList());
+            List<Long> searched = locator.searchRadius(TYPE_ID, x, y, 3000, Integer.MAX_VALUE).stream()
+                    .map(ShopDistance::getShopId).collect(Collectors.toList());
+            assertEquals(inRadius, searched);
+        }
+    }
+
+    @Test
+    void upsertMovesAndRemoveDeletes() {
+        GridShopLocator locator = new GridShopLocator(0.01);
+        locator.upsert(new Shop().setId(1L).setTypeId(TYPE_ID).setX(120.1).setY(30.2));
+        locator.upsert(new Shop().setId(1L).setTypeId(TYPE_ID).setX(120.3).setY(30.4));
+        assertEquals(1, locator.size(TYPE_ID));
+        assertTrue(locator.searchRadius(TYPE_ID, 120.1, 30.2, 1000, 10).isEmpty());
+        assertEquals(1L, locator.nearest(TYPE_ID, 120.1, 30.2, 1).get(0).getShopId());
+
+        locator.remove(TYPE_ID, 1L);
+        assertTrue(locator.nearest(TYPE_ID, 120.1, 30.2, 1).isEmpty());
+    }
+
+    @Test
+    void writesDuringReloadSurviveSwap() {
+        GridShopLocator locator = new GridShopLocator(0.01);
+        locator.upsert(new Shop().setId(2L).setTypeId(TYPE_ID).setX(120.2).setY(30.2));
+        // 第一页读完后商铺1移动、商铺2删除、新增商铺3，分页读到的还是旧数据
+        List<List<Shop>> pages = new ArrayList<>();
+        pages.add(Collections.singletonList(new Shop().setId(1L).setTypeId(TYPE_ID).setX(120.1).setY(30.1)));
+        pages.add(Collections.singletonList(new Shop().setId(2L).setTypeId(TYPE_ID).setX(120.2).setY(30.2)));
+        Iterator<List<Shop>> source = pages.iterator();
+        locator.reload(new Iterator<List<Shop>>() {
+            @Override
+            public boolean hasNext() {
+                return source.hasNext();
+            }
+
+            @Override
+            public List<Shop> next() {
+                List<Shop> page = source.next();
+                if (page.get(0).getId() == 2L) {
+                    locator.upsert(new Shop().setId(1L).setTypeId(TYPE_ID).setX(120.3).setY(30.3));
+                    locator.remove(TYPE_ID, 2L);
+                    locator.upsert(new Shop().setId(3L).setTypeId(TYPE_ID).setX(120.4).setY(30.4));
+                }
+                return page;
+            }
+        });
+
+        assertEquals(2, locator.size(TYPE_ID));
+        assertTrue(locator.searchRadius(TYPE_ID, 120.1, 30.1, 1000, 10).isEmpty());
+        assertTrue(locator.searchRadius(TYPE_ID, 120.2, 30.2, 1000, 10).isEmpty());
+        assertEquals(1L, locator.nearest(TYPE_ID, 120.3, 30.3, 1).get(0).getShopId());
+        assertEquals(3L, locator.nearest(TYPE_ID, 120.4, 30.4, 1).get(0).getShopId());
+    }
+
+    @Test
+    void distanceUsesRedisEarthRadius() {
+        // 沿经线1度 = 6372797.560856 * π / 180
+        assertEquals(111226.30, GridShopLocator.distance(120, 30, 120, 31), 0.01);
+    }
+
+    private static List<Shop> randomShops(int count) {
+        Random random = new Random(42);
+        List<Shop> shops = new ArrayList<>(count);
+        for (long id = 1; id <= count; id++) {
+            shops.add(new Shop().setId(id).setTypeId(TYPE_ID)
+                    .setX(120.0 + random.nextDouble() * 0.4).setY(30.1 + random.nextDouble() * 0.4));
+        }
+        return shops;
+    }
+
+    private static List<ShopDistance> bruteForce(List<Shop> shops, double x, double y) {
+        return shops.stream()
+                .map(shop -> new ShopDistance(shop.getId(), GridShopLocator.distance(x, y, shop.getX(), shop.getY())))
+                .sorted(Comparator.comparingDouble(ShopDistance::getDistance))
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,53 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HotKeyDetectorTest {
+
+    @Test
+    void promoteAndDecay() {
+        HotKeyDetector detector = new HotKeyDetector(1.0, 10, 3, 10000);
+        for (int i = 0; i < 9; i++) {
+            assertFalse(detector.record("shop:1"));
+        }
+        assertTrue(detector.record("shop:1"));
+        detector.record("shop:2");
+
+        List<Map<String, Object>> top = detector.topKeys();
+        assertEquals("shop:1", top.get(0).get("key"));
+        assertEquals(true, top.get(0).get("hot"));
+
+        // 10 -> 5，仍不低于阈值的一半
+        detector.decay();
+        assertTrue(detector.isHot("shop:1"));
+        // 5 -> 2，取消热点
+        detector.decay();
+        assertFalse(detector.isHot("shop:1"));
+    }
+
+    @Test
+    void hotKeyServedLocally() {
+        HotKeyDetector detector = new HotKeyDetector(1.0, 2, 3, 10000);
+        AtomicInteger loads = new AtomicInteger();
+        for (int i = 0; i < 5; i++) {
+            assertEquals("v", detector.getOrLoad("token:1", () -> {
+                loads.incrementAndGet();
+                return "v";
+            }));
+        }
+        // 第1次未成为热点，第2次成为热点后加载一次并缓存
+        assertEquals(2, loads.get());
+        detector.evict("token:1");
+        detector.getOrLoad("token:1", () -> {
+            loads.incrementAndGet();
+            return "v";
+        });
+        assertEquals(3, loads.get());
+    }
+}
@@ -0,0 +1,40 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LocalCacheTest {
+
+    @Test
+    void getAndNullValue() {
+        LocalCache cache = new LocalCache("test:", 100, 10, TimeUnit.SECONDS);
+        cache.put("test:1", "shop");
+        cache.put("test:2", null);
+        assertEquals("shop", cache.get("test:1"));
+        assertSame(LocalCache.NULL_VALUE, cache.get("test:2"));
+        assertNull(cache.get("test:3"));
+        assertEquals(2L, cache.stats().get("hits"));
+        assertEquals(1L, cache.stats().get("misses"));
+    }
+
+    @Test
+    void expire() throws InterruptedException {
+        LocalCache cache = new LocalCache("test:", 100, 50, TimeUnit.MILLISECONDS);
+        cache.put("test:1", "shop");
+        Thread.sleep(80);
+        assertNull(cache.get("test:1"));
+    }
+
+    @Test
+    void evictWhenFull() {
+        LocalCache cache = new LocalCache("test:", 16, 10, TimeUnit.SECONDS);
+        for (int i = 0; i < 1000; i++) {
+            cache.put("test:" + i, i);
+        }
+        assertTrue(cache.size() <= 16);
+        assertTrue((Long) cache.stats().get("evictions") > 0);
+    }
+}
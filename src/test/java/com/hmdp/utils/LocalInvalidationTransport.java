@@ -0,0 +1,59 @@
+package com.hmdp.utils;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 进程内的失效通道，同步投递给所有订阅者，用于单元测试模拟多个节点
+ */
+class LocalInvalidationTransport implements InvalidationTransport {
+
+    private final List<Consumer<CacheInvalidationMessage>> listeners = new CopyOnWriteArrayList<>();
+
+    private final Map<String, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    /**
+     * 为true时丢弃所有消息，用于模拟消息丢失
+     */
+    private volatile boolean dropping;
+
+    @Override
+    public void publish(CacheInvalidationMessage message) {
+        if (dropping) {
+            return;
+        }
+        for (Consumer<CacheInvalidationMessage> listener : listeners) {
+            listener.accept(message);
+        }
+    }
+
+    @Override
+    public void subscribe(Consumer<CacheInvalidationMessage> listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public long nextVersion(String keyPrefix) {
+        return versions.computeIfAbsent(keyPrefix, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    @Override
+    public Map<String, Long> currentVersions(Collection<String> keyPrefixes) {
+        Map<String, Long> result = new HashMap<>(keyPrefixes.size());
+        for (String prefix : keyPrefixes) {
+            AtomicLong version = versions.get(prefix);
+            result.put(prefix, version == null ? 0L : version.get());
+        }
+        return result;
+    }
+
+    public void setDropping(boolean dropping) {
+        this.dropping = dropping;
+    }
+}
@@ -0,0 +1,29 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ScrollCursorTest {
+
+    @Test
+    void roundTrip() {
+        String cursor = ScrollCursor.encode(104, 23);
+        assertArrayEquals(new long[]{104, 23}, ScrollCursor.decode(cursor, 2));
+    }
+
+    @Test
+    void blankIsFirstPage() {
+        assertEquals(0, ScrollCursor.decode(null, 1).length);
+        assertEquals(0, ScrollCursor.decode("", 1).length);
+    }
+
+    @Test
+    void invalidCursor() {
+        assertNull(ScrollCursor.decode("not base64!", 1));
+        assertNull(ScrollCursor.decode(ScrollCursor.encode(1, 2), 1));
+        assertNull(ScrollCursor.decode("YWJj", 1));
+    }
+}
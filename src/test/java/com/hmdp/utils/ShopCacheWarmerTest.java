@@ -0,0 +1,119 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class ShopCacheWarmerTest {
+
+    private static final int PAGE_SIZE = 2;
+    private static final long THROTTLE_MILLIS = 50;
+
+    private ShopMapper shopMapper;
+    private CacheClient cacheClient;
+    private ShopCacheWarmer warmer;
+
+    @BeforeEach
+    void setUp() {
+        shopMapper = mock(ShopMapper.class);
+        cacheClient = mock(CacheClient.class);
+        warmer = new ShopCacheWarmer(shopMapper, cacheClient);
+        ReflectionTestUtils.setField(warmer, "enabled", true);
+        ReflectionTestUtils.setField(warmer, "pageSize", PAGE_SIZE);
+        ReflectionTestUtils.setField(warmer, "throttleMillis", THROTTLE_MILLIS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        warmer.destroy();
+    }
+
+    /**
+     * 按调用次数依次返回各页，每页按PAGE_SIZE切
+     */
+    private void shops(int count) {
+        List<List<Shop>> pages = new ArrayList<>();
+        for (long id = 1; id <= count; id += PAGE_SIZE) {
+            List<Shop> page = new ArrayList<>();
+            for (long i = id; i < id + PAGE_SIZE && i <= count; i++) {
+                page.add(new Shop().setId(i));
+            }
+            pages.add(page);
+        }
+        if (count % PAGE_SIZE == 0) {
+            pages.add(new ArrayList<>());
+        }
+        when(shopMapper.selectCount(any())).thenReturn(count);
+        Iterator<List<Shop>> next = pages.iterator();
+        when(shopMapper.selectList(any())).thenAnswer(invocation -> next.next());
+    }
+
+    @Test
+    void pausesBetweenFullPages() {
+        shops(7);
+        long begin = System.currentTimeMillis();
+        assertTrue(warmer.warmup());
+        long elapsed = System.currentTimeMillis() - begin;
+
+        // 3个满页之后各停顿一次，最后一页不满直接结束
+        assertTrue(elapsed >= 3 * THROTTLE_MILLIS, "elapsed " + elapsed);
+        verify(cacheClient, times(4)).setWithLogicalExpireBatch(anyMap(), anyLong(), any());
+        assertEquals("FINISHED", warmer.progress().get("status"));
+        assertEquals(7L, warmer.progress().get("written"));
+        assertEquals(7L, warmer.progress().get("lastId"));
+    }
+
+    @Test
+    void refusesWhenDisabled() {
+        ReflectionTestUtils.setField(warmer, "enabled", false);
+        assertFalse(warmer.warmup());
+        assertFalse(warmer.warmupAsync());
+        verifyNoInteractions(shopMapper, cacheClient);
+    }
+
+    @Test
+    void onlyOneRunAtATime() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(shopMapper.selectCount(any())).thenAnswer(invocation -> {
+            started.countDown();
+            release.await();
+            return 0;
+        });
+        when(shopMapper.selectList(any())).thenReturn(new ArrayList<>());
+
+        assertTrue(warmer.warmupAsync());
+        assertTrue(started.await(2, TimeUnit.SECONDS));
+        assertFalse(warmer.warmup());
+        assertFalse(warmer.warmupAsync());
+        assertEquals("RUNNING", warmer.progress().get("status"));
+        release.countDown();
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!"FINISHED".equals(warmer.progress().get("status")) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("FINISHED", warmer.progress().get("status"));
+        verify(cacheClient, never()).setWithLogicalExpireBatch(anyMap(), anyLong(), any());
+    }
+}
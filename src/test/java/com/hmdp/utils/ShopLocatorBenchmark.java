@@ -0,0 +1,114 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.ShopDistance;
+import com.hmdp.entity.Shop;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.redisson.Redisson;
+import org.redisson.api.RedissonClient;
+import org.redisson.config.Config;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 附近商铺查询两种实现的对比，redis需要本机6379端口有Redis（会写入shop:geo:1）
+ * 在IDE里运行main方法，不随mvn test执行
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShopLocatorBenchmark {
+
+    private static final long TYPE_ID = 1L;
+
+    /**
+     * 杭州附近的范围，和hmdp.sql里的测试数据一致
+     */
+    private static final double MIN_X = 120.0;
+    private static final double MIN_Y = 30.1;
+    private static final double SPAN = 0.4;
+
+    @Param({"memory", "redis"})
+    private String locator;
+
+    @Param({"10000"})
+    private int shops;
+
+    private ShopLocator shopLocator;
+
+    private LettuceConnectionFactory connectionFactory;
+
+    private RedissonClient redissonClient;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        if ("redis".equals(locator)) {
+            connectionFactory = new LettuceConnectionFactory("127.0.0.1", 6379);
+            connectionFactory.afterPropertiesSet();
+            Config config = new Config();
+            config.useSingleServer().setAddress("redis://127.0.0.1:6379");
+            redissonClient = Redisson.create(config);
+            shopLocator = new RedisShopLocator(new StringRedisTemplate(connectionFactory), redissonClient);
+        } else {
+            shopLocator = new GridShopLocator(0.01);
+        }
+        Random random = new Random(42);
+        List<Shop> page = new ArrayList<>(shops);
+        for (long id = 1; id <= shops; id++) {
+            page.add(new Shop().setId(id).setTypeId(TYPE_ID)
+                    .setX(MIN_X + random.nextDouble() * SPAN).setY(MIN_Y + random.nextDouble() * SPAN));
+        }
+        shopLocator.reload(Collections.singletonList(page).iterator());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (connectionFactory != null) {
+            connectionFactory.destroy();
+        }
+        if (redissonClient != null) {
+            redissonClient.shutdown();
+        }
+    }
+
+    @Benchmark
+    public List<ShopDistance> radius5km() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return shopLocator.searchRadius(TYPE_ID,
+                MIN_X + random.nextDouble() * SPAN, MIN_Y + random.nextDouble() * SPAN, 5000, 10);
+    }
+
+    @Benchmark
+    public List<ShopDistance> nearest10() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return shopLocator.nearest(TYPE_ID, MIN_X + random.nextDouble() * SPAN, MIN_Y + random.nextDouble() * SPAN, 10);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ShopLocatorBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,99 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShopSearchIndexTest {
+
+    private static Shop shop(long id, String name, String area, String address, int score, int sold) {
+        return new Shop().setId(id).setName(name).setArea(area).setAddress(address).setScore(score).setSold(sold);
+    }
+
+    private ShopSearchIndex index() {
+        ShopSearchIndex index = new ShopSearchIndex();
+        index.reload(Collections.singletonList(Arrays.asList(
+                shop(1, "103茶餐厅", "大关", "金华路锦昌文华苑29号", 37, 4215),
+                shop(2, "蔡馬洪涛烤肉·老北京铜锅涮羊肉", "拱宸桥/上塘", "上塘路1035号", 45, 2160),
+                shop(3, "新白鹿餐厅(运河上街店)", "运河上街", "台州路2号运河上街购物中心F5", 47, 12035),
+                shop(4, "新白鹿餐厅(远洋乐堤港店)", "拱宸桥/上塘", "丽水路58号远洋乐堤港F4", 46, 11006),
+                shop(5, "Mamala(杭州远洋乐堤港店)", "拱宸桥/上塘", "远洋乐堤港商城2期", 47, 13519)
+        )).iterator());
+        return index;
+    }
+
+    @Test
+    void rankByFieldThenScoreAndSold() {
+        ShopSearchIndex index = index();
+        // 名称前缀优先，同档按评分
+        assertEquals(Arrays.asList(3L, 4L), index.search("新白鹿", 0, 10));
+        // 名称包含优先于地址包含
+        assertEquals(Arrays.asList(5L, 4L), index.search("远洋乐堤港", 0, 10));
+        // 商圈命中
+        assertEquals(Arrays.asList(5L, 4L, 2L), index.search("上塘", 0, 10));
+        // 单字、大小写
+        assertEquals(Arrays.asList(5L), index.search("mama", 0, 10));
+        assertEquals(Arrays.asList(4L), index.search("新白鹿", 1, 10));
+    }
+
+    @Test
+    void gramsMustAppearInOrder() {
+        // "餐茶"的单字都在"103茶餐厅"里，但原文不包含
+        assertTrue(index().search("餐茶", 0, 10).isEmpty());
+    }
+
+    @Test
+    void suggestAndIncrementalUpdate() {
+        ShopSearchIndex index = index();
+        assertEquals(Arrays.asList("新白鹿餐厅(运河上街店)", "新白鹿餐厅(远洋乐堤港店)"), index.suggest("新白", 10));
+
+        index.upsert(shop(4, "外婆家(远洋店)", "拱宸桥/上塘", "丽水路58号", 40, 100));
+        assertEquals(Arrays.asList(3L), index.search("新白鹿", 0, 10));
+        assertEquals(Arrays.asList(4L), index.search("外婆家", 0, 10));
+
+        index.remove(3L);
+        assertTrue(index.search("新白鹿", 0, 10).isEmpty());
+        assertTrue(index.suggest("新白", 10).isEmpty());
+    }
+
+    @Test
+    void writesDuringReloadSurviveSwap() {
+        ShopSearchIndex index = new ShopSearchIndex();
+        // 第一页读完后商铺1改名、商铺2删除、新增商铺3，分页读到的还是旧数据
+        List<List<Shop>> pages = new ArrayList<>();
+        pages.add(Collections.singletonList(shop(1, "103茶餐厅", "大关", "金华路", 37, 4215)));
+        pages.add(Collections.singletonList(shop(2, "新白鹿餐厅", "运河上街", "台州路2号", 47, 12035)));
+        Iterator<List<Shop>> source = pages.iterator();
+        index.reload(new Iterator<List<Shop>>() {
+            @Override
+            public boolean hasNext() {
+                return source.hasNext();
+            }
+
+            @Override
+            public List<Shop> next() {
+                List<Shop> page = source.next();
+                if (page.get(0).getId() == 2L) {
+                    index.upsert(shop(1, "外婆家", "大关", "金华路", 37, 4215));
+                    index.remove(2L);
+                    index.upsert(shop(3, "Mamala", "拱宸桥/上塘", "远洋乐堤港", 47, 13519));
+                }
+                return page;
+            }
+        });
+
+        assertEquals(2, index.size());
+        assertTrue(index.search("茶餐厅", 0, 10).isEmpty());
+        assertTrue(index.search("新白鹿", 0, 10).isEmpty());
+        assertEquals(Arrays.asList(1L), index.search("外婆家", 0, 10));
+        assertEquals(Arrays.asList(3L), index.search("mamala", 0, 10));
+    }
+}
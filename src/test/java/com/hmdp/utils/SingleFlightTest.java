@@ -0,0 +1,101 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    private static final int CALLERS = 8;
+
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    /**
+     * CALLERS个线程同时请求同一个key，等所有等待方都挂上之后才放行加载
+     */
+    private List<Future<Object>> concurrentCalls(ExecutorService pool, CountDownLatch release, Object result)
+            throws InterruptedException {
+        List<Future<Object>> futures = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            futures.add(pool.submit(() -> singleFlight.execute("k", () -> {
+                loads.incrementAndGet();
+                awaitQuietly(release);
+                if (result instanceof RuntimeException) {
+                    throw (RuntimeException) result;
+                }
+                return result;
+            }, 5, TimeUnit.SECONDS)));
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (singleFlight.getShared() < CALLERS - 1) {
+            assertTrue(System.currentTimeMillis() < deadline, "等待方没有全部挂上");
+            Thread.sleep(5);
+        }
+        release.countDown();
+        return futures;
+    }
+
+    @Test
+    void concurrentCallersShareOneLoad() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(CALLERS);
+        try {
+            Object value = new Object();
+            for (Future<Object> future : concurrentCalls(pool, new CountDownLatch(1), value)) {
+                assertSame(value, future.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(1, loads.get());
+        assertEquals(1L, singleFlight.stats().get("executions"));
+        assertEquals((long) CALLERS - 1, singleFlight.stats().get("shared"));
+        assertEquals(0, singleFlight.stats().get("inFlight"));
+    }
+
+    @Test
+    void exceptionReachesAllWaiters() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(CALLERS);
+        IllegalStateException failure = new IllegalStateException("数据库不可用");
+        try {
+            for (Future<Object> future : concurrentCalls(pool, new CountDownLatch(1), failure)) {
+                ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+                assertSame(failure, e.getCause());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void keyReleasedAfterFailure() {
+        assertThrows(IllegalStateException.class, () -> singleFlight.execute("k", () -> {
+            throw new IllegalStateException("数据库不可用");
+        }, 1, TimeUnit.SECONDS));
+        assertEquals(0, singleFlight.stats().get("inFlight"));
+        // 失败后key已经释放，下一次调用重新加载而不是拿到上次的异常
+        assertEquals("ok", singleFlight.execute("k", () -> "ok", 1, TimeUnit.SECONDS));
+        assertEquals(2L, singleFlight.getExecutions());
+        assertEquals(0L, singleFlight.getShared());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}